@@ -0,0 +1,147 @@
+package com.loliowo.minote;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.gtask.data.MetaData;
+import net.micode.notes.gtask.data.Task;
+import net.micode.notes.tool.GTaskStringUtils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 元数据的精简编码与变化检测：
+ * 编码后经任务还原的内容与 SqlNote.getContent 的结果一致，旧版本读取时需要的字段都在，
+ * 内容不变时不再上传。
+ */
+@RunWith(AndroidJUnit4.class)
+public class MetaDataTest {
+  private static final String GID = "task-gid";
+
+  private static final String TEXT = "first line\nsecond line";
+
+  @Test
+  public void compactMeta_restoresNoteContent() throws Exception {
+    MetaData meta = new MetaData();
+    assertTrue(meta.setMeta(GID, newNoteContent(222)));
+
+    JSONObject expected = newNoteContent(222);
+    expected.put(GTaskStringUtils.META_HEAD_GTASK_ID, GID);
+    assertTrue(meta.getNotes().length() < expected.toString().length());
+
+    Task task = new Task();
+    task.setName(TEXT);
+    task.setMetaInfo(meta);
+    JSONObject actual = task.getLocalJSONFromContent();
+    assertSameFields(expected.getJSONObject(GTaskStringUtils.META_HEAD_NOTE),
+      actual.getJSONObject(GTaskStringUtils.META_HEAD_NOTE));
+    JSONArray expectedData = expected.getJSONArray(GTaskStringUtils.META_HEAD_DATA);
+    JSONArray actualData = actual.getJSONArray(GTaskStringUtils.META_HEAD_DATA);
+    assertEquals(expectedData.length(), actualData.length());
+    for (int i = 0; i < expectedData.length(); i++) {
+      assertSameFields(expectedData.getJSONObject(i), actualData.getJSONObject(i));
+    }
+  }
+
+  @Test
+  public void compactMeta_keepsFieldsReadByOlderClients() throws Exception {
+    MetaData meta = new MetaData();
+    meta.setMeta(GID, newNoteContent(222));
+
+    JSONObject payload = new JSONObject(meta.getNotes());
+    assertEquals(GID, payload.getString(GTaskStringUtils.META_HEAD_GTASK_ID));
+    JSONObject note = payload.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
+    assertEquals(1024L, note.getLong(NoteColumns.ID));
+    assertEquals(Notes.TYPE_NOTE, note.getInt(NoteColumns.TYPE));
+    assertEquals(2, note.getInt(NoteColumns.BG_COLOR_ID));
+    JSONArray dataArray = payload.getJSONArray(GTaskStringUtils.META_HEAD_DATA);
+    assertEquals(DataConstants.NOTE, dataArray.getJSONObject(0).getString(DataColumns.MIME_TYPE));
+    assertEquals(DataConstants.CALL_NOTE,
+      dataArray.getJSONObject(1).getString(DataColumns.MIME_TYPE));
+  }
+
+  @Test
+  public void unchangedMeta_isNotUploaded() throws Exception {
+    MetaData meta = new MetaData();
+    assertTrue(meta.setMeta(GID, newNoteContent(222)));
+    assertFalse(meta.setMeta(GID, newNoteContent(222)));
+    assertTrue(meta.setMeta(GID, newNoteContent(333)));
+  }
+
+  @Test
+  public void remoteMetaInOldFormat_isComparedByContent() throws Exception {
+    JSONObject metaInfo = newNoteContent(222);
+    metaInfo.put(GTaskStringUtils.META_HEAD_GTASK_ID, GID);
+    JSONObject js = new JSONObject();
+    js.put(GTaskStringUtils.GTASK_JSON_ID, "meta-gid");
+    js.put(GTaskStringUtils.GTASK_JSON_NAME, GTaskStringUtils.META_NOTE_NAME);
+    js.put(GTaskStringUtils.GTASK_JSON_NOTES, metaInfo.toString());
+    MetaData meta = new MetaData();
+    meta.setContentByRemoteJSON(js);
+    assertEquals(GID, meta.getRelatedGid());
+
+    assertFalse(meta.setMeta(GID, newNoteContent(222)));
+    assertTrue(meta.setMeta(GID, newNoteContent(333)));
+  }
+
+  private static void assertSameFields(JSONObject expected, JSONObject actual)
+    throws Exception {
+    assertEquals(expected.length(), actual.length());
+    Iterator<String> keys = expected.keys();
+    while (keys.hasNext()) {
+      String key = keys.next();
+      assertEquals(key, expected.getString(key), actual.getString(key));
+    }
+  }
+
+  /**
+   * 与 SqlNote.getContent 结构相同的笔记内容，包含一条正文数据和一条通话记录数据
+   */
+  private static JSONObject newNoteContent(long modifiedDate) throws Exception {
+    JSONObject note = new JSONObject();
+    note.put(NoteColumns.ID, 1024L);
+    note.put(NoteColumns.ALERTED_DATE, 0L);
+    note.put(NoteColumns.BG_COLOR_ID, 2);
+    note.put(NoteColumns.CREATED_DATE, 111L);
+    note.put(NoteColumns.HAS_ATTACHMENT, 0);
+    note.put(NoteColumns.MODIFIED_DATE, modifiedDate);
+    note.put(NoteColumns.PARENT_ID, (long) Notes.ID_CALL_RECORD_FOLDER);
+    note.put(NoteColumns.SNIPPET, TEXT);
+    note.put(NoteColumns.TYPE, Notes.TYPE_NOTE);
+    note.put(NoteColumns.WIDGET_ID, 0);
+    note.put(NoteColumns.WIDGET_TYPE, Notes.TYPE_WIDGET_INVALIDE);
+    note.put(NoteColumns.ORIGIN_PARENT_ID, 0L);
+
+    JSONArray dataArray = new JSONArray();
+    dataArray.put(newData(2048L, DataConstants.NOTE, TEXT, 0L, ""));
+    dataArray.put(newData(2049L, DataConstants.CALL_NOTE, "", 333L, "10086"));
+
+    JSONObject js = new JSONObject();
+    js.put(GTaskStringUtils.META_HEAD_NOTE, note);
+    js.put(GTaskStringUtils.META_HEAD_DATA, dataArray);
+    return js;
+  }
+
+  private static JSONObject newData(long id, String mimeType, String content, long data1,
+                                    String data3) throws Exception {
+    JSONObject data = new JSONObject();
+    data.put(DataColumns.ID, id);
+    data.put(DataColumns.MIME_TYPE, mimeType);
+    data.put(DataColumns.CONTENT, content);
+    data.put(DataColumns.DATA1, data1);
+    data.put(DataColumns.DATA3, data3);
+    return data;
+  }
+}
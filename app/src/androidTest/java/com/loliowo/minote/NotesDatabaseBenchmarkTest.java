@@ -0,0 +1,144 @@
+package com.loliowo.minote;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesDatabaseHelper;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 混合读写吞吐量基准测试：一个线程模拟同步时的批量写事务，
+ * 另一个线程反复执行笔记列表查询，分别统计默认配置（回滚日志）
+ * 与 NotesDatabaseHelper.onConfigure 配置（WAL 等）下的读写次数。
+ * <p>
+ * 结果输出到 logcat（TAG 为 NotesDatabaseBenchmark），只对基本可用性做断言。
+ */
+@RunWith(AndroidJUnit4.class)
+public class NotesDatabaseBenchmarkTest {
+  private static final String TAG = "NotesDatabaseBenchmark";
+
+  private static final long DURATION_MS = 3000;
+  private static final int SEED_NOTES = 1000;
+  private static final int NOTES_PER_TRANSACTION = 100;
+
+  private static final String LIST_SELECTION = "(" + NoteColumns.TYPE + "<>" + Notes.TYPE_SYSTEM
+    + " AND " + NoteColumns.PARENT_ID + "=?)" + " OR (" + NoteColumns.ID + "="
+    + Notes.ID_CALL_RECORD_FOLDER + " AND " + NoteColumns.NOTES_COUNT + ">0)";
+
+  @Test
+  public void mixedReadWriteThroughput() throws Exception {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    long[] before = runMixedWorkload(context, false);
+    long[] after = runMixedWorkload(context, true);
+
+    Log.i(TAG, "default: reads=" + before[0] + " writes=" + before[1]);
+    Log.i(TAG, "tuned:   reads=" + after[0] + " writes=" + after[1]);
+    Log.i(TAG, "read throughput ratio (tuned/default): "
+      + (before[0] > 0 ? (double) after[0] / before[0] : Double.NaN));
+
+    assertTrue(before[0] > 0 && before[1] > 0);
+    assertTrue(after[0] > 0 && after[1] > 0);
+  }
+
+  /**
+   * 在独立的数据库文件上运行一轮混合负载
+   *
+   * @param tuned 是否应用 NotesDatabaseHelper.onConfigure 中的连接配置
+   * @return {读取次数, 写事务次数}
+   */
+  private long[] runMixedWorkload(Context context, boolean tuned) throws InterruptedException {
+    File file = context.getDatabasePath("benchmark_" + (tuned ? "tuned" : "default") + ".db");
+    SQLiteDatabase.deleteDatabase(file);
+    file.getParentFile().mkdirs();
+
+    final SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+    try {
+      NotesDatabaseHelper helper = new NotesDatabaseHelper(context);
+      if (tuned) {
+        helper.onConfigure(db);
+      }
+      helper.onCreate(db);
+      insertNotes(db, SEED_NOTES);
+
+      final AtomicBoolean running = new AtomicBoolean(true);
+      final AtomicLong reads = new AtomicLong();
+      final AtomicLong writes = new AtomicLong();
+
+      Thread writer = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          while (running.get()) {
+            insertNotes(db, NOTES_PER_TRANSACTION);
+            writes.incrementAndGet();
+          }
+        }
+      });
+      Thread reader = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          String[] args = new String[]{String.valueOf(Notes.ID_ROOT_FOLDER)};
+          while (running.get()) {
+            Cursor c = db.query(TABLE.NOTE, null, LIST_SELECTION, args, null, null,
+              NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC");
+            try {
+              c.moveToFirst();
+              c.getCount();
+            } finally {
+              c.close();
+            }
+            reads.incrementAndGet();
+          }
+        }
+      });
+
+      writer.start();
+      reader.start();
+      Thread.sleep(DURATION_MS);
+      running.set(false);
+      writer.join();
+      reader.join();
+      return new long[]{reads.get(), writes.get()};
+    } finally {
+      db.close();
+      SQLiteDatabase.deleteDatabase(file);
+    }
+  }
+
+  /**
+   * 在一个事务中向根目录插入若干条笔记
+   */
+  private static void insertNotes(SQLiteDatabase db, int count) {
+    ContentValues values = new ContentValues();
+    db.beginTransaction();
+    try {
+      for (int i = 0; i < count; i++) {
+        values.clear();
+        values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+        values.put(NoteColumns.TYPE, Notes.TYPE_NOTE);
+        values.put(NoteColumns.SNIPPET, "benchmark note " + i);
+        values.put(NoteColumns.MODIFIED_DATE, System.currentTimeMillis());
+        db.insert(TABLE.NOTE, null, values);
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package com.loliowo.minote;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesDatabaseHelper;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+import net.micode.notes.gtask.remote.GTaskManager;
+import net.micode.notes.ui.NotesListActivity;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * 对 NotesProvider 上的主要查询执行 EXPLAIN QUERY PLAN，
+ * 一旦某条查询退化为对 note 表的全表扫描（SCAN note）即判定失败。
+ * <p>
+ * 列表和同步的查询条件直接引用调用处的常量；其余查询条件与调用处保持一致，
+ * 修改这些调用处的查询时需要同步修改这里。
+ */
+@RunWith(AndroidJUnit4.class)
+public class NotesQueryPlanTest {
+  private SQLiteDatabase mDb;
+
+  @Before
+  public void setUp() {
+    Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    // 使用内存数据库按当前版本建表，不影响应用自身的数据
+    mDb = SQLiteDatabase.create(null);
+    new NotesDatabaseHelper(appContext).onCreate(mDb);
+  }
+
+  @After
+  public void tearDown() {
+    mDb.close();
+  }
+
+  /**
+   * NotesListActivity.startAsyncNotesListQuery：根目录下的笔记列表
+   */
+  @Test
+  public void rootFolderListQuery() {
+    assertNoNoteScan(NotesListActivity.ROOT_FOLDER_SELECTION, NoteColumns.TYPE + " DESC,"
+      + NoteColumns.MODIFIED_DATE + " DESC", String.valueOf(Notes.ID_ROOT_FOLDER));
+  }
+
+  /**
+   * NotesProvider.queryNotePage：按键值分页时的两段查询
+   */
+  @Test
+  public void notePageQueries() {
+    String orderBy = NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC,"
+      + NoteColumns.ID + " DESC";
+    String sameType = NoteColumns.TYPE + "=? AND " + NoteColumns.MODIFIED_DATE + "<=? AND ("
+      + NoteColumns.MODIFIED_DATE + "<? OR " + NoteColumns.ID + "<?)";
+    String lowerType = NoteColumns.TYPE + "<?";
+    String root = String.valueOf(Notes.ID_ROOT_FOLDER);
+    String type = String.valueOf(Notes.TYPE_NOTE);
+    for (String selection : new String[]{
+      NotesListActivity.ROOT_FOLDER_SELECTION, NotesListActivity.NORMAL_SELECTION
+    }) {
+      assertNoNoteScan("(" + selection + ") AND " + sameType, orderBy,
+        root, type, "1000", "1000", "1024");
+      assertNoNoteScan("(" + selection + ") AND " + lowerType, orderBy, root, type);
+    }
+  }
+
+  /**
+   * NotesListActivity.startAsyncNotesListQuery：普通文件夹下的笔记列表
+   */
+  @Test
+  public void folderListQuery() {
+    assertNoNoteScan(NotesListActivity.NORMAL_SELECTION, NoteColumns.TYPE + " DESC,"
+      + NoteColumns.MODIFIED_DATE + " DESC", "1024");
+  }
+
+  /**
+   * NotesListActivity.startQueryDestinationFolders：移动笔记时的目标文件夹列表
+   */
+  @Test
+  public void destinationFoldersQuery() {
+    String selection = NoteColumns.TYPE + "=? AND " + NoteColumns.PARENT_ID + "<>? AND "
+      + NoteColumns.ID + "<>?";
+    String[] args = new String[]{
+      String.valueOf(Notes.TYPE_FOLDER), String.valueOf(Notes.ID_TRASH_FOLER), "1024"
+    };
+    assertNoNoteScan(selection, NoteColumns.MODIFIED_DATE + " DESC", args);
+    assertNoNoteScan("(" + selection + ") OR (" + NoteColumns.ID + "="
+      + Notes.ID_ROOT_FOLDER + ")", NoteColumns.MODIFIED_DATE + " DESC", args);
+  }
+
+  /**
+   * GTaskManager.syncContent / syncFolder / syncLocalNodes 中的扫描
+   */
+  @Test
+  public void syncQueries() {
+    String trash = String.valueOf(Notes.ID_TRASH_FOLER);
+    String folder = String.valueOf(Notes.TYPE_FOLDER);
+    assertNoNoteScan(GTaskManager.TRASHED_NOTES_SELECTION, null,
+      String.valueOf(Notes.TYPE_SYSTEM), trash);
+    assertNoNoteScan(GTaskManager.LOCAL_NODES_SELECTION, null, folder, trash);
+    assertNoNoteScan(GTaskManager.LOCAL_NODES_SELECTION + " AND " + NoteColumns.ID
+      + " IN (1024,1025)", NoteColumns.TYPE + " DESC", folder, trash);
+    assertNoNoteScan("(_id=?)", null, "1024");
+  }
+
+  /**
+   * SyncReconciler.queryPage 与 GTaskManager.syncLocalAddedNotes：同步时的分页查询，
+   * 每页都按索引顺序读取，不能扫描全表，也不能先排序整个结果
+   */
+  @Test
+  public void syncPageQueries() {
+    String type = String.valueOf(Notes.TYPE_NOTE);
+    String joined = GTaskManager.SYNCED_NOTES_SELECTION;
+    assertIndexedPage(joined, NoteColumns.GTASK_ID, "200", type);
+    // the condition SyncReconciler.queryPage appends for the following pages
+    assertIndexedPage("(" + joined + ") AND " + NoteColumns.GTASK_ID + ">?",
+      NoteColumns.GTASK_ID, "200", type, "gid");
+    assertIndexedPage(GTaskManager.LOCAL_ADDED_NOTES_SELECTION, NoteColumns.ID, "200",
+      type, String.valueOf(Notes.ID_TRASH_FOLER), "1024");
+  }
+
+  /**
+   * DataUtils、AlarmInitReceiver 与 NoteWidgetProvider 中的查询
+   */
+  @Test
+  public void utilityQueries() {
+    assertNoNoteScan(NoteColumns.TYPE + "=? AND " + NoteColumns.PARENT_ID + "<>?",
+      null, String.valueOf(Notes.TYPE_FOLDER), String.valueOf(Notes.ID_TRASH_FOLER));
+    assertNoNoteScan(NoteColumns.TYPE + "=" + Notes.TYPE_FOLDER + " AND "
+      + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER + " AND "
+      + NoteColumns.SNIPPET + "=?", null, "folder");
+    assertNoNoteScan(NoteColumns.PARENT_ID + "=?", null, "1024");
+    assertNoNoteScan(NoteColumns.ALERTED_DATE + ">? AND " + NoteColumns.TYPE
+      + "=" + Notes.TYPE_NOTE, null, "0");
+    assertNoNoteScan(NoteColumns.WIDGET_ID + "=? AND " + NoteColumns.PARENT_ID
+      + "<>?", null, "1", String.valueOf(Notes.ID_TRASH_FOLER));
+  }
+
+  /**
+   * 按照 SQLiteDatabase.query 的方式拼出查询语句，执行 EXPLAIN QUERY PLAN 并检查结果
+   */
+  private void assertNoNoteScan(String selection, String orderBy, String... selectionArgs) {
+    String sql = SQLiteQueryBuilder.buildQueryString(false, TABLE.NOTE, null, selection,
+      null, null, orderBy, null);
+    List<String> plan = explain(sql, selectionArgs);
+    for (String detail : plan) {
+      // 新版 SQLite 输出 "SCAN note"，旧版输出 "SCAN TABLE note"
+      boolean scan = detail.startsWith("SCAN " + TABLE.NOTE)
+        || detail.startsWith("SCAN TABLE " + TABLE.NOTE);
+      assertFalse("full scan of note table in plan " + plan + " for: " + sql, scan);
+    }
+  }
+
+  /**
+   * 检查分页查询既不扫描 note 表，也不为排序建立临时 B 树
+   */
+  private void assertIndexedPage(String selection, String orderBy, String limit,
+                                 String... selectionArgs) {
+    String sql = SQLiteQueryBuilder.buildQueryString(false, TABLE.NOTE, null, selection,
+      null, null, orderBy, limit);
+    List<String> plan = explain(sql, selectionArgs);
+    for (String detail : plan) {
+      boolean scan = detail.startsWith("SCAN " + TABLE.NOTE)
+        || detail.startsWith("SCAN TABLE " + TABLE.NOTE);
+      assertFalse("full scan of note table in plan " + plan + " for: " + sql, scan);
+      assertFalse("temp sort in plan " + plan + " for: " + sql,
+        detail.startsWith("USE TEMP B-TREE"));
+    }
+  }
+
+  private List<String> explain(String sql, String[] selectionArgs) {
+    List<String> plan = new ArrayList<String>();
+    Cursor c = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+    try {
+      int detailColumn = c.getColumnIndexOrThrow("detail");
+      while (c.moveToNext()) {
+        plan.add(c.getString(detailColumn));
+      }
+    } finally {
+      c.close();
+    }
+    return plan;
+  }
+}
@@ -0,0 +1,157 @@
+package com.loliowo.minote;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.gtask.data.SqlNote;
+import net.micode.notes.gtask.data.SyncWriteBatch;
+import net.micode.notes.tool.GTaskStringUtils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 统计 SqlNote.commit 调用内容提供者的次数：
+ * 写入成功后不再重新读取笔记和数据，只有版本校验失败时才重新读取。
+ */
+@RunWith(AndroidJUnit4.class)
+public class SqlNoteCommitTest {
+  private Context mContext;
+
+  private SqlNote mNote;
+
+  @Before
+  public void setUp() throws Exception {
+    mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    mNote = new SqlNote(mContext);
+    mNote.setContent(newNoteContent("first"));
+    mNote.setParentId(Notes.ID_ROOT_FOLDER);
+  }
+
+  @After
+  public void tearDown() {
+    mContext.getContentResolver().delete(
+      ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, mNote.getId()), null, null);
+  }
+
+  @Test
+  public void commit_writesWithoutReloading() throws Exception {
+    long before = SqlNote.getProviderCallCount();
+    mNote.commit(false);
+    // one note insert and one data insert
+    assertEquals(2, SqlNote.getProviderCallCount() - before);
+    assertEquals("first", mNote.getSnippet());
+
+    JSONObject js = mNote.getContent();
+    setText(js, "second");
+    mNote.setContent(js);
+    before = SqlNote.getProviderCallCount();
+    mNote.commit(true);
+    // only the data update, the note row is unchanged
+    assertEquals(1, SqlNote.getProviderCallCount() - before);
+    assertEquals("second", mNote.getSnippet());
+    assertEquals("second", querySnippet());
+    assertEquals(queryVersion(), mNote.getVersion());
+  }
+
+  @Test
+  public void commit_reloadsWhenChangedMeanwhile() throws Exception {
+    mNote.commit(false);
+
+    // a single edit by the user while syncing
+    Uri uri = ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, mNote.getId());
+    ContentValues values = new ContentValues();
+    values.put(NoteColumns.LOCAL_MODIFIED, 1);
+    mContext.getContentResolver().update(uri, values, null, null);
+
+    JSONObject js = mNote.getContent();
+    js.getJSONObject(GTaskStringUtils.META_HEAD_NOTE).put(NoteColumns.BG_COLOR_ID, 1);
+    setText(js, "second");
+    mNote.setContent(js);
+    long before = SqlNote.getProviderCallCount();
+    mNote.commit(true);
+    // the rejected note update, then the note and its data are read again
+    assertEquals(3, SqlNote.getProviderCallCount() - before);
+    assertEquals("first", mNote.getSnippet());
+    assertEquals(queryVersion(), mNote.getVersion());
+  }
+
+  @Test
+  public void batchCommit_skipsWhenChangedMeanwhile() throws Exception {
+    mNote.commit(false);
+
+    // a single edit by the user while syncing
+    Uri uri = ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, mNote.getId());
+    ContentValues values = new ContentValues();
+    values.put(NoteColumns.LOCAL_MODIFIED, 1);
+    mContext.getContentResolver().update(uri, values, null, null);
+    long version = queryVersion();
+
+    JSONObject js = mNote.getContent();
+    js.getJSONObject(GTaskStringUtils.META_HEAD_NOTE).put(NoteColumns.BG_COLOR_ID, 1);
+    setText(js, "second");
+    mNote.setContent(js);
+    SyncWriteBatch batch = new SyncWriteBatch(mContext.getContentResolver());
+    mNote.commit(batch, true);
+    batch.flush();
+    // neither the note nor its text is overwritten
+    assertEquals("first", querySnippet());
+    assertEquals(version, queryVersion());
+  }
+
+  private static JSONObject newNoteContent(String text) throws Exception {
+    JSONObject note = new JSONObject();
+    note.put(NoteColumns.TYPE, Notes.TYPE_NOTE);
+    note.put(NoteColumns.SNIPPET, text);
+    JSONObject data = new JSONObject();
+    data.put(DataColumns.MIME_TYPE, DataConstants.NOTE);
+    data.put(DataColumns.CONTENT, text);
+    JSONArray dataArray = new JSONArray();
+    dataArray.put(data);
+    JSONObject js = new JSONObject();
+    js.put(GTaskStringUtils.META_HEAD_NOTE, note);
+    js.put(GTaskStringUtils.META_HEAD_DATA, dataArray);
+    return js;
+  }
+
+  private static void setText(JSONObject js, String text) throws Exception {
+    js.getJSONArray(GTaskStringUtils.META_HEAD_DATA).getJSONObject(0)
+      .put(DataColumns.CONTENT, text);
+  }
+
+  private String querySnippet() {
+    return queryNote(NoteColumns.SNIPPET);
+  }
+
+  private long queryVersion() {
+    return Long.parseLong(queryNote(NoteColumns.VERSION));
+  }
+
+  private String queryNote(String column) {
+    Cursor c = mContext.getContentResolver().query(
+      ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, mNote.getId()),
+      new String[]{column}, null, null, null);
+    try {
+      c.moveToFirst();
+      return c.getString(0);
+    } finally {
+      c.close();
+    }
+  }
+}
@@ -0,0 +1,320 @@
+package com.loliowo.minote;
+
+import android.accounts.Account;
+import android.app.Activity;
+import android.app.Application;
+import android.app.Instrumentation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.ActivityInfo;
+import android.database.Cursor;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.gtask.data.SqlNote;
+import net.micode.notes.gtask.remote.GTaskASyncTask;
+import net.micode.notes.gtask.remote.GTaskClient;
+import net.micode.notes.gtask.remote.GTaskManager;
+import net.micode.notes.gtask.remote.GTaskTransport;
+import net.micode.notes.tool.GTaskStringUtils;
+import net.micode.notes.ui.NotesPreferenceActivity;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 队列满自动提交之后、保存检查点之前取消同步：
+ * 服务器已经建立的任务的 gid 必须已经写入本地笔记，下次同步不会重复创建。
+ */
+@RunWith(AndroidJUnit4.class)
+public class SyncInterruptTest {
+  private static final String ACCOUNT_NAME = "sync-interrupt@gmail.com";
+
+  private static final String META_LIST_GID = "list-meta";
+
+  private static final String DEFAULT_LIST_GID = "list-default";
+
+  private static final String CALL_NOTE_LIST_GID = "list-call-note";
+
+  private static final int NOTE_COUNT = 15;
+
+  private static final int MAX_BATCH_ACTIONS = 10;
+
+  private Context mContext;
+
+  private String mOldAccountName;
+
+  private String mPrefix;
+
+  private final ArrayList<Long> mNoteIds = new ArrayList<Long>();
+
+  // 同步会把系统文件夹关联到假服务器的任务列表，测试后恢复
+  private final HashMap<Long, ContentValues> mFolderStates = new HashMap<Long, ContentValues>();
+
+  // 服务器为新建的笔记任务分配的 gid，以任务名称为键
+  private final Map<String, String> mCreatedGids =
+    Collections.synchronizedMap(new HashMap<String, String>());
+
+  @Before
+  public void setUp() throws Exception {
+    mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    mOldAccountName = NotesPreferenceActivity.getSyncAccountName(mContext);
+    setSyncAccountName(ACCOUNT_NAME);
+    saveFolderState(Notes.ID_ROOT_FOLDER);
+    saveFolderState(Notes.ID_CALL_RECORD_FOLDER);
+
+    mPrefix = "interrupt-" + System.currentTimeMillis() + "-";
+    for (int i = 0; i < NOTE_COUNT; i++) {
+      SqlNote note = new SqlNote(mContext);
+      note.setContent(newNoteContent(mPrefix + i));
+      note.setParentId(Notes.ID_ROOT_FOLDER);
+      note.commit(false);
+      mNoteIds.add(note.getId());
+    }
+  }
+
+  @After
+  public void tearDown() {
+    GTaskClient.getInstance().setTransport(null);
+    GTaskClient.getInstance().setMaxBatchActions(MAX_BATCH_ACTIONS);
+    setSyncAccountName(mOldAccountName);
+    for (Map.Entry<Long, ContentValues> entry : mFolderStates.entrySet()) {
+      mContext.getContentResolver().update(
+        ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, entry.getKey()), entry.getValue(),
+        null, null);
+    }
+    for (long id : mNoteIds) {
+      mContext.getContentResolver().delete(
+        ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, id), null, null);
+    }
+  }
+
+  @Test
+  public void cancelAfterAutoCommit_keepsCreatedGids() throws Exception {
+    GTaskClient client = GTaskClient.getInstance();
+    client.setTransport(new FakeTransport());
+    client.setMaxBatchActions(MAX_BATCH_ACTIONS);
+    assertTrue(client.login(new Account(ACCOUNT_NAME, "com.google"), "token"));
+
+    GTaskManager manager = GTaskManager.getInstance();
+    manager.setActivityContext(newActivity());
+    GTaskASyncTask task = new GTaskASyncTask(mContext, null) {
+      @Override
+      public void publishProgess(String message) {
+        // no notification in tests
+      }
+    };
+    assertEquals(GTaskManager.STATE_SYNC_CANCELLED, manager.sync(mContext, task));
+
+    // the first auto-commit created the tasks, the sync was cancelled right after it
+    assertTrue(mCreatedGids.size() >= MAX_BATCH_ACTIONS);
+    for (Map.Entry<String, String> entry : mCreatedGids.entrySet()) {
+      if (entry.getKey().startsWith(mPrefix)) {
+        assertEquals(entry.getValue(), queryGid(entry.getKey()));
+      }
+    }
+  }
+
+  private Activity newActivity() throws Exception {
+    Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+    return instrumentation.newActivity(Activity.class, mContext, null,
+      (Application) mContext.getApplicationContext(), new Intent(), new ActivityInfo(), "",
+      null, null, null);
+  }
+
+  private String queryGid(String text) {
+    Cursor c = mContext.getContentResolver().query(Notes.CONTENT_NOTE_URI, new String[]{
+      NoteColumns.GTASK_ID
+    }, NoteColumns.SNIPPET + "=?", new String[]{text}, null);
+    try {
+      return c.moveToFirst() ? c.getString(0) : null;
+    } finally {
+      c.close();
+    }
+  }
+
+  private void saveFolderState(long id) {
+    Cursor c = mContext.getContentResolver().query(
+      ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, id), new String[]{
+        NoteColumns.GTASK_ID, NoteColumns.SYNC_ID, NoteColumns.LOCAL_MODIFIED
+      }, null, null, null);
+    try {
+      if (c.moveToFirst()) {
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.GTASK_ID, c.getString(0));
+        values.put(NoteColumns.SYNC_ID, c.getLong(1));
+        values.put(NoteColumns.LOCAL_MODIFIED, c.getInt(2));
+        mFolderStates.put(id, values);
+      }
+    } finally {
+      c.close();
+    }
+  }
+
+  private void setSyncAccountName(String name) {
+    SharedPreferences settings = mContext.getSharedPreferences(
+      NotesPreferenceActivity.PREFERENCE_NAME, Context.MODE_PRIVATE);
+    settings.edit().putString(NotesPreferenceActivity.PREFERENCE_SYNC_ACCOUNT_NAME, name)
+      .commit();
+  }
+
+  private static JSONObject newNoteContent(String text) throws Exception {
+    JSONObject note = new JSONObject();
+    note.put(NoteColumns.TYPE, Notes.TYPE_NOTE);
+    note.put(NoteColumns.SNIPPET, text);
+    JSONObject data = new JSONObject();
+    data.put(DataColumns.MIME_TYPE, DataConstants.NOTE);
+    data.put(DataColumns.CONTENT, text);
+    JSONArray dataArray = new JSONArray();
+    dataArray.put(data);
+    JSONObject js = new JSONObject();
+    js.put(GTaskStringUtils.META_HEAD_NOTE, note);
+    js.put(GTaskStringUtils.META_HEAD_DATA, dataArray);
+    return js;
+  }
+
+  /**
+   * 只有三个空任务列表的服务器：新建操作得到新的 gid，
+   * 第一次建立笔记任务后取消同步
+   */
+  private class FakeTransport implements GTaskTransport {
+    private int mNextId;
+
+    private boolean mCancelled;
+
+    @Override
+    public Response get(String url) throws IOException {
+      try {
+        JSONArray lists = new JSONArray();
+        lists.put(newList(META_LIST_GID,
+          GTaskStringUtils.MIUI_FOLDER_PREFFIX + GTaskStringUtils.FOLDER_META));
+        lists.put(newList(DEFAULT_LIST_GID,
+          GTaskStringUtils.MIUI_FOLDER_PREFFIX + GTaskStringUtils.FOLDER_DEFAULT));
+        lists.put(newList(CALL_NOTE_LIST_GID,
+          GTaskStringUtils.MIUI_FOLDER_PREFFIX + GTaskStringUtils.FOLDER_CALL_NOTE));
+        JSONObject setup = new JSONObject();
+        setup.put("v", 1);
+        setup.put("t", new JSONObject().put(GTaskStringUtils.GTASK_JSON_LISTS, lists));
+        return newResponse("<script>_setup(" + setup.toString() + ")</script>");
+      } catch (Exception e) {
+        throw new IOException(e.toString());
+      }
+    }
+
+    @Override
+    public synchronized Response post(String url, Map<String, String> headers, byte[] body)
+      throws IOException {
+      try {
+        String form = new String(body, "UTF-8");
+        JSONObject js = new JSONObject(URLDecoder.decode(form.substring(2), "UTF-8"));
+        JSONArray actions = js.getJSONArray(GTaskStringUtils.GTASK_JSON_ACTION_LIST);
+        JSONObject response = new JSONObject();
+        JSONArray results = new JSONArray();
+        boolean createdNotes = false;
+        for (int i = 0; i < actions.length(); i++) {
+          JSONObject action = actions.getJSONObject(i);
+          String type = action.getString(GTaskStringUtils.GTASK_JSON_ACTION_TYPE);
+          if (type.equals(GTaskStringUtils.GTASK_JSON_ACTION_TYPE_GETALL)) {
+            response.put(GTaskStringUtils.GTASK_JSON_TASKS, new JSONArray());
+          } else if (type.equals(GTaskStringUtils.GTASK_JSON_ACTION_TYPE_CREATE)) {
+            String gid = "new-" + (mNextId++);
+            JSONObject result = new JSONObject();
+            result.put(GTaskStringUtils.GTASK_JSON_ACTION_ID,
+              action.getInt(GTaskStringUtils.GTASK_JSON_ACTION_ID));
+            result.put(GTaskStringUtils.GTASK_JSON_NEW_ID, gid);
+            result.put(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED, System.currentTimeMillis());
+            results.put(result);
+            if (DEFAULT_LIST_GID.equals(action.optString(GTaskStringUtils.GTASK_JSON_LIST_ID))) {
+              mCreatedGids.put(action.getJSONObject(GTaskStringUtils.GTASK_JSON_ENTITY_DELTA)
+                .getString(GTaskStringUtils.GTASK_JSON_NAME), gid);
+              createdNotes = true;
+            }
+          }
+        }
+        response.put(GTaskStringUtils.GTASK_JSON_RESULTS, results);
+        if (createdNotes && !mCancelled) {
+          // the user cancels while the created tasks are on their way back
+          mCancelled = true;
+          GTaskManager.getInstance().cancelSync();
+        }
+        return newResponse(response.toString());
+      } catch (Exception e) {
+        throw new IOException(e.toString());
+      }
+    }
+
+    @Override
+    public boolean probeCompression(String url, Map<String, String> headers, byte[] body) {
+      return false;
+    }
+
+    @Override
+    public List<String> getCookieNames() {
+      return Collections.singletonList("GTL");
+    }
+
+    @Override
+    public void clearCookies() {
+    }
+
+    @Override
+    public void setRequestListener(RequestListener listener) {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    private JSONObject newList(String gid, String name) throws Exception {
+      JSONObject list = new JSONObject();
+      list.put(GTaskStringUtils.GTASK_JSON_ID, gid);
+      list.put(GTaskStringUtils.GTASK_JSON_NAME, name);
+      list.put(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED, 1L);
+      return list;
+    }
+
+    private Response newResponse(final String content) throws IOException {
+      final byte[] bytes = content.getBytes("UTF-8");
+      return new Response() {
+        @Override
+        public int getStatusCode() {
+          return 200;
+        }
+
+        @Override
+        public InputStream getContent() {
+          return new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public void close() {
+        }
+      };
+    }
+  }
+}
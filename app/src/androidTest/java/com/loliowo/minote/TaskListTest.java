@@ -0,0 +1,61 @@
+package com.loliowo.minote;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import net.micode.notes.gtask.data.Task;
+import net.micode.notes.gtask.data.TaskList;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 任务列表中没有加载的远程任务只记录最后一个的 gid，
+ * 加入列表的任务排在远程已有的任务之后，而不是列表的开头。
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskListTest {
+  @Test
+  public void addedTask_followsLastUnloadedTask() {
+    TaskList list = new TaskList();
+    list.setUnloadedTaskCount(3);
+    list.setLastUnloadedTaskGid("remote-3");
+
+    Task moved = newTask("moved");
+    list.addChildTask(moved);
+    assertEquals("remote-3", moved.getPriorSibling().getGid());
+
+    Task next = newTask("next");
+    list.addChildTask(next);
+    assertEquals("moved", next.getPriorSibling().getGid());
+  }
+
+  @Test
+  public void createdTask_skipsSiblingsWithoutGid() {
+    TaskList list = new TaskList();
+    list.setUnloadedTaskCount(1);
+    list.setLastUnloadedTaskGid("remote-1");
+
+    Task created = newTask(null);
+    list.addChildTask(created);
+    Task next = newTask(null);
+    list.addChildTask(next);
+    assertEquals("remote-1", next.getPriorSibling().getGid());
+  }
+
+  @Test
+  public void emptyList_hasNoPriorSibling() {
+    TaskList list = new TaskList();
+    Task task = newTask("only");
+    list.addChildTask(task);
+    assertNull(task.getPriorSibling());
+  }
+
+  private static Task newTask(String gid) {
+    Task task = new Task();
+    task.setGid(gid);
+    return task;
+  }
+}
@@ -1,13 +1,22 @@
 package net.micode.notes.data;
 
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.Data;
 import android.telephony.PhoneNumberUtils;
 import android.util.Log;
+import android.util.LruCache;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 
 /**
  * Contact 类用于根据电话号码获取对应的联系人显示名称，并对查询结果进行缓存。
@@ -15,14 +24,55 @@ import java.util.HashMap;
  * 1. 使用系统内容解析器查询联系人数据库，通过 PHONE_NUMBERS_EQUAL 函数
  * 来实现灵活的电话号码匹配。
  * 2. 采用最小匹配码 (min_match) 技术，解决不同格式电话号码的匹配问题。
- * 3. 结果通过静态缓存 (HashMap) 存储，避免重复查询，提高性能。
+ * 3. 结果存储在有容量上限的 LRU 缓存中，可在多个线程中同时使用。
+ * 没有匹配联系人的号码也会被缓存，但只在一段时间内有效，之后重新查询。
+ * 联系人数据库发生变化时清空缓存。
+ * 4. 列表等界面只从缓存读取，未缓存的号码由 {@link #loadContacts} 在后台批量查询。
  */
 public class Contact {
-  // 静态缓存，用于存储电话号码与联系人名称的对应关系
-  private static HashMap<String, String> sContactCache; // ggbond
   // 日志标签，用于输出调试信息
   private static final String TAG = "Contact";
 
+  // 缓存的号码数量上限
+  private static final int MAX_CACHED_CONTACTS = 256;
+
+  // 未匹配结果的有效期
+  private static final long NEGATIVE_CACHE_TTL_MS = 5 * 60 * 1000L;
+
+  // 批量查询时每次查询的号码数量上限
+  private static final int MAX_NUMBERS_PER_QUERY = 50;
+
+  /**
+   * 缓存项：联系人名称为 null 表示没有匹配的联系人，此时 expiresAt 为失效时间
+   */
+  private static class CacheEntry {
+    final String name;
+    final long expiresAt;
+
+    CacheEntry(String name, long expiresAt) {
+      this.name = name;
+      this.expiresAt = expiresAt;
+    }
+
+    boolean isExpired() {
+      return name == null && SystemClock.elapsedRealtime() >= expiresAt;
+    }
+  }
+
+  // 电话号码与联系人名称的对应关系，LruCache 自身是线程安全的
+  private static final LruCache<String, CacheEntry> sContactCache =
+    new LruCache<String, CacheEntry>(MAX_CACHED_CONTACTS); // ggbond
+
+  // 联系人数据变化时清空缓存，在第一次查询时注册
+  private static ContentObserver sContactsObserver;
+
+  // 批量查询条件模板，"+" 会被替换为以逗号分隔的最小匹配码列表
+  private static final String CALLER_ID_BATCH_SELECTION = Data.MIMETYPE + "='"
+    + Phone.CONTENT_ITEM_TYPE + "'" + " AND " + Data.RAW_CONTACT_ID + " IN "
+    + "(SELECT raw_contact_id "
+    + " FROM phone_lookup"
+    + " WHERE min_match IN (+))";
+
   // 查询条件模板，用于从联系人数据库中查找与给定电话号码匹配的记录
   // 使用 PHONE_NUMBERS_EQUAL 函数和最小匹配码(min_match)过滤匹配结果
   private static final String CALLER_ID_SELECTION = "PHONE_NUMBERS_EQUAL(" + Phone.NUMBER
@@ -40,14 +90,12 @@ public class Contact {
    * @return 如果找到匹配的联系人，则返回其显示名称；否则返回 null
    */
   public static String getContact(Context context, String phoneNumber) {
-    // 初始化缓存，如果还未创建
-    if (sContactCache == null) {
-      sContactCache = new HashMap<String, String>();
-    }
+    registerObserver(context);
 
     // 检查缓存中是否已存在该电话号码对应的联系人名称
-    if (sContactCache.containsKey(phoneNumber)) {
-      return sContactCache.get(phoneNumber);
+    CacheEntry entry = getEntry(phoneNumber);
+    if (entry != null) {
+      return entry.name;
     }
 
     // 构造查询条件：将模板中占位符 "+" 替换为电话号码的最小匹配码
@@ -69,7 +117,7 @@ public class Contact {
         // 从结果集中获取第 0 列，即联系人显示名称
         String name = cursor.getString(0);
         // 将查询到的结果放入缓存，便于后续直接获取
-        sContactCache.put(phoneNumber, name);
+        putEntry(phoneNumber, name);
         return name;
       } catch (IndexOutOfBoundsException e) {
         // 捕获索引越界异常，并通过日志记录错误信息
@@ -82,7 +130,148 @@ public class Contact {
     } else {
       // 如果没有查询到匹配的联系人，则在日志中记录相关信息
       Log.d(TAG, "No contact matched with number:" + phoneNumber);
+      if (cursor != null) {
+        cursor.close();
+        putEntry(phoneNumber, null);
+      }
       return null;
     }
   }
+
+  /**
+   * 只从缓存中获取联系人显示名称，不做任何查询，可以在 UI 线程中调用
+   *
+   * @param phoneNumber 电话号码字符串
+   * @return 已缓存的显示名称；没有匹配的联系人或尚未查询时返回 null
+   */
+  public static String getCachedContact(String phoneNumber) {
+    CacheEntry entry = getEntry(phoneNumber);
+    return entry != null ? entry.name : null;
+  }
+
+  /**
+   * 判断电话号码是否已经查询过（包括没有匹配联系人且尚未过期的情况）
+   *
+   * @param phoneNumber 电话号码字符串
+   * @return 已查询过返回 true
+   */
+  public static boolean isContactCached(String phoneNumber) {
+    return getEntry(phoneNumber) != null;
+  }
+
+  /**
+   * 批量查询一组电话号码对应的联系人显示名称，结果写入缓存。
+   * 每次查询用 min_match IN (...) 一次取出多个号码的候选联系人，再逐个比较号码确定匹配结果。
+   * 会访问联系人数据库，需要在后台线程中调用。
+   *
+   * @param context      应用上下文，用于获取内容解析器
+   * @param phoneNumbers 电话号码集合
+   * @return 电话号码与联系人名称的对应关系，没有匹配联系人的号码不在其中
+   */
+  public static HashMap<String, String> loadContacts(Context context,
+                                                     Collection<String> phoneNumbers) {
+    registerObserver(context);
+
+    HashMap<String, String> names = new HashMap<String, String>();
+    ArrayList<String> pending = new ArrayList<String>();
+    for (String phoneNumber : new LinkedHashSet<String>(phoneNumbers)) {
+      CacheEntry entry = getEntry(phoneNumber);
+      if (entry == null) {
+        pending.add(phoneNumber);
+      } else if (entry.name != null) {
+        names.put(phoneNumber, entry.name);
+      }
+    }
+    for (int start = 0; start < pending.size(); start += MAX_NUMBERS_PER_QUERY) {
+      queryContacts(context, pending.subList(start,
+        Math.min(start + MAX_NUMBERS_PER_QUERY, pending.size())), names);
+    }
+    return names;
+  }
+
+  /**
+   * 用一次查询获取一组电话号码的联系人显示名称，写入缓存和 names
+   */
+  private static void queryContacts(Context context, List<String> phoneNumbers,
+                                    HashMap<String, String> names) {
+    StringBuilder minMatches = new StringBuilder();
+    for (String phoneNumber : phoneNumbers) {
+      if (minMatches.length() > 0) {
+        minMatches.append(',');
+      }
+      minMatches.append(DatabaseUtils.sqlEscapeString(
+        PhoneNumberUtils.toCallerIDMinMatch(phoneNumber)));
+    }
+    String selection = CALLER_ID_BATCH_SELECTION.replace("+", minMatches.toString());
+
+    Cursor cursor = context.getContentResolver().query(
+      Data.CONTENT_URI,
+      new String[]{Phone.NUMBER, Phone.DISPLAY_NAME},
+      selection,
+      null,
+      null);
+    if (cursor != null) {
+      try {
+        // 最小匹配码只比较号码末尾几位，因此还要逐个确认号码相同
+        while (cursor.moveToNext()) {
+          String number = cursor.getString(0);
+          for (String phoneNumber : phoneNumbers) {
+            if (!names.containsKey(phoneNumber)
+              && PhoneNumberUtils.compare(phoneNumber, number)) {
+              names.put(phoneNumber, cursor.getString(1));
+            }
+          }
+        }
+      } finally {
+        cursor.close();
+      }
+    } else {
+      // 查询失败时同样按未匹配缓存，在有效期内不再重试
+      Log.e(TAG, "Query contacts failed");
+    }
+
+    for (String phoneNumber : phoneNumbers) {
+      putEntry(phoneNumber, names.get(phoneNumber));
+    }
+  }
+
+  /**
+   * 从缓存中取出未过期的缓存项
+   */
+  private static CacheEntry getEntry(String phoneNumber) {
+    CacheEntry entry = sContactCache.get(phoneNumber);
+    if (entry != null && entry.isExpired()) {
+      sContactCache.remove(phoneNumber);
+      return null;
+    }
+    return entry;
+  }
+
+  private static void putEntry(String phoneNumber, String name) {
+    sContactCache.put(phoneNumber, new CacheEntry(name,
+      name == null ? SystemClock.elapsedRealtime() + NEGATIVE_CACHE_TTL_MS : Long.MAX_VALUE));
+  }
+
+  /**
+   * 注册联系人数据的观察者，联系人增删改后清空缓存，避免显示过时的名称
+   */
+  private static synchronized void registerObserver(Context context) {
+    if (sContactsObserver != null) {
+      return;
+    }
+    sContactsObserver = new ContentObserver(null) {
+      @Override
+      public void onChange(boolean selfChange) {
+        Log.d(TAG, "Contacts changed, clear contact cache");
+        sContactCache.evictAll();
+      }
+    };
+    try {
+      context.getApplicationContext().getContentResolver().registerContentObserver(
+        ContactsContract.Contacts.CONTENT_URI, true, sContactsObserver);
+    } catch (SecurityException e) {
+      // 没有读取联系人的权限时无法监听，缓存仍然受容量和有效期限制
+      Log.w(TAG, "Register contacts observer failed " + e.toString());
+    }
+  }
 }
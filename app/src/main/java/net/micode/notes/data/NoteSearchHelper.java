@@ -0,0 +1,265 @@
+package net.micode.notes.data;
+
+import android.text.TextUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+
+/**
+ * NoteSearchHelper 为笔记全文搜索提供辅助方法：
+ * 1. 将用户输入的搜索字符串转换为 FTS 的 MATCH 表达式；
+ * 2. 根据 FTS4 的 matchinfo('pcnalx') 结果计算 BM25 相关度得分；
+ * 3. 对中日韩（CJK）文本做 n-gram 切分，供索引和查询共同使用。
+ * <p>
+ * 系统自带的 SQLite 只提供 FTS3/FTS4，没有内置的 bm25() 函数，
+ * 因此这里按照 FTS5 相同的公式在 Java 侧完成计算。
+ * <p>
+ * SQLite 的分词器不会切分连续的 CJK 字符，整段中文会被当成一个词，
+ * 只能按词首前缀命中。因此含 CJK 字符的正文会额外生成一份切分后的文本，
+ * 写入全文索引的 {@link #GRAMS} 列：CJK 片段从每个字符开始取长度为 n 的片段
+ * （末尾不足 n 个字符时取剩余部分），其他片段按原样保留为独立的词。
+ * 查询时对 CJK 片段做同样的切分并组成短语，即可用索引完成任意子串匹配。
+ */
+public class NoteSearchHelper {
+  /**
+   * 全文索引中保存切分后文本的列名
+   */
+  public static final String GRAMS = "grams";
+
+  /**
+   * CJK 切分模式：二元（bigram）和三元（trigram）
+   */
+  public static final int GRAM_SIZE_BIGRAM = 2;
+  public static final int GRAM_SIZE_TRIGRAM = 3;
+
+  /**
+   * 当前使用的切分模式。修改后需要升级数据库版本以重建索引，
+   * 否则已有索引与查询的切分方式不一致。
+   */
+  public static final int CJK_GRAM_SIZE = GRAM_SIZE_BIGRAM;
+
+  /**
+   * 传给 matchinfo() 的格式串，顺序与 {@link #bm25(byte[])} 的解析逻辑一致
+   */
+  public static final String MATCHINFO_FORMAT = "pcnalx";
+
+  // BM25 的调节参数，取值与 FTS5 默认值相同
+  private static final double BM25_K1 = 1.2;
+  private static final double BM25_B = 0.75;
+
+  /**
+   * 将搜索字符串转换为 MATCH 表达式：按空白切分为多个词，每个词再拆分为 CJK 片段
+   * 和非 CJK 片段。非 CJK 片段作为带前缀匹配的短语；CJK 片段切分为 n-gram 组成短语，
+   * 不足 n 个字符时作为前缀匹配。所有片段之间为隐式 AND。
+   *
+   * @param searchString 用户输入的搜索字符串
+   * @return MATCH 表达式，没有可用的词时返回 null
+   */
+  public static String buildMatchQuery(String searchString) {
+    return buildMatchQuery(searchString, CJK_GRAM_SIZE);
+  }
+
+  /**
+   * 使用指定的切分模式构造 MATCH 表达式
+   *
+   * @param searchString 用户输入的搜索字符串
+   * @param gramSize     CJK 切分长度
+   * @return MATCH 表达式，没有可用的词时返回 null
+   */
+  public static String buildMatchQuery(String searchString, int gramSize) {
+    if (TextUtils.isEmpty(searchString)) {
+      return null;
+    }
+    StringBuilder sb = new StringBuilder();
+    for (String term : searchString.trim().split("\\s+")) {
+      // 去掉双引号，避免破坏短语语法
+      term = term.replace("\"", "");
+      for (String segment : splitSegments(term)) {
+        if (sb.length() > 0) {
+          sb.append(' ');
+        }
+        int length = segment.codePointCount(0, segment.length());
+        if (isCjk(segment.codePointAt(0)) && length >= gramSize) {
+          // 查询串的 n-gram 在索引中是连续出现的，用短语保证相邻
+          sb.append('"');
+          appendGrams(sb, segment, gramSize, false);
+          sb.append('"');
+        } else {
+          sb.append('"').append(segment).append("\"*");
+        }
+      }
+    }
+    return sb.length() > 0 ? sb.toString() : null;
+  }
+
+  /**
+   * 判断文本中是否包含 CJK 字符
+   */
+  public static boolean containsCjk(String text) {
+    if (text == null) {
+      return false;
+    }
+    for (int i = 0; i < text.length(); ) {
+      int cp = text.codePointAt(i);
+      if (isCjk(cp)) {
+        return true;
+      }
+      i += Character.charCount(cp);
+    }
+    return false;
+  }
+
+  /**
+   * 生成写入索引 {@link #GRAMS} 列的切分文本。
+   *
+   * @param content 笔记正文
+   * @return 切分后的文本；不含 CJK 字符时返回 null，此时仅依靠 content 列即可
+   */
+  public static String buildIndexGrams(String content) {
+    return buildIndexGrams(content, CJK_GRAM_SIZE);
+  }
+
+  /**
+   * 使用指定的切分模式生成写入索引的切分文本
+   *
+   * @param content  笔记正文
+   * @param gramSize CJK 切分长度
+   * @return 切分后的文本；不含 CJK 字符时返回 null
+   */
+  public static String buildIndexGrams(String content, int gramSize) {
+    if (!containsCjk(content)) {
+      return null;
+    }
+    StringBuilder sb = new StringBuilder(content.length() * 2);
+    for (String segment : splitSegments(content)) {
+      if (sb.length() > 0) {
+        sb.append(' ');
+      }
+      if (isCjk(segment.codePointAt(0))) {
+        appendGrams(sb, segment, gramSize, true);
+      } else {
+        sb.append(segment);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * 将 CJK 片段切分为以空格分隔的 n-gram。
+   *
+   * @param withTails 为 true 时从每个字符开始都输出一个词（末尾不足 n 个字符时取剩余部分），
+   *                  保证任意较短的查询都能按前缀命中；为 false 时只输出完整的 n-gram
+   */
+  private static void appendGrams(StringBuilder sb, String segment, int gramSize,
+                                  boolean withTails) {
+    // String.codePoints() 需要 API 24，这里手动展开
+    int[] cps = new int[segment.codePointCount(0, segment.length())];
+    for (int i = 0, offset = 0; i < cps.length; i++) {
+      cps[i] = segment.codePointAt(offset);
+      offset += Character.charCount(cps[i]);
+    }
+    int last = withTails ? cps.length : cps.length - gramSize + 1;
+    for (int i = 0; i < last; i++) {
+      if (i > 0) {
+        sb.append(' ');
+      }
+      sb.append(new String(cps, i, Math.min(gramSize, cps.length - i)));
+    }
+  }
+
+  /**
+   * 按空白、标点以及 CJK/非 CJK 的边界将文本拆分为片段
+   */
+  private static ArrayList<String> splitSegments(String text) {
+    ArrayList<String> segments = new ArrayList<String>();
+    StringBuilder current = new StringBuilder();
+    boolean currentCjk = false;
+    for (int i = 0; i < text.length(); ) {
+      int cp = text.codePointAt(i);
+      i += Character.charCount(cp);
+      if (!Character.isLetterOrDigit(cp)) {
+        // 空白和标点只作为分隔符
+        if (current.length() > 0) {
+          segments.add(current.toString());
+          current.setLength(0);
+        }
+        continue;
+      }
+      boolean cjk = isCjk(cp);
+      if (current.length() > 0 && cjk != currentCjk) {
+        segments.add(current.toString());
+        current.setLength(0);
+      }
+      current.appendCodePoint(cp);
+      currentCjk = cjk;
+    }
+    if (current.length() > 0) {
+      segments.add(current.toString());
+    }
+    return segments;
+  }
+
+  /**
+   * 判断字符是否属于需要按 n-gram 切分的 CJK 文字（汉字、假名、谚文）
+   */
+  private static boolean isCjk(int codePoint) {
+    if (Character.isIdeographic(codePoint)) {
+      return true;
+    }
+    Character.UnicodeBlock block = Character.UnicodeBlock.of(codePoint);
+    return block == Character.UnicodeBlock.HIRAGANA
+      || block == Character.UnicodeBlock.KATAKANA
+      || block == Character.UnicodeBlock.KATAKANA_PHONETIC_EXTENSIONS
+      || block == Character.UnicodeBlock.HANGUL_SYLLABLES;
+  }
+
+  /**
+   * 根据 matchinfo('pcnalx') 返回的数据计算当前行的 BM25 得分，得分越高越相关。
+   *
+   * @param matchinfo matchinfo() 返回的二进制数据（本机字节序的 32 位无符号整数数组）
+   * @return BM25 得分，数据不完整时返回 0
+   */
+  public static double bm25(byte[] matchinfo) {
+    if (matchinfo == null || matchinfo.length < 12) {
+      return 0;
+    }
+    IntBuffer buf = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+    int[] info = new int[buf.remaining()];
+    buf.get(info);
+
+    int phraseCount = info[0];
+    int columnCount = info[1];
+    int rowCount = info[2];
+    int avgLengthOffset = 3;
+    int lengthOffset = avgLengthOffset + columnCount;
+    int hitsOffset = lengthOffset + columnCount;
+    if (info.length < hitsOffset + phraseCount * columnCount * 3) {
+      return 0;
+    }
+
+    double score = 0;
+    for (int phrase = 0; phrase < phraseCount; phrase++) {
+      for (int col = 0; col < columnCount; col++) {
+        int base = hitsOffset + (phrase * columnCount + col) * 3;
+        int hitsThisRow = info[base];
+        int docsWithHits = info[base + 2];
+        if (hitsThisRow <= 0) {
+          continue;
+        }
+        double idf = Math.log((rowCount - docsWithHits + 0.5) / (docsWithHits + 0.5));
+        if (idf <= 0) {
+          // 与 FTS5 一致，出现在过半文档中的词仍保留一个极小的正权重
+          idf = 1e-6;
+        }
+        double avgLength = Math.max(1, info[avgLengthOffset + col]);
+        double length = info[lengthOffset + col];
+        double tf = hitsThisRow;
+        score += idf * (tf * (BM25_K1 + 1))
+          / (tf + BM25_K1 * (1 - BM25_B + BM25_B * length / avgLength));
+      }
+    }
+    return score;
+  }
+}
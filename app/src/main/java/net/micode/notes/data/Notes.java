@@ -54,6 +54,7 @@ public class Notes {
 
   /**
    * 定义查询所有笔记和文件夹的 URI，供内容提供者使用。
+   * 查询时可以用 PAGE_PARAM_LIMIT 参数限制返回的条数。
    */
   public static final Uri CONTENT_NOTE_URI = Uri.parse("content://" + AUTHORITY + "/note");
 
@@ -62,6 +63,38 @@ public class Notes {
    */
   public static final Uri CONTENT_DATA_URI = Uri.parse("content://" + AUTHORITY + "/data");
 
+  /**
+   * 分页查询笔记列表的 URI。结果按 type DESC, modified_date DESC, _id DESC 排序，
+   * 通过查询参数指定每页条数，以及上一页最后一行的 type、modified_date、_id（keyset 分页），
+   * 不指定这三个参数时返回第一页。
+   */
+  public static final Uri CONTENT_NOTE_PAGE_URI = Uri.parse("content://" + AUTHORITY + "/note/page");
+
+  // 分页查询的参数名
+  public static final String PAGE_PARAM_LIMIT = "limit";
+  public static final String PAGE_PARAM_AFTER_TYPE = "after_type";
+  public static final String PAGE_PARAM_AFTER_MODIFIED_DATE = "after_modified_date";
+  public static final String PAGE_PARAM_AFTER_ID = "after_id";
+
+  /**
+   * 笔记变更日志的 URI，同步时用于查询自上次同步以来有变化的笔记，同步成功后删除已处理的记录。
+   */
+  public static final Uri CONTENT_JOURNAL_URI = Uri.parse("content://" + AUTHORITY + "/journal");
+
+  // 变更日志中记录的操作类型
+  public static final int JOURNAL_OP_INSERT = 1;
+  public static final int JOURNAL_OP_UPDATE = 2;
+
+  /**
+   * 用户操作待发件箱的 URI，编辑、移动笔记时写入，同步时按笔记合并后上传，上传成功后删除。
+   */
+  public static final Uri CONTENT_OUTBOX_URI = Uri.parse("content://" + AUTHORITY + "/outbox");
+
+  // 待发件箱中记录的用户操作，按位组合，同一笔记的多次操作合并为一条记录。
+  // 新建的笔记没有 gid、移入回收站的笔记由所在文件夹判断，同步时总会处理，因此不记录
+  public static final int OUTBOX_OP_EDIT = 1 << 1;
+  public static final int OUTBOX_OP_MOVE = 1 << 2;
+
   /**
    * NoteColumns 接口定义了 note 表中各列的名称和说明。
    * 这些列用于存储笔记或文件夹的各种属性，如创建时间、修改时间、所属文件夹、笔记内容摘要等。
@@ -151,6 +184,12 @@ public class Notes {
      * 笔记的版本号，类型为 INTEGER (long)
      */
     public static final String VERSION = "version";
+
+    /**
+     * 上次同步完成时双方一致的笔记正文，用于双方都修改时的三方合并，类型为 TEXT，
+     * 为 NULL 表示未知
+     */
+    public static final String SYNC_BASE = "sync_base";
   }
 
   /**
@@ -214,6 +253,53 @@ public class Notes {
     public static final String DATA5 = "data5";
   }
 
+  /**
+   * JournalColumns 接口定义了笔记变更日志表中各列的名称和说明。
+   * 日志由 note 表上的触发器维护，已同步的笔记插入或更新时写入一条记录，每个笔记只保留最后一条。
+   */
+  public interface JournalColumns {
+    /**
+     * 自增的记录序号，类型为 INTEGER (long)，可作为同步进度的位置
+     */
+    public static final String ID = "_id";
+
+    /**
+     * 发生变化的笔记 ID，类型为 INTEGER (long)
+     */
+    public static final String NOTE_ID = "note_id";
+
+    /**
+     * 操作类型，取值为 JOURNAL_OP_INSERT、JOURNAL_OP_UPDATE，类型为 INTEGER
+     */
+    public static final String OPERATION = "op";
+
+    /**
+     * 变化后笔记的版本号，类型为 INTEGER (long)
+     */
+    public static final String VERSION = "version";
+  }
+
+  /**
+   * OutboxColumns 接口定义了用户操作待发件箱中各列的名称和说明。
+   * 每个笔记最多一条记录，新的操作与已有的操作按位合并，记录序号随之更新。
+   */
+  public interface OutboxColumns {
+    /**
+     * 自增的记录序号，类型为 INTEGER (long)，每次合并操作后重新分配
+     */
+    public static final String ID = "_id";
+
+    /**
+     * 被操作的笔记 ID，类型为 INTEGER (long)
+     */
+    public static final String NOTE_ID = "note_id";
+
+    /**
+     * 尚未同步的操作，为 OUTBOX_OP_EDIT、OUTBOX_OP_MOVE 的组合，类型为 INTEGER
+     */
+    public static final String OPERATIONS = "ops";
+  }
+
   /**
    * TextNote 类定义了文本笔记的数据结构及相关常量。
    * 它实现了 DataColumns 接口，因此继承了 data 表中定义的列名称。
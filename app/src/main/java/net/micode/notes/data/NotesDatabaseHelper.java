@@ -2,13 +2,16 @@ package net.micode.notes.data;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.JournalColumns;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.OutboxColumns;
 
 /**
  * NotesDatabaseHelper 继承自 SQLiteOpenHelper，用于管理数据库的创建和版本升级。
@@ -17,12 +20,21 @@ import net.micode.notes.data.Notes.NoteColumns;
 public class NotesDatabaseHelper extends SQLiteOpenHelper {
   // 数据库名称和版本号
   private static final String DB_NAME = "note.db";
-  private static final int DB_VERSION = 4;
+  private static final int DB_VERSION = 12;
+
+  // 连接的页缓存大小，负数表示以 KiB 为单位（即 4 MiB）
+  private static final int CACHE_SIZE_KIB = -4096;
 
   // 定义数据库中的表名常量
   public interface TABLE {
     public static final String NOTE = "note";
     public static final String DATA = "data";
+    // 笔记正文的全文索引（FTS4 虚拟表），docid 与 data 表的 _id 一一对应
+    public static final String DATA_FTS = "data_fts";
+    // 笔记变更日志，由 note 表上的触发器维护，供增量同步使用
+    public static final String JOURNAL = "note_journal";
+    // 用户操作待发件箱，每个笔记一条记录，同步时按记录上传
+    public static final String OUTBOX = "note_outbox";
   }
 
   private static final String TAG = "NotesDatabaseHelper";
@@ -49,7 +61,8 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
       NoteColumns.LOCAL_MODIFIED + " INTEGER NOT NULL DEFAULT 0," +
       NoteColumns.ORIGIN_PARENT_ID + " INTEGER NOT NULL DEFAULT 0," +
       NoteColumns.GTASK_ID + " TEXT NOT NULL DEFAULT ''," +
-      NoteColumns.VERSION + " INTEGER NOT NULL DEFAULT 0" +
+      NoteColumns.VERSION + " INTEGER NOT NULL DEFAULT 0," +
+      NoteColumns.SYNC_BASE + " TEXT" +
       ")";
 
   // 创建 data 表的 SQL 语句，保存笔记内容、附件等数据
@@ -73,6 +86,60 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
     "CREATE INDEX IF NOT EXISTS note_id_index ON " +
       TABLE.DATA + "(" + DataColumns.NOTE_ID + ");";
 
+  // 为 note 表的 PARENT_ID 建立复合索引，服务于按文件夹列出笔记的查询，
+  // 列顺序与排序条件 type DESC, modified_date DESC 一致，可免去额外排序
+  private static final String CREATE_NOTE_PARENT_INDEX_SQL =
+    "CREATE INDEX IF NOT EXISTS note_parent_type_index ON " + TABLE.NOTE + "(" +
+      NoteColumns.PARENT_ID + "," + NoteColumns.TYPE + "," + NoteColumns.MODIFIED_DATE + ");";
+
+  // 为 note 表的 TYPE 建立复合索引，服务于文件夹选择、同步扫描等按类型过滤的查询，
+  // 附带 PARENT_ID 使 parent_id<>? 的条件可以直接在索引中判断
+  private static final String CREATE_NOTE_TYPE_INDEX_SQL =
+    "CREATE INDEX IF NOT EXISTS note_type_index ON " + TABLE.NOTE + "(" +
+      NoteColumns.TYPE + "," + NoteColumns.MODIFIED_DATE + "," + NoteColumns.PARENT_ID + ");";
+
+  // 为 note 表的 WIDGET_ID 建立索引，服务于桌面小部件按 widget id 查找笔记
+  private static final String CREATE_NOTE_WIDGET_ID_INDEX_SQL =
+    "CREATE INDEX IF NOT EXISTS note_widget_id_index ON " +
+      TABLE.NOTE + "(" + NoteColumns.WIDGET_ID + ");";
+
+  // 为文件夹名建立部分索引，服务于新建、重命名和同步文件夹时按名称查找文件夹；
+  // 只包含文件夹，笔记的摘要不进入索引
+  private static final String CREATE_FOLDER_NAME_INDEX_SQL =
+    "CREATE INDEX IF NOT EXISTS folder_name_index ON " + TABLE.NOTE + "(" +
+      NoteColumns.SNIPPET + ") WHERE " + NoteColumns.TYPE + "=" + Notes.TYPE_FOLDER + ";";
+
+  // 为 note 表的 GTASK_ID 建立复合索引，服务于同步时按 gid 分页连接远程任务，
+  // 以及按 id 分页读取 gid 为空的本地新建笔记，两者都不需要额外排序
+  private static final String CREATE_NOTE_GTASK_INDEX_SQL =
+    "CREATE INDEX IF NOT EXISTS note_gtask_index ON " + TABLE.NOTE + "(" +
+      NoteColumns.TYPE + "," + NoteColumns.GTASK_ID + ");";
+
+  // 创建笔记正文全文索引的 SQL 语句，使用 unicode61 分词器以支持非 ASCII 文本；
+  // grams 列保存 CJK 正文按 n-gram 切分后的文本，由 NoteSearchHelper 生成
+  private static final String CREATE_DATA_FTS_TABLE_SQL =
+    "CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE.DATA_FTS +
+      " USING fts4(" + DataColumns.CONTENT + ", " + NoteSearchHelper.GRAMS +
+      ", tokenize=unicode61)";
+
+  // 创建笔记变更日志表的 SQL 语句，_id 自增，保证序号不会因删除旧记录而被重复使用；
+  // note_id 唯一，每个笔记只保留最后一次变化的记录
+  private static final String CREATE_JOURNAL_TABLE_SQL =
+    "CREATE TABLE IF NOT EXISTS " + TABLE.JOURNAL + "(" +
+      JournalColumns.ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+      JournalColumns.NOTE_ID + " INTEGER NOT NULL UNIQUE," +
+      JournalColumns.OPERATION + " INTEGER NOT NULL," +
+      JournalColumns.VERSION + " INTEGER NOT NULL DEFAULT 0" +
+      ")";
+
+  // 创建用户操作待发件箱的 SQL 语句，note_id 唯一，同一笔记的操作合并到一条记录中
+  private static final String CREATE_OUTBOX_TABLE_SQL =
+    "CREATE TABLE IF NOT EXISTS " + TABLE.OUTBOX + "(" +
+      OutboxColumns.ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+      OutboxColumns.NOTE_ID + " INTEGER NOT NULL UNIQUE," +
+      OutboxColumns.OPERATIONS + " INTEGER NOT NULL DEFAULT 0" +
+      ")";
+
   /**
    * 以下定义的触发器主要用于维护笔记文件夹的笔记数量、更新笔记摘要以及数据与笔记的级联删除。
    */
@@ -181,6 +248,92 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
       "  WHERE " + NoteColumns.PARENT_ID + "=old." + NoteColumns.ID + ";" +
       " END";
 
+  /**
+   * 以下触发器用于保持全文索引与 data 表中文本笔记内容的同步，索引行的 docid 即 data 的 _id。
+   */
+
+  // 插入文本笔记数据时，将正文写入全文索引
+  private static final String DATA_INSERT_FTS_ON_INSERT_TRIGGER =
+    "CREATE TRIGGER insert_fts_on_insert " +
+      " AFTER INSERT ON " + TABLE.DATA +
+      " WHEN new." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
+      " BEGIN" +
+      "  INSERT INTO " + TABLE.DATA_FTS + "(docid, " + DataColumns.CONTENT + ")" +
+      "   VALUES (new." + DataColumns.ID + ", new." + DataColumns.CONTENT + ");" +
+      " END";
+
+  // 正文或类型变化时，先移除旧的索引行，如果仍是文本笔记则写入新的正文。
+  // 触发器无法生成 grams 列，由 NotesProvider 在更新后调用 updateSearchGrams 补齐
+  private static final String DATA_UPDATE_FTS_ON_UPDATE_TRIGGER =
+    "CREATE TRIGGER update_fts_on_update " +
+      " AFTER UPDATE OF " + DataColumns.CONTENT + ", " + DataColumns.MIME_TYPE +
+      " ON " + TABLE.DATA +
+      " BEGIN" +
+      "  DELETE FROM " + TABLE.DATA_FTS + " WHERE docid=old." + DataColumns.ID + ";" +
+      "  INSERT INTO " + TABLE.DATA_FTS + "(docid, " + DataColumns.CONTENT + ")" +
+      "   SELECT new." + DataColumns.ID + ", new." + DataColumns.CONTENT +
+      "   WHERE new." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "';" +
+      " END";
+
+  // 删除数据时，同时删除对应的索引行
+  private static final String DATA_DELETE_FTS_ON_DELETE_TRIGGER =
+    "CREATE TRIGGER delete_fts_on_delete " +
+      " AFTER DELETE ON " + TABLE.DATA +
+      " BEGIN" +
+      "  DELETE FROM " + TABLE.DATA_FTS + " WHERE docid=old." + DataColumns.ID + ";" +
+      " END";
+
+  /**
+   * 以下触发器维护变更日志，每个笔记只保留一条记录，再次变化时替换为新的记录（序号随之增大）。
+   * 只记录已与远程任务关联（gtask_id 不为空）的笔记：本地新建的笔记总会上传，
+   * 未设置同步账户时所有笔记的 gtask_id 都为空，日志也就不再增长。
+   * 更新时只关注用户会修改的列：sync_id、gtask_id、local_modified、摘要、
+   * 文件夹笔记数量以及版本号的变化都不记入日志，避免每次同步后所有笔记又重新出现在日志中
+   */
+  private static final String NOTE_JOURNAL_ON_INSERT_TRIGGER =
+    "CREATE TRIGGER journal_on_insert " +
+      " AFTER INSERT ON " + TABLE.NOTE +
+      " WHEN new." + NoteColumns.GTASK_ID + "<>''" +
+      " BEGIN" +
+      "  INSERT OR REPLACE INTO " + TABLE.JOURNAL + "(" + JournalColumns.NOTE_ID + ","
+      + JournalColumns.OPERATION + "," + JournalColumns.VERSION + ")" +
+      "  VALUES (new." + NoteColumns.ID + "," + Notes.JOURNAL_OP_INSERT + ",new."
+      + NoteColumns.VERSION + ");" +
+      " END";
+
+  private static final String NOTE_JOURNAL_ON_UPDATE_TRIGGER =
+    "CREATE TRIGGER journal_on_update " +
+      " AFTER UPDATE OF " + NoteColumns.PARENT_ID + "," + NoteColumns.ALERTED_DATE + ","
+      + NoteColumns.BG_COLOR_ID + "," + NoteColumns.CREATED_DATE + ","
+      + NoteColumns.HAS_ATTACHMENT + "," + NoteColumns.MODIFIED_DATE + ","
+      + NoteColumns.TYPE + "," + NoteColumns.WIDGET_ID + "," + NoteColumns.WIDGET_TYPE + ","
+      + NoteColumns.ORIGIN_PARENT_ID + " ON " + TABLE.NOTE +
+      " WHEN new." + NoteColumns.GTASK_ID + "<>''" +
+      " BEGIN" +
+      "  INSERT OR REPLACE INTO " + TABLE.JOURNAL + "(" + JournalColumns.NOTE_ID + ","
+      + JournalColumns.OPERATION + "," + JournalColumns.VERSION + ")" +
+      "  VALUES (new." + NoteColumns.ID + "," + Notes.JOURNAL_OP_UPDATE + ",new."
+      + NoteColumns.VERSION + ");" +
+      " END";
+
+  // 同步只检查仍在本地的笔记，笔记被删除后它的日志记录也不再需要
+  private static final String NOTE_JOURNAL_ON_DELETE_TRIGGER =
+    "CREATE TRIGGER journal_on_delete " +
+      " AFTER DELETE ON " + TABLE.NOTE +
+      " BEGIN" +
+      "  DELETE FROM " + TABLE.JOURNAL +
+      "   WHERE " + JournalColumns.NOTE_ID + "=old." + NoteColumns.ID + ";" +
+      " END";
+
+  // 笔记被删除后，它在待发件箱中的记录也不再需要
+  private static final String NOTE_DELETE_OUTBOX_ON_DELETE_TRIGGER =
+    "CREATE TRIGGER delete_outbox_on_delete " +
+      " AFTER DELETE ON " + TABLE.NOTE +
+      " BEGIN" +
+      "  DELETE FROM " + TABLE.OUTBOX +
+      "   WHERE " + OutboxColumns.NOTE_ID + "=old." + NoteColumns.ID + ";" +
+      " END";
+
   /**
    * 构造方法，通过 Context 初始化 SQLiteOpenHelper
    */
@@ -197,9 +350,21 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
     reCreateNoteTableTriggers(db);
     // 插入系统预设的文件夹（如根目录、回收站等）
     createSystemFolder(db);
+    createNoteTableIndexes(db);
     Log.d(TAG, "note table has been created");
   }
 
+  /**
+   * 为 note 表的常用查询路径创建索引
+   */
+  private void createNoteTableIndexes(SQLiteDatabase db) {
+    db.execSQL(CREATE_NOTE_PARENT_INDEX_SQL);
+    db.execSQL(CREATE_NOTE_TYPE_INDEX_SQL);
+    db.execSQL(CREATE_NOTE_WIDGET_ID_INDEX_SQL);
+    db.execSQL(CREATE_FOLDER_NAME_INDEX_SQL);
+    db.execSQL(CREATE_NOTE_GTASK_INDEX_SQL);
+  }
+
   /**
    * 重新创建 note 表的触发器（先删除旧触发器，再创建新的）
    */
@@ -289,6 +454,97 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
     db.execSQL(DATA_UPDATE_NOTE_CONTENT_ON_DELETE_TRIGGER);
   }
 
+  /**
+   * 创建笔记正文的全文索引表及其同步触发器，并用现有的文本笔记内容填充索引
+   */
+  public void createSearchIndex(SQLiteDatabase db) {
+    db.execSQL(CREATE_DATA_FTS_TABLE_SQL);
+    reCreateSearchIndexTriggers(db);
+    // 清空后重新填充，保证索引与 data 表完全一致
+    db.execSQL("DELETE FROM " + TABLE.DATA_FTS);
+    db.execSQL("INSERT INTO " + TABLE.DATA_FTS + "(docid, " + DataColumns.CONTENT + ")" +
+      " SELECT " + DataColumns.ID + ", " + DataColumns.CONTENT +
+      " FROM " + TABLE.DATA +
+      " WHERE " + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'");
+    fillSearchGrams(db);
+    Log.d(TAG, "search index has been created");
+  }
+
+  /**
+   * 为所有含 CJK 字符的文本笔记生成 grams 列
+   */
+  private void fillSearchGrams(SQLiteDatabase db) {
+    Cursor c = db.query(TABLE.DATA, new String[]{DataColumns.ID, DataColumns.CONTENT},
+      DataColumns.MIME_TYPE + "=?", new String[]{DataConstants.NOTE}, null, null, null);
+    if (c == null) {
+      return;
+    }
+    try {
+      while (c.moveToNext()) {
+        updateSearchGrams(db, c.getLong(0), c.getString(1));
+      }
+    } finally {
+      c.close();
+    }
+  }
+
+  /**
+   * 更新文本笔记在全文索引中的 grams 列。触发器只能写入原始正文，
+   * CJK 文本的 n-gram 切分需要在 Java 侧完成，因此写入正文后需调用此方法。
+   *
+   * @param dataId  data 表中的记录 id，即索引行的 docid
+   * @param content 该记录当前的正文
+   */
+  public void updateSearchGrams(SQLiteDatabase db, long dataId, String content) {
+    String grams = NoteSearchHelper.buildIndexGrams(content);
+    if (grams == null) {
+      // 不含 CJK 字符，触发器写入的 content 列已足够
+      return;
+    }
+    db.execSQL("UPDATE " + TABLE.DATA_FTS + " SET " + NoteSearchHelper.GRAMS + "=?"
+      + " WHERE docid=?", new Object[]{grams, dataId});
+  }
+
+  /**
+   * 重新创建全文索引的同步触发器（先删除旧触发器，再创建新的）
+   */
+  private void reCreateSearchIndexTriggers(SQLiteDatabase db) {
+    db.execSQL("DROP TRIGGER IF EXISTS insert_fts_on_insert");
+    db.execSQL("DROP TRIGGER IF EXISTS update_fts_on_update");
+    db.execSQL("DROP TRIGGER IF EXISTS delete_fts_on_delete");
+
+    db.execSQL(DATA_INSERT_FTS_ON_INSERT_TRIGGER);
+    db.execSQL(DATA_UPDATE_FTS_ON_UPDATE_TRIGGER);
+    db.execSQL(DATA_DELETE_FTS_ON_DELETE_TRIGGER);
+  }
+
+  /**
+   * 创建笔记变更日志表及其触发器
+   */
+  public void createJournalTable(SQLiteDatabase db) {
+    db.execSQL(CREATE_JOURNAL_TABLE_SQL);
+
+    db.execSQL("DROP TRIGGER IF EXISTS journal_on_insert");
+    db.execSQL("DROP TRIGGER IF EXISTS journal_on_update");
+    db.execSQL("DROP TRIGGER IF EXISTS journal_on_delete");
+
+    db.execSQL(NOTE_JOURNAL_ON_INSERT_TRIGGER);
+    db.execSQL(NOTE_JOURNAL_ON_UPDATE_TRIGGER);
+    db.execSQL(NOTE_JOURNAL_ON_DELETE_TRIGGER);
+    Log.d(TAG, "journal table has been created");
+  }
+
+  /**
+   * 创建用户操作待发件箱及其触发器
+   */
+  public void createOutboxTable(SQLiteDatabase db) {
+    db.execSQL(CREATE_OUTBOX_TABLE_SQL);
+
+    db.execSQL("DROP TRIGGER IF EXISTS delete_outbox_on_delete");
+    db.execSQL(NOTE_DELETE_OUTBOX_ON_DELETE_TRIGGER);
+    Log.d(TAG, "outbox table has been created");
+  }
+
   /**
    * 使用单例模式获取 NotesDatabaseHelper 实例
    */
@@ -300,12 +556,29 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
   }
 
   /**
-   * 数据库第一次创建时调用，建立 note 表和 data 表
+   * 配置数据库连接，在建表或升级之前调用：
+   * - 开启预写日志（WAL），列表、小部件和搜索的读取不再被同步、批量删除等写事务阻塞；
+   * - WAL 模式下 synchronous=NORMAL 仍能保证数据库一致性，只在检查点时同步磁盘，减少每次提交的 fsync；
+   * - 增大页缓存，减少同步扫描和列表查询时的重复读盘。
+   */
+  @Override
+  public void onConfigure(SQLiteDatabase db) {
+    super.onConfigure(db);
+    db.enableWriteAheadLogging();
+    db.execSQL("PRAGMA synchronous=NORMAL");
+    db.execSQL("PRAGMA cache_size=" + CACHE_SIZE_KIB);
+  }
+
+  /**
+   * 数据库第一次创建时调用，建立 note 表、data 表、正文全文索引、变更日志以及待发件箱
    */
   @Override
   public void onCreate(SQLiteDatabase db) {
     createNoteTable(db);
     createDataTable(db);
+    createSearchIndex(db);
+    createJournalTable(db);
+    createOutboxTable(db);
   }
 
   /**
@@ -314,6 +587,7 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
   @Override
   public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
     boolean reCreateTriggers = false;
+    boolean reCreateSearchIndex = false;
     boolean skipV2 = false;
 
     // 如果旧版本为1，则直接升级到版本2，同时标记升级中已包含版本3的部分更新
@@ -336,6 +610,55 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
       oldVersion++;
     }
 
+    // 如果旧版本为4，则升级到版本5，建立全文索引
+    if (oldVersion == 4) {
+      reCreateSearchIndex = true;
+      oldVersion++;
+    }
+
+    // 如果旧版本为5，则升级到版本6，重建带 grams 列的全文索引
+    if (oldVersion == 5) {
+      upgradeToV6(db);
+      reCreateSearchIndex = true;
+      oldVersion++;
+    }
+
+    // 如果旧版本为6，则升级到版本7
+    if (oldVersion == 6) {
+      upgradeToV7(db);
+      oldVersion++;
+    }
+
+    // 如果旧版本为7，则升级到版本8，建立变更日志
+    if (oldVersion == 7) {
+      upgradeToV8(db);
+      oldVersion++;
+    }
+
+    // 如果旧版本为8，则升级到版本9，记录同步基准正文
+    if (oldVersion == 8) {
+      upgradeToV9(db);
+      oldVersion++;
+    }
+
+    // 如果旧版本为9，则升级到版本10，建立用户操作待发件箱
+    if (oldVersion == 9) {
+      upgradeToV10(db);
+      oldVersion++;
+    }
+
+    // 如果旧版本为10，则升级到版本11，建立文件夹名索引
+    if (oldVersion == 10) {
+      upgradeToV11(db);
+      oldVersion++;
+    }
+
+    // 如果旧版本为11，则升级到版本12，建立同步按 gid 分页的索引
+    if (oldVersion == 11) {
+      upgradeToV12(db);
+      oldVersion++;
+    }
+
     // 如果升级后版本号与期望的新版本号不一致，则抛出异常
     if (oldVersion != newVersion) {
       throw new IllegalStateException("Upgrade notes database to version " + newVersion
@@ -347,6 +670,11 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
       reCreateNoteTableTriggers(db);
       reCreateDataTableTriggers(db);
     }
+
+    // 全文索引只需在所有升级步骤完成后按最新结构建立一次
+    if (reCreateSearchIndex) {
+      createSearchIndex(db);
+    }
   }
 
   /**
@@ -390,4 +718,69 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
     db.execSQL("ALTER TABLE " + TABLE.NOTE + " ADD COLUMN " + NoteColumns.VERSION
       + " INTEGER NOT NULL DEFAULT 0");
   }
+
+  /**
+   * 升级到版本6：
+   * - 删除版本5的全文索引表，之后按新结构（增加 grams 列）重建
+   */
+  private void upgradeToV6(SQLiteDatabase db) {
+    db.execSQL("DROP TABLE IF EXISTS " + TABLE.DATA_FTS);
+  }
+
+  /**
+   * 升级到版本7：
+   * - 为 note 表的列表、文件夹选择和同步查询创建索引
+   */
+  private void upgradeToV7(SQLiteDatabase db) {
+    createNoteTableIndexes(db);
+  }
+
+  /**
+   * 升级到版本8：
+   * - 创建笔记变更日志表及其触发器，每个笔记只保留一条记录
+   * - 把已同步过的笔记和文件夹全部记入日志，使升级后的第一次同步完整检查一遍；
+   * 没有 gid 的笔记同步时总会上传，不必记录
+   */
+  private void upgradeToV8(SQLiteDatabase db) {
+    createJournalTable(db);
+    db.execSQL("INSERT INTO " + TABLE.JOURNAL + "(" + JournalColumns.NOTE_ID + ","
+      + JournalColumns.OPERATION + "," + JournalColumns.VERSION + ")"
+      + " SELECT " + NoteColumns.ID + "," + Notes.JOURNAL_OP_UPDATE + "," + NoteColumns.VERSION
+      + " FROM " + TABLE.NOTE
+      + " WHERE " + NoteColumns.TYPE + "<>" + Notes.TYPE_SYSTEM
+      + " AND " + NoteColumns.GTASK_ID + "<>''");
+  }
+
+  /**
+   * 升级到版本9：
+   * - 为 note 表增加 sync_base 列，保存上次同步时的正文，供冲突时三方合并使用；
+   * 已有笔记的值为 NULL，在下一次同步到它们时填入
+   */
+  private void upgradeToV9(SQLiteDatabase db) {
+    db.execSQL("ALTER TABLE " + TABLE.NOTE + " ADD COLUMN " + NoteColumns.SYNC_BASE + " TEXT");
+  }
+
+  /**
+   * 升级到版本10：
+   * - 创建用户操作待发件箱及其触发器；升级前的修改仍由变更日志和 local_modified 标记同步
+   */
+  private void upgradeToV10(SQLiteDatabase db) {
+    createOutboxTable(db);
+  }
+
+  /**
+   * 升级到版本11：
+   * - 为文件夹名创建部分索引
+   */
+  private void upgradeToV11(SQLiteDatabase db) {
+    db.execSQL(CREATE_FOLDER_NAME_INDEX_SQL);
+  }
+
+  /**
+   * 升级到版本12：
+   * - 为同步时按 gid 分页的查询创建索引
+   */
+  private void upgradeToV12(SQLiteDatabase db) {
+    db.execSQL(CREATE_NOTE_GTASK_INDEX_SQL);
+  }
 }
@@ -2,21 +2,37 @@ package net.micode.notes.data;
 
 import android.app.SearchManager;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.LruCache;
 
 import net.micode.notes.R;
 import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.OutboxColumns;
 import net.micode.notes.data.NotesDatabaseHelper.TABLE;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
 /**
  * NotesProvider 是整个笔记应用的内容提供者，负责处理笔记和数据的增删改查操作，
  * 同时支持搜索建议功能。
@@ -28,6 +44,9 @@ public class NotesProvider extends ContentProvider {
   // 数据库助手，用于访问 SQLite 数据库
   private NotesDatabaseHelper mHelper;
 
+  // 合并批量操作期间的变更通知
+  private NotificationCoalescer mNotifier;
+
   // 日志标签
   private static final String TAG = "NotesProvider";
 
@@ -38,6 +57,30 @@ public class NotesProvider extends ContentProvider {
   private static final int URI_DATA_ITEM = 4;
   private static final int URI_SEARCH = 5;
   private static final int URI_SEARCH_SUGGEST = 6;
+  private static final int URI_NOTE_PAGE = 7;
+  private static final int URI_JOURNAL = 8;
+  private static final int URI_OUTBOX = 9;
+
+  // 缓存的更新语句数量上限
+  private static final int MAX_CACHED_STATEMENTS = 16;
+
+  /**
+   * 按 SQL 文本缓存已编译的更新语句。语句在使用期间从缓存中取出，用完再放回，
+   * 因此多个线程不会同时绑定同一个语句；被挤出缓存的语句随即关闭。
+   */
+  private final LruCache<String, SQLiteStatement> mStatementCache =
+    new LruCache<String, SQLiteStatement>(MAX_CACHED_STATEMENTS) {
+      @Override
+      protected void entryRemoved(boolean evicted, String key, SQLiteStatement oldValue,
+                                  SQLiteStatement newValue) {
+        if (evicted) {
+          oldValue.close();
+        }
+      }
+    };
+
+  // 批量插入中每执行这么多条插入，就尝试让出一次数据库锁，避免长事务阻塞其他写入者
+  private static final int BATCH_YIELD_INTERVAL = 500;
 
   // 初始化 URI 匹配规则
   static {
@@ -46,6 +89,12 @@ public class NotesProvider extends ContentProvider {
     mMatcher.addURI(Notes.AUTHORITY, "note", URI_NOTE);
     // 对应：content://micode_notes/note/# （# 表示数字 ID）
     mMatcher.addURI(Notes.AUTHORITY, "note/#", URI_NOTE_ITEM);
+    // 对应：content://micode_notes/note/page （分页查询笔记列表）
+    mMatcher.addURI(Notes.AUTHORITY, "note/page", URI_NOTE_PAGE);
+    // 对应：content://micode_notes/journal （笔记变更日志）
+    mMatcher.addURI(Notes.AUTHORITY, "journal", URI_JOURNAL);
+    // 对应：content://micode_notes/outbox （用户操作待发件箱）
+    mMatcher.addURI(Notes.AUTHORITY, "outbox", URI_OUTBOX);
     // 对应：content://micode_notes/data
     mMatcher.addURI(Notes.AUTHORITY, "data", URI_DATA);
     // 对应：content://micode_notes/data/# （数据项的 ID）
@@ -71,17 +120,39 @@ public class NotesProvider extends ContentProvider {
     + "'" + Intent.ACTION_VIEW + "' AS " + SearchManager.SUGGEST_COLUMN_INTENT_ACTION + ","
     + "'" + Notes.TextNote.CONTENT_TYPE + "' AS " + SearchManager.SUGGEST_COLUMN_INTENT_DATA;
 
+  // 搜索结果中携带 matchinfo 数据的列名，仅用于计算相关度，不返回给调用者
+  private static final String SEARCH_MATCHINFO_COLUMN = "search_matchinfo";
+
+  // 读取搜索结果列时每条语句包含的笔记 id 数上限
+  private static final int SEARCH_IDS_PER_QUERY = 500;
+
+  // 搜索建议最多返回的笔记数，调用方可以用 limit 参数指定更小的值
+  private static final int SEARCH_SUGGEST_LIMIT = 50;
+
+  // 分页查询笔记列表的排序方式，末尾的 _id 保证排序唯一，与 keyset 条件一致
+  private static final String NOTE_PAGE_SORT_ORDER = NoteColumns.TYPE + " DESC,"
+    + NoteColumns.MODIFIED_DATE + " DESC," + NoteColumns.ID + " DESC";
+
   /**
-   * NOTES_SNIPPET_SEARCH_QUERY 为笔记摘要搜索构造 SQL 查询语句：
-   * - 通过 LIKE 子句进行模糊匹配；
+   * NOTES_FTS_SEARCH_QUERY 为笔记正文全文搜索构造 SQL 查询语句：
+   * - 通过全文索引的 MATCH 子句查找命中的数据行，避免对 note 表全表扫描；
+   * - 只取出笔记 id 和 matchinfo 数据，用于在 Java 侧按 BM25 选出得分最高的笔记，
+   * 结果中的其他列只为选中的笔记读取；
    * - 排除回收站中的笔记；
    * - 仅匹配笔记类型为普通笔记的记录。
    */
-  private static String NOTES_SNIPPET_SEARCH_QUERY = "SELECT " + NOTES_SEARCH_PROJECTION
-    + " FROM " + TABLE.NOTE
-    + " WHERE " + NoteColumns.SNIPPET + " LIKE ?"
-    + " AND " + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER
-    + " AND " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE;
+  private static final String NOTES_FTS_SEARCH_QUERY = "SELECT " + TABLE.NOTE + "."
+    + NoteColumns.ID + ", fts_matchinfo AS " + SEARCH_MATCHINFO_COLUMN
+    + " FROM " + TABLE.NOTE + " JOIN ("
+    + "SELECT " + TABLE.DATA + "." + DataColumns.NOTE_ID + " AS fts_note_id,"
+    + " matchinfo(" + TABLE.DATA_FTS + ",'" + NoteSearchHelper.MATCHINFO_FORMAT + "') AS fts_matchinfo"
+    + " FROM " + TABLE.DATA_FTS + " JOIN " + TABLE.DATA
+    + " ON " + TABLE.DATA + "." + DataColumns.ID + "=" + TABLE.DATA_FTS + ".docid"
+    + " WHERE " + TABLE.DATA_FTS + " MATCH ?"
+    + ") ON " + TABLE.NOTE + "." + NoteColumns.ID + "=fts_note_id"
+    + " WHERE " + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER
+    + " AND " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE
+    + " ORDER BY " + NoteColumns.MODIFIED_DATE + " DESC";
 
   /**
    * onCreate 方法在内容提供者创建时调用，初始化数据库助手。
@@ -89,6 +160,7 @@ public class NotesProvider extends ContentProvider {
   @Override
   public boolean onCreate() {
     mHelper = NotesDatabaseHelper.getInstance(getContext());
+    mNotifier = new NotificationCoalescer(getContext().getContentResolver());
     return true;
   }
 
@@ -111,9 +183,9 @@ public class NotesProvider extends ContentProvider {
     // 根据 URI 类型执行不同的查询逻辑
     switch (mMatcher.match(uri)) {
       case URI_NOTE:
-        // 查询所有笔记或文件夹
+        // 查询所有笔记或文件夹，可选地限制条数
         c = db.query(TABLE.NOTE, projection, selection, selectionArgs, null, null,
-          sortOrder);
+          sortOrder, uri.getQueryParameter(Notes.PAGE_PARAM_LIMIT));
         break;
       case URI_NOTE_ITEM:
         // 查询单个笔记：从 URI 中解析出 ID，然后添加条件
@@ -121,6 +193,20 @@ public class NotesProvider extends ContentProvider {
         c = db.query(TABLE.NOTE, projection, NoteColumns.ID + "=" + id
           + parseSelection(selection), selectionArgs, null, null, sortOrder);
         break;
+      case URI_NOTE_PAGE:
+        // 按 keyset 分页查询笔记列表
+        c = queryNotePage(db, uri, projection, selection, selectionArgs);
+        break;
+      case URI_JOURNAL:
+        // 查询笔记变更日志
+        c = db.query(TABLE.JOURNAL, projection, selection, selectionArgs, null, null,
+          sortOrder);
+        break;
+      case URI_OUTBOX:
+        // 查询待同步的用户操作
+        c = db.query(TABLE.OUTBOX, projection, selection, selectionArgs, null, null,
+          sortOrder);
+        break;
       case URI_DATA:
         // 查询所有数据记录
         c = db.query(TABLE.DATA, projection, selection, selectionArgs, null, null,
@@ -150,15 +236,28 @@ public class NotesProvider extends ContentProvider {
           searchString = uri.getQueryParameter("pattern");
         }
 
-        if (TextUtils.isEmpty(searchString)) {
+        // 将搜索字符串转换为全文索引的 MATCH 表达式
+        String matchQuery = NoteSearchHelper.buildMatchQuery(searchString);
+        if (TextUtils.isEmpty(matchQuery)) {
           return null;
         }
 
+        // 搜索建议只显示得分最高的部分笔记
+        int limit = Integer.MAX_VALUE;
+        if (mMatcher.match(uri) == URI_SEARCH_SUGGEST) {
+          limit = SEARCH_SUGGEST_LIMIT;
+        }
+        String limitParam = uri.getQueryParameter(SearchManager.SUGGEST_PARAMETER_LIMIT);
+        if (!TextUtils.isEmpty(limitParam)) {
+          try {
+            limit = Math.min(limit, Math.max(1, Integer.parseInt(limitParam)));
+          } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid search limit in " + uri);
+          }
+        }
+
         try {
-          // 使用通配符构造 LIKE 查询字符串
-          searchString = String.format("%%%s%%", searchString);
-          c = db.rawQuery(NOTES_SNIPPET_SEARCH_QUERY,
-            new String[]{searchString});
+          c = searchNotes(db, matchQuery, limit);
         } catch (IllegalStateException ex) {
           Log.e(TAG, "got exception: " + ex.toString());
         }
@@ -197,18 +296,24 @@ public class NotesProvider extends ContentProvider {
           Log.d(TAG, "Wrong data format without note id:" + values.toString());
         }
         insertedId = dataId = db.insert(TABLE.DATA, null, values);
+        // 触发器已将正文写入全文索引，这里补齐 CJK 文本的 n-gram 切分
+        if (dataId > 0 && DataConstants.NOTE.equals(values.getAsString(DataColumns.MIME_TYPE))) {
+          mHelper.updateSearchGrams(db, dataId, values.getAsString(DataColumns.CONTENT));
+        }
+        break;
+      case URI_OUTBOX:
+        // 记录一次用户操作，与该笔记尚未同步的操作合并
+        insertedId = insertOutbox(db, values);
         break;
       default:
         throw new IllegalArgumentException("Unknown URI " + uri);
     }
     // 插入成功后，通知对应的内容 URI 发生了变化
     if (noteId > 0) {
-      getContext().getContentResolver().notifyChange(
-        ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId), null);
+      mNotifier.notifyChange(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId));
     }
     if (dataId > 0) {
-      getContext().getContentResolver().notifyChange(
-        ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, dataId), null);
+      mNotifier.notifyChange(ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, dataId));
     }
     // 返回新插入记录对应的 URI
     return ContentUris.withAppendedId(uri, insertedId);
@@ -247,6 +352,14 @@ public class NotesProvider extends ContentProvider {
         count = db.delete(TABLE.NOTE,
           NoteColumns.ID + "=" + id + parseSelection(selection), selectionArgs);
         break;
+      case URI_JOURNAL:
+        // 删除已处理的变更日志
+        count = db.delete(TABLE.JOURNAL, selection, selectionArgs);
+        break;
+      case URI_OUTBOX:
+        // 删除已同步的用户操作
+        count = db.delete(TABLE.OUTBOX, selection, selectionArgs);
+        break;
       case URI_DATA:
         // 删除多条数据记录
         count = db.delete(TABLE.DATA, selection, selectionArgs);
@@ -265,9 +378,9 @@ public class NotesProvider extends ContentProvider {
     // 如果删除成功，通知相关 URI 数据发生变化
     if (count > 0) {
       if (deleteData) {
-        getContext().getContentResolver().notifyChange(Notes.CONTENT_NOTE_URI, null);
+        mNotifier.notifyChange(Notes.CONTENT_NOTE_URI);
       }
-      getContext().getContentResolver().notifyChange(uri, null);
+      mNotifier.notifyChange(uri);
     }
     return count;
   }
@@ -287,44 +400,364 @@ public class NotesProvider extends ContentProvider {
     String id = null;
     SQLiteDatabase db = mHelper.getWritableDatabase();
     boolean updateData = false; // 标记是否更新的是数据表中的记录
+    // 正文或类型变化时需要重新生成全文索引的 grams 列
+    boolean reindex = values.containsKey(DataColumns.CONTENT)
+      || values.containsKey(DataColumns.MIME_TYPE);
+    ArrayList<Long> reindexIds = null;
     switch (mMatcher.match(uri)) {
       case URI_NOTE:
-        // 更新多条笔记记录之前，增加笔记版本号
-        increaseNoteVersion(-1, selection, selectionArgs);
-        count = db.update(TABLE.NOTE, values, selection, selectionArgs);
+        // 更新多条笔记记录，同一条语句中增加笔记版本号
+        count = executeUpdate(db, TABLE.NOTE, values, selection, selectionArgs, true);
         break;
       case URI_NOTE_ITEM:
-        // 更新单个笔记记录，先根据 URI 中的 ID 增加该笔记版本号
+        // 更新单个笔记记录，同一条语句中增加该笔记版本号
         id = uri.getPathSegments().get(1);
-        increaseNoteVersion(Long.valueOf(id), selection, selectionArgs);
-        count = db.update(TABLE.NOTE, values, NoteColumns.ID + "=" + id
-          + parseSelection(selection), selectionArgs);
+        count = executeUpdate(db, TABLE.NOTE, values, NoteColumns.ID + "=?"
+          + parseSelection(selection), prependArg(id, selectionArgs), true);
         break;
       case URI_DATA:
-        // 更新多条数据记录
+        // 更新多条数据记录，更新后条件可能不再成立，因此先记下受影响的记录
+        if (reindex) {
+          reindexIds = queryDataIds(db, selection, selectionArgs);
+        }
         count = db.update(TABLE.DATA, values, selection, selectionArgs);
         updateData = true;
         break;
       case URI_DATA_ITEM:
         // 更新单个数据记录
         id = uri.getPathSegments().get(1);
-        count = db.update(TABLE.DATA, values, DataColumns.ID + "=" + id
-          + parseSelection(selection), selectionArgs);
+        count = executeUpdate(db, TABLE.DATA, values, DataColumns.ID + "=?"
+          + parseSelection(selection), prependArg(id, selectionArgs), false);
+        if (reindex) {
+          reindexIds = new ArrayList<Long>();
+          reindexIds.add(Long.valueOf(id));
+        }
         updateData = true;
         break;
       default:
         throw new IllegalArgumentException("Unknown URI " + uri);
     }
+    if (count > 0 && reindexIds != null && !reindexIds.isEmpty()) {
+      refreshSearchGrams(db, reindexIds);
+    }
     // 更新成功后通知相关 URI 数据发生变化
     if (count > 0) {
       if (updateData) {
-        getContext().getContentResolver().notifyChange(Notes.CONTENT_NOTE_URI, null);
+        mNotifier.notifyChange(Notes.CONTENT_NOTE_URI);
       }
-      getContext().getContentResolver().notifyChange(uri, null);
+      mNotifier.notifyChange(uri);
     }
     return count;
   }
 
+  /**
+   * applyBatch 方法将一批操作放在同一个事务中执行，整批只提交一次。
+   * 只在以 withYieldAllowed(true) 构建的操作之前调用 yieldIfContendedSafely，
+   * 在有其他线程等待时先提交已完成的部分再继续；调用方只在可以分开提交的位置标记，
+   * 没有标记的批次全部成功或全部失败。期间产生的变更通知在事务结束后合并发送。
+   *
+   * @param operations 要执行的操作列表
+   * @return 每条操作的执行结果
+   */
+  @Override
+  public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+    throws OperationApplicationException {
+    SQLiteDatabase db = mHelper.getWritableDatabase();
+    boolean coalescing = mNotifier.begin();
+    db.beginTransaction();
+    try {
+      final int numOperations = operations.size();
+      final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+      for (int i = 0; i < numOperations; i++) {
+        ContentProviderOperation operation = operations.get(i);
+        if (i > 0 && operation.isYieldAllowed()) {
+          db.yieldIfContendedSafely();
+        }
+        results[i] = operation.apply(this, results, i);
+      }
+      db.setTransactionSuccessful();
+      return results;
+    } finally {
+      db.endTransaction();
+      if (coalescing) {
+        mNotifier.end();
+      }
+    }
+  }
+
+  /**
+   * bulkInsert 方法将多条插入放在同一个事务中执行，整批只提交一次，
+   * 变更通知在事务结束后合并发送。
+   *
+   * @param uri    目标 URI
+   * @param values 要插入的内容
+   * @return 插入的记录数
+   */
+  @Override
+  public int bulkInsert(Uri uri, ContentValues[] values) {
+    SQLiteDatabase db = mHelper.getWritableDatabase();
+    boolean coalescing = mNotifier.begin();
+    db.beginTransaction();
+    try {
+      for (int i = 0; i < values.length; i++) {
+        if (i > 0 && i % BATCH_YIELD_INTERVAL == 0) {
+          db.yieldIfContendedSafely();
+        }
+        insert(uri, values[i]);
+      }
+      db.setTransactionSuccessful();
+      return values.length;
+    } finally {
+      db.endTransaction();
+      if (coalescing) {
+        mNotifier.end();
+      }
+    }
+  }
+
+  /**
+   * 查询满足条件的数据记录 id
+   */
+  private ArrayList<Long> queryDataIds(SQLiteDatabase db, String selection,
+                                       String[] selectionArgs) {
+    ArrayList<Long> ids = new ArrayList<Long>();
+    Cursor c = db.query(TABLE.DATA, new String[]{DataColumns.ID}, selection, selectionArgs,
+      null, null, null);
+    if (c != null) {
+      try {
+        while (c.moveToNext()) {
+          ids.add(c.getLong(0));
+        }
+      } finally {
+        c.close();
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * 为指定的数据记录重新生成全文索引的 grams 列（仅处理文本笔记）
+   */
+  private void refreshSearchGrams(SQLiteDatabase db, ArrayList<Long> ids) {
+    StringBuilder where = new StringBuilder(DataColumns.MIME_TYPE + "=? AND "
+      + DataColumns.ID + " IN (");
+    for (int i = 0; i < ids.size(); i++) {
+      where.append(i > 0 ? "," : "").append(ids.get(i));
+    }
+    where.append(')');
+    Cursor c = db.query(TABLE.DATA, new String[]{DataColumns.ID, DataColumns.CONTENT},
+      where.toString(), new String[]{DataConstants.NOTE}, null, null, null);
+    if (c == null) {
+      return;
+    }
+    try {
+      while (c.moveToNext()) {
+        mHelper.updateSearchGrams(db, c.getLong(0), c.getString(1));
+      }
+    } finally {
+      c.close();
+    }
+  }
+
+  /**
+   * 分页查询笔记列表，排序固定为 type DESC, modified_date DESC, _id DESC。
+   * <p>
+   * 给出上一页最后一行的键值时，分两段查询：先取与该行 type 相同且排在其后的记录，
+   * 不足一页时再取 type 更小的记录。两段的条件都能在 note_parent_type_index 上直接定位，
+   * 因此无论翻到第几页，每次查询只读取一页的数据，而不像 OFFSET 那样需要跳过之前所有的行。
+   */
+  private Cursor queryNotePage(SQLiteDatabase db, Uri uri, String[] projection,
+                               String selection, String[] selectionArgs) {
+    int limit;
+    try {
+      limit = Integer.parseInt(uri.getQueryParameter(Notes.PAGE_PARAM_LIMIT));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid page limit in " + uri);
+    }
+    String afterType = uri.getQueryParameter(Notes.PAGE_PARAM_AFTER_TYPE);
+    String afterModified = uri.getQueryParameter(Notes.PAGE_PARAM_AFTER_MODIFIED_DATE);
+    String afterId = uri.getQueryParameter(Notes.PAGE_PARAM_AFTER_ID);
+    String baseSelection = TextUtils.isEmpty(selection) ? "" : "(" + selection + ") AND ";
+
+    if (afterType == null || afterModified == null || afterId == null) {
+      return db.query(TABLE.NOTE, projection, TextUtils.isEmpty(selection) ? null : selection,
+        selectionArgs, null, null, NOTE_PAGE_SORT_ORDER, String.valueOf(limit));
+    }
+
+    // 第一段：type 相同，修改时间更早，或修改时间相同但 id 更小
+    Cursor sameType = db.query(TABLE.NOTE, projection, baseSelection
+        + NoteColumns.TYPE + "=? AND " + NoteColumns.MODIFIED_DATE + "<=? AND ("
+        + NoteColumns.MODIFIED_DATE + "<? OR " + NoteColumns.ID + "<?)",
+      appendArgs(selectionArgs, afterType, afterModified, afterModified, afterId),
+      null, null, NOTE_PAGE_SORT_ORDER, String.valueOf(limit));
+    int remaining = limit - sameType.getCount();
+    if (remaining <= 0) {
+      return sameType;
+    }
+
+    // 第二段：type 更小的记录
+    Cursor lowerType = db.query(TABLE.NOTE, projection, baseSelection
+        + NoteColumns.TYPE + "<?", appendArgs(selectionArgs, afterType),
+      null, null, NOTE_PAGE_SORT_ORDER, String.valueOf(remaining));
+    return new MergeCursor(new Cursor[]{sameType, lowerType});
+  }
+
+  /**
+   * 在条件参数后追加参数
+   */
+  private static String[] appendArgs(String[] args, String... extra) {
+    int length = args == null ? 0 : args.length;
+    String[] result = new String[length + extra.length];
+    if (length > 0) {
+      System.arraycopy(args, 0, result, 0, length);
+    }
+    System.arraycopy(extra, 0, result, length, extra.length);
+    return result;
+  }
+
+  /**
+   * 通过全文索引搜索笔记，并按 BM25 相关度从高到低排序。
+   * 命中的行逐条计算得分，只在容量为 limit 的小顶堆中保留笔记 id 与得分，
+   * 最后只读取选中笔记的其他列。
+   *
+   * @param db         数据库对象
+   * @param matchQuery MATCH 表达式
+   * @param limit      最多返回的笔记数
+   * @return 搜索建议格式的结果 Cursor，列与 NOTES_SEARCH_PROJECTION 一致
+   */
+  private Cursor searchNotes(SQLiteDatabase db, String matchQuery, int limit) {
+    Cursor raw = db.rawQuery(NOTES_FTS_SEARCH_QUERY, new String[]{matchQuery});
+    if (raw == null) {
+      return null;
+    }
+    // 堆顶是当前保留的结果中排在最后的一个：得分最低，得分相同时修改时间最早
+    PriorityQueue<SearchHit> heap = new PriorityQueue<SearchHit>(Math.min(limit, 64),
+      SearchHit.WORST_FIRST);
+    try {
+      int matchinfoIndex = raw.getColumnIndexOrThrow(SEARCH_MATCHINFO_COLUMN);
+      int order = 0;
+      while (raw.moveToNext()) {
+        SearchHit hit = new SearchHit(raw.getLong(0),
+          NoteSearchHelper.bm25(raw.getBlob(matchinfoIndex)), order++);
+        if (heap.size() < limit) {
+          heap.offer(hit);
+        } else if (SearchHit.WORST_FIRST.compare(hit, heap.peek()) > 0) {
+          heap.poll();
+          heap.offer(hit);
+        }
+      }
+    } finally {
+      raw.close();
+    }
+
+    // 出堆顺序从最后一名开始，倒过来即为结果顺序
+    SearchHit[] hits = new SearchHit[heap.size()];
+    for (int i = hits.length - 1; i >= 0; i--) {
+      hits[i] = heap.poll();
+    }
+    return loadSearchRows(db, hits);
+  }
+
+  /**
+   * 按给定顺序读取选中笔记的搜索结果列，每条语句最多包含 SEARCH_IDS_PER_QUERY 个 id
+   */
+  private Cursor loadSearchRows(SQLiteDatabase db, SearchHit[] hits) {
+    String[] columns = null;
+    HashMap<Long, Object[]> rows = new HashMap<Long, Object[]>(hits.length * 2);
+    for (int start = 0; start < hits.length; start += SEARCH_IDS_PER_QUERY) {
+      int end = Math.min(hits.length, start + SEARCH_IDS_PER_QUERY);
+      StringBuilder ids = new StringBuilder();
+      for (int i = start; i < end; i++) {
+        ids.append(i > start ? "," : "").append(hits[i].id);
+      }
+      Cursor c = db.rawQuery("SELECT " + NOTES_SEARCH_PROJECTION + " FROM " + TABLE.NOTE
+        + " WHERE " + NoteColumns.ID + " IN (" + ids + ")", null);
+      try {
+        columns = c.getColumnNames();
+        while (c.moveToNext()) {
+          Object[] row = new Object[columns.length];
+          for (int i = 0; i < columns.length; i++) {
+            row[i] = c.getString(i);
+          }
+          rows.put(c.getLong(0), row);
+        }
+      } finally {
+        c.close();
+      }
+    }
+    if (columns == null) {
+      // no hit, only the column names are needed
+      Cursor c = db.rawQuery("SELECT " + NOTES_SEARCH_PROJECTION + " FROM " + TABLE.NOTE
+        + " WHERE 0", null);
+      try {
+        columns = c.getColumnNames();
+      } finally {
+        c.close();
+      }
+    }
+
+    MatrixCursor result = new MatrixCursor(columns, rows.size());
+    for (SearchHit hit : hits) {
+      Object[] row = rows.get(hit.id);
+      if (row != null) {
+        result.addRow(row);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * 一条搜索命中：笔记 id、BM25 得分以及在按修改时间倒序的命中行中的位置
+   */
+  private static final class SearchHit {
+    // 排在后面的命中比较结果更小：得分更低，得分相同时位置更靠后
+    static final Comparator<SearchHit> WORST_FIRST = new Comparator<SearchHit>() {
+      public int compare(SearchHit lhs, SearchHit rhs) {
+        int result = Double.compare(lhs.score, rhs.score);
+        return result != 0 ? result : Integer.compare(rhs.order, lhs.order);
+      }
+    };
+
+    final long id;
+    final double score;
+    final int order;
+
+    SearchHit(long id, double score, int order) {
+      this.id = id;
+      this.score = score;
+      this.order = order;
+    }
+  }
+
+  /**
+   * 把一次用户操作写入待发件箱。同一笔记尚未同步的操作按位合并为一条记录，
+   * 因此多次编辑同一笔记在同步时只上传一次；合并后的记录重新分配序号，
+   * 正在进行的同步据此知道记录在它开始之后又有了新的操作，不会把它删除。
+   *
+   * @return 合并后记录的 ID，参数不完整时返回 0
+   */
+  private long insertOutbox(SQLiteDatabase db, ContentValues values) {
+    Long noteId = values.getAsLong(OutboxColumns.NOTE_ID);
+    Integer ops = values.getAsInteger(OutboxColumns.OPERATIONS);
+    if (noteId == null || ops == null) {
+      Log.d(TAG, "Wrong outbox format:" + values.toString());
+      return 0;
+    }
+    // a single statement: REPLACE drops the old row and the new one gets a new id
+    String sql = "INSERT OR REPLACE INTO " + TABLE.OUTBOX + "(" + OutboxColumns.NOTE_ID + ","
+      + OutboxColumns.OPERATIONS + ") VALUES (?,?|IFNULL((SELECT " + OutboxColumns.OPERATIONS
+      + " FROM " + TABLE.OUTBOX + " WHERE " + OutboxColumns.NOTE_ID + "=?),0))";
+    SQLiteStatement statement = acquireStatement(db, sql);
+    try {
+      statement.bindLong(1, noteId);
+      statement.bindLong(2, ops);
+      statement.bindLong(3, noteId);
+      return statement.executeInsert();
+    } finally {
+      releaseStatement(sql, statement);
+    }
+  }
+
   /**
    * 辅助方法，用于解析传入的 selection 参数，拼接成完整的查询条件
    *
@@ -336,40 +769,90 @@ public class NotesProvider extends ContentProvider {
   }
 
   /**
-   * increaseNoteVersion 方法用于在更新笔记前自动增加笔记的版本号，
-   * 以便于跟踪笔记的修改历史或同步状态。
+   * executeUpdate 方法用一条预编译的 UPDATE 语句完成更新。对 note 表的更新会在同一条语句中
+   * 把版本号加 1（调用方显式指定版本号时除外），以便于跟踪笔记的修改历史或同步状态。
+   * 编译好的语句按 SQL 文本缓存，相同形状的更新（例如按单个 id 更新相同的列）不再重复编译。
    *
-   * @param id            笔记 ID，如果为 -1 则针对所有满足条件的记录更新版本号
-   * @param selection     附加的更新条件
-   * @param selectionArgs 更新条件参数
+   * @param table         要更新的表
+   * @param values        要更新的内容
+   * @param whereClause   更新条件
+   * @param whereArgs     更新条件参数
+   * @param bumpVersion   是否同时增加笔记版本号
+   * @return 更新的记录数
    */
-  private void increaseNoteVersion(long id, String selection, String[] selectionArgs) {
+  private int executeUpdate(SQLiteDatabase db, String table, ContentValues values,
+                            String whereClause, String[] whereArgs, boolean bumpVersion) {
+    bumpVersion = bumpVersion && !values.containsKey(NoteColumns.VERSION);
+    if (values.size() == 0 && !bumpVersion) {
+      throw new IllegalArgumentException("Empty values");
+    }
+
     StringBuilder sql = new StringBuilder(120);
-    sql.append("UPDATE ");
-    sql.append(TABLE.NOTE);
-    sql.append(" SET ");
-    // 将版本号增加 1
-    sql.append(NoteColumns.VERSION);
-    sql.append("=" + NoteColumns.VERSION + "+1 ");
-
-    // 如果指定了具体 ID 或者有额外的查询条件，则添加 WHERE 子句
-    if (id > 0 || !TextUtils.isEmpty(selection)) {
-      sql.append(" WHERE ");
-    }
-    if (id > 0) {
-      sql.append(NoteColumns.ID + "=" + String.valueOf(id));
-    }
-    // 如果有额外条件，则将条件中的占位符替换为具体的参数
-    if (!TextUtils.isEmpty(selection)) {
-      String selectString = id > 0 ? parseSelection(selection) : selection;
-      for (String args : selectionArgs) {
-        selectString = selectString.replaceFirst("\\?", args);
+    sql.append("UPDATE ").append(table).append(" SET ");
+    Object[] bindArgs = new Object[values.size()];
+    int i = 0;
+    for (Map.Entry<String, Object> entry : values.valueSet()) {
+      sql.append(i > 0 ? "," : "").append(entry.getKey()).append("=?");
+      bindArgs[i++] = entry.getValue();
+    }
+    if (bumpVersion) {
+      sql.append(i > 0 ? "," : "")
+        .append(NoteColumns.VERSION).append("=").append(NoteColumns.VERSION).append("+1");
+    }
+    if (!TextUtils.isEmpty(whereClause)) {
+      sql.append(" WHERE ").append(whereClause);
+    }
+
+    String key = sql.toString();
+    SQLiteStatement statement = acquireStatement(db, key);
+    try {
+      for (i = 0; i < bindArgs.length; i++) {
+        DatabaseUtils.bindObjectToProgram(statement, i + 1, bindArgs[i]);
+      }
+      if (whereArgs != null) {
+        for (int j = 0; j < whereArgs.length; j++) {
+          statement.bindString(bindArgs.length + j + 1, whereArgs[j]);
+        }
+      }
+      return statement.executeUpdateDelete();
+    } finally {
+      releaseStatement(key, statement);
+    }
+  }
+
+  /**
+   * 从缓存中取出已编译的语句，缓存中没有（或正被其他线程使用）时重新编译
+   */
+  private SQLiteStatement acquireStatement(SQLiteDatabase db, String sql) {
+    SQLiteStatement statement = mStatementCache.remove(sql);
+    return statement != null ? statement : db.compileStatement(sql);
+  }
+
+  /**
+   * 将用完的语句放回缓存；缓存中已有同样的语句时直接关闭
+   */
+  private void releaseStatement(String sql, SQLiteStatement statement) {
+    statement.clearBindings();
+    synchronized (mStatementCache) {
+      if (mStatementCache.get(sql) == null) {
+        mStatementCache.put(sql, statement);
+        return;
       }
-      sql.append(selectString);
     }
+    statement.close();
+  }
 
-    // 执行构造好的 SQL 更新语句
-    mHelper.getWritableDatabase().execSQL(sql.toString());
+  /**
+   * 在条件参数前插入一个参数，用于把 URI 中的 id 作为绑定参数传入
+   */
+  private static String[] prependArg(String arg, String[] args) {
+    if (args == null || args.length == 0) {
+      return new String[]{arg};
+    }
+    String[] result = new String[args.length + 1];
+    result[0] = arg;
+    System.arraycopy(args, 0, result, 1, args.length);
+    return result;
   }
 
   /**
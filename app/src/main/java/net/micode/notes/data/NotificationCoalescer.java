@@ -0,0 +1,131 @@
+package net.micode.notes.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NotificationCoalescer 用于合并内容提供者的变更通知。
+ * <p>
+ * 在批量操作（applyBatch、bulkInsert）期间，每次写入产生的通知 URI 只会被记录到当前线程的待发送集合中，
+ * 批量操作结束时去重后统一发送：相同的 URI 只发送一次，如果某个 URI 的上级 URI 也在集合中则省略它，
+ * 因为通知上级 URI 时其下级 URI 的观察者同样会收到通知。
+ * 不在批量操作中的写入仍然立即发送通知。
+ * <p>
+ * 同时统计请求的通知数和实际发送的通知数，便于观察合并效果。
+ */
+public class NotificationCoalescer {
+  private static final String TAG = "NotificationCoalescer";
+
+  // 进程内累计请求发送的通知数
+  private static final AtomicLong sRequestedCount = new AtomicLong();
+
+  // 进程内累计实际发送的通知数
+  private static final AtomicLong sSentCount = new AtomicLong();
+
+  private final ContentResolver mResolver;
+
+  // 当前线程在批量操作中累积的待发送 URI，为 null 表示不在批量操作中
+  private final ThreadLocal<LinkedHashSet<Uri>> mPending = new ThreadLocal<LinkedHashSet<Uri>>();
+
+  public NotificationCoalescer(ContentResolver resolver) {
+    mResolver = resolver;
+  }
+
+  /**
+   * 开始在当前线程收集通知
+   *
+   * @return 是否由本次调用开启收集；嵌套调用时返回 false，此时不应调用 {@link #end()}
+   */
+  public boolean begin() {
+    if (mPending.get() != null) {
+      return false;
+    }
+    mPending.set(new LinkedHashSet<Uri>());
+    return true;
+  }
+
+  /**
+   * 请求发送一条变更通知，批量操作中只记录，否则立即发送
+   */
+  public void notifyChange(Uri uri) {
+    sRequestedCount.incrementAndGet();
+    LinkedHashSet<Uri> pending = mPending.get();
+    if (pending != null) {
+      pending.add(uri);
+    } else {
+      send(uri);
+    }
+  }
+
+  /**
+   * 结束收集，并发送去重后的通知。无论批量操作是否成功都应调用，
+   * 因为批量操作中途让出锁时已经提交了部分修改。
+   */
+  public void end() {
+    LinkedHashSet<Uri> pending = mPending.get();
+    mPending.remove();
+    if (pending == null || pending.isEmpty()) {
+      return;
+    }
+
+    HashSet<String> pendingPaths = new HashSet<String>();
+    for (Uri uri : pending) {
+      pendingPaths.add(uri.toString());
+    }
+    int sent = 0;
+    for (Uri uri : pending) {
+      if (!hasPendingAncestor(uri.toString(), pendingPaths)) {
+        send(uri);
+        sent++;
+      }
+    }
+    Log.d(TAG, "coalesced " + pending.size() + " uris into " + sent + " notifications, "
+      + getSuppressedCount() + " suppressed in total");
+  }
+
+  /**
+   * 判断某个 URI 的上级 URI 是否也在待发送集合中
+   */
+  private static boolean hasPendingAncestor(String uri, HashSet<String> pendingPaths) {
+    int schemeEnd = uri.indexOf("://");
+    int authorityEnd = uri.indexOf('/', schemeEnd + 3);
+    for (int slash = uri.lastIndexOf('/'); slash > authorityEnd && authorityEnd > 0;
+         slash = uri.lastIndexOf('/', slash - 1)) {
+      if (pendingPaths.contains(uri.substring(0, slash))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void send(Uri uri) {
+    sSentCount.incrementAndGet();
+    mResolver.notifyChange(uri, null);
+  }
+
+  /**
+   * 获取累计请求发送的通知数
+   */
+  public static long getRequestedCount() {
+    return sRequestedCount.get();
+  }
+
+  /**
+   * 获取累计实际发送的通知数
+   */
+  public static long getSentCount() {
+    return sSentCount.get();
+  }
+
+  /**
+   * 获取累计因合并而省略的通知数
+   */
+  public static long getSuppressedCount() {
+    return sRequestedCount.get() - sSentCount.get();
+  }
+}
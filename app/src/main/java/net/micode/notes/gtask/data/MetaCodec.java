@@ -0,0 +1,211 @@
+package net.micode.notes.gtask.data;
+
+import android.appwidget.AppWidgetManager;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.tool.GTaskStringUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+
+/**
+ * 元数据的精简编码，仍使用 meta_note、meta_data 以及完整的字段名，旧版本客户端可以直接读取：
+ * 1. 取默认值的字段不写入，这些字段在旧版本的 SqlNote、SqlData 中缺省时取同样的值
+ * 2. 第一条正文数据的内容就是任务的名称，不写入；与正文相同的摘要也不写入，
+ * 旧版本读取时用任务名称覆盖正文，摘要由触发器按正文更新
+ * 解码时按任务名称补回正文，省略的字段填回默认值，得到与 SqlNote.getContent 结构相同的 JSON；
+ * 旧格式的完整元数据解码后内容不变
+ */
+final class MetaCodec {
+  /**
+   * 一个字段的名称以及可以省略的默认值，默认值为 null 的字段总是写入
+   */
+  private static final class Field {
+    final String name;
+
+    final Object defaultValue;
+
+    Field(String name, Object defaultValue) {
+      this.name = name;
+      this.defaultValue = defaultValue;
+    }
+
+    boolean isDefault(Object value) {
+      if (defaultValue == null) {
+        return false;
+      }
+      // numbers parsed back may be Integer or Long
+      return String.valueOf(defaultValue).equals(String.valueOf(value));
+    }
+  }
+
+  // the default background of older clients is not fixed and they check the type before
+  // reading the rest, so both are always written
+  private static final Field[] NOTE_FIELDS = new Field[]{
+    new Field(NoteColumns.ID, null),
+    new Field(NoteColumns.ALERTED_DATE, 0L),
+    new Field(NoteColumns.BG_COLOR_ID, null),
+    new Field(NoteColumns.CREATED_DATE, null),
+    new Field(NoteColumns.HAS_ATTACHMENT, 0),
+    new Field(NoteColumns.MODIFIED_DATE, null),
+    new Field(NoteColumns.PARENT_ID, 0L),
+    new Field(NoteColumns.TYPE, null),
+    new Field(NoteColumns.WIDGET_ID, AppWidgetManager.INVALID_APPWIDGET_ID),
+    new Field(NoteColumns.WIDGET_TYPE, Notes.TYPE_WIDGET_INVALIDE),
+    new Field(NoteColumns.ORIGIN_PARENT_ID, 0L)
+  };
+
+  // older clients look up the text data by its mime type, so it is always written
+  private static final Field[] DATA_FIELDS = new Field[]{
+    new Field(DataColumns.ID, null),
+    new Field(DataColumns.MIME_TYPE, null),
+    new Field(DataColumns.CONTENT, ""),
+    new Field(DataColumns.DATA1, 0L),
+    new Field(DataColumns.DATA3, "")
+  };
+
+  private MetaCodec() {
+  }
+
+  /**
+   * 编码笔记内容，输入可以是 SqlNote.getContent 的结果，也可以是任意格式的远程元数据。
+   * 内容相同时总是得到同样的文本，可以直接比较
+   */
+  static String encode(JSONObject metaInfo) throws JSONException {
+    JSONObject note = metaInfo.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
+    JSONArray dataArray = metaInfo.optJSONArray(GTaskStringUtils.META_HEAD_DATA);
+    String text = null;
+
+    JSONArray compactData = new JSONArray();
+    if (dataArray != null) {
+      for (int i = 0; i < dataArray.length(); i++) {
+        JSONObject data = dataArray.getJSONObject(i);
+        JSONObject compact = compact(data, DATA_FIELDS);
+        if (text == null && DataConstants.NOTE.equals(data.optString(DataColumns.MIME_TYPE))) {
+          // the task name carries the text
+          text = data.optString(DataColumns.CONTENT);
+          compact.remove(DataColumns.CONTENT);
+        }
+        compactData.put(compact);
+      }
+    }
+
+    JSONObject compactNote = compact(note, NOTE_FIELDS);
+    String snippet = note.optString(NoteColumns.SNIPPET);
+    compactNote.remove(NoteColumns.SNIPPET);
+    if (!snippet.equals(text != null ? text : "")) {
+      compactNote.put(NoteColumns.SNIPPET, snippet);
+    }
+
+    JSONObject js = new JSONObject();
+    if (metaInfo.has(GTaskStringUtils.META_HEAD_GTASK_ID)) {
+      js.put(GTaskStringUtils.META_HEAD_GTASK_ID,
+        metaInfo.getString(GTaskStringUtils.META_HEAD_GTASK_ID));
+    }
+    js.put(GTaskStringUtils.META_HEAD_NOTE, compactNote);
+    js.put(GTaskStringUtils.META_HEAD_DATA, compactData);
+    return js.toString();
+  }
+
+  /**
+   * 解码元数据，补回正文、摘要和省略的字段
+   *
+   * @param text 任务的名称，即笔记的正文
+   */
+  static JSONObject decode(JSONObject metaInfo, String text) throws JSONException {
+    if (text == null) {
+      text = "";
+    }
+
+    JSONArray dataArray = new JSONArray();
+    JSONArray compactData = metaInfo.optJSONArray(GTaskStringUtils.META_HEAD_DATA);
+    boolean hasText = false;
+    if (compactData != null) {
+      for (int i = 0; i < compactData.length(); i++) {
+        JSONObject compact = compactData.getJSONObject(i);
+        JSONObject data = expand(compact, DATA_FIELDS);
+        if (!hasText && DataConstants.NOTE.equals(data.optString(DataColumns.MIME_TYPE))) {
+          if (!compact.has(DataColumns.CONTENT)) {
+            data.put(DataColumns.CONTENT, text);
+          }
+          hasText = true;
+        }
+        dataArray.put(data);
+      }
+    }
+
+    JSONObject compactNote = metaInfo.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
+    JSONObject note = expand(compactNote, NOTE_FIELDS);
+    if (!compactNote.has(NoteColumns.SNIPPET)) {
+      note.put(NoteColumns.SNIPPET, hasText ? text : "");
+    }
+
+    JSONObject js = new JSONObject();
+    if (metaInfo.has(GTaskStringUtils.META_HEAD_GTASK_ID)) {
+      js.put(GTaskStringUtils.META_HEAD_GTASK_ID,
+        metaInfo.getString(GTaskStringUtils.META_HEAD_GTASK_ID));
+    }
+    js.put(GTaskStringUtils.META_HEAD_NOTE, note);
+    js.put(GTaskStringUtils.META_HEAD_DATA, dataArray);
+    return js;
+  }
+
+  /**
+   * 按字段表的顺序写入非默认值的字段，表中没有的字段按原样排在之后
+   */
+  private static JSONObject compact(JSONObject object, Field[] fields) throws JSONException {
+    JSONObject compact = new JSONObject();
+    for (Field field : fields) {
+      if (object.has(field.name)) {
+        Object value = object.get(field.name);
+        if (!field.isDefault(value)) {
+          compact.put(field.name, value);
+        }
+      }
+    }
+    copyOthers(object, compact, fields);
+    return compact;
+  }
+
+  /**
+   * compact 的逆过程，省略的字段填回默认值
+   */
+  private static JSONObject expand(JSONObject compact, Field[] fields) throws JSONException {
+    JSONObject object = new JSONObject();
+    for (Field field : fields) {
+      if (compact.has(field.name)) {
+        object.put(field.name, compact.get(field.name));
+      } else if (field.defaultValue != null) {
+        object.put(field.name, field.defaultValue);
+      }
+    }
+    copyOthers(compact, object, fields);
+    return object;
+  }
+
+  private static void copyOthers(JSONObject from, JSONObject to, Field[] fields)
+    throws JSONException {
+    Iterator<String> keys = from.keys();
+    while (keys.hasNext()) {
+      String key = keys.next();
+      if (!isListed(fields, key)) {
+        to.put(key, from.get(key));
+      }
+    }
+  }
+
+  private static boolean isListed(Field[] fields, String key) {
+    for (Field field : fields) {
+      if (field.name.equals(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
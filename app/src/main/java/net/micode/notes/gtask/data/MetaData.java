@@ -8,12 +8,18 @@ import net.micode.notes.tool.GTaskStringUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
 /**
  * GTask元数据管理类，负责处理任务关联关系
  * <p>
  * 用于存储和解析与Google Task关联的元数据信息，包含：
  * - 关联任务组的唯一标识（GID）
- * - 元信息的JSON序列化与反序列化
+ * - 元信息的JSON序列化与反序列化，上传时使用 {@link MetaCodec} 的精简格式
+ * - 元信息内容的摘要，内容没有变化时不再上传
  * <p>
  * 注意：本类仅通过远程JSON数据更新内容，本地操作会抛出异常
  */
@@ -23,24 +29,58 @@ public class MetaData extends Task {
   // 关联的Google Task ID（重要：存储关联任务的核心标识）
   private String mRelatedGid = null;
 
+  // 远程保存的元信息按精简格式编码后的摘要，第一次 setMeta 时才计算
+  private byte[] mContentHash = null;
+
   /**
    * 设置元数据信息（核心方法）
    *
    * @param gid      关联的Google Task ID
    * @param metaInfo 需要注入gid的元数据JSON对象
    *                 说明：将gid存入metaInfo并设置notes字段，固定名称为META_NOTE_NAME
+   * @return 元信息与远程保存的相同时返回 false，此时不需要上传
    */
-  public void setMeta(String gid, JSONObject metaInfo) {
+  public boolean setMeta(String gid, JSONObject metaInfo) {
     // 将关联ID插入元数据头部
     try {
       metaInfo.put(GTaskStringUtils.META_HEAD_GTASK_ID, gid);
     } catch (JSONException e) {
       Log.e(TAG, "failed to put related gid");
     }
+    if (mContentHash == null && getNotes() != null) {
+      // the downloaded meta may be in the old format, so it is compared by its encoded form
+      try {
+        mContentHash = digest(MetaCodec.encode(new JSONObject(getNotes())));
+      } catch (JSONException e) {
+        Log.w(TAG, "failed to encode remote meta info");
+      }
+    }
+    String notes;
+    try {
+      notes = MetaCodec.encode(metaInfo);
+    } catch (JSONException e) {
+      Log.w(TAG, "failed to encode meta info");
+      notes = metaInfo.toString();
+    }
+    byte[] hash = digest(notes);
+    if (hash != null && Arrays.equals(hash, mContentHash)) {
+      return false;
+    }
+    mContentHash = hash;
     // 将元数据JSON字符串存入notes字段
-    setNotes(metaInfo.toString());
+    setNotes(notes);
     // 设置固定名称标识这是一个元数据任务
     setName(GTaskStringUtils.META_NOTE_NAME);
+    return true;
+  }
+
+  /**
+   * 解析元信息，按任务名称补回省略的正文
+   *
+   * @param text 关联任务的名称
+   */
+  public JSONObject getMetaInfo(String text) throws JSONException {
+    return MetaCodec.decode(new JSONObject(getNotes()), text);
   }
 
   /**
@@ -76,6 +116,16 @@ public class MetaData extends Task {
         Log.w(TAG, "failed to get related gid");
         mRelatedGid = null;// 确保解析失败时清空ID
       }
+      mContentHash = null;
+    }
+  }
+
+  private static byte[] digest(String notes) {
+    try {
+      return MessageDigest.getInstance("SHA-1").digest(notes.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      Log.w(TAG, e.toString());
+      return null;
     }
   }
   // 以下方法禁止使用，因为这个类仅用于远程数据同步
@@ -1,5 +1,6 @@
 package net.micode.notes.gtask.data;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
@@ -180,8 +181,10 @@ public class SqlData {
    * @param noteId          关联的笔记ID
    * @param validateVersion 是否验证版本号（防止数据冲突）
    * @param version         当前版本号，用于检查数据一致性
+   * @return 带版本校验的更新没有写入任何记录时返回 false
    */
-  public void commit(long noteId, boolean validateVersion, long version) {
+  public boolean commit(long noteId, boolean validateVersion, long version) {
+    boolean written = true;
     // 新建操作：插入数据
     if (mIsCreate) {
       if (mDataId == INVALID_ID && mDiffDataValues.containsKey(DataColumns.ID)) {
@@ -189,6 +192,7 @@ public class SqlData {
       }
 
       mDiffDataValues.put(DataColumns.NOTE_ID, noteId);// 设置笔记ID
+      SqlNote.countProviderCall();
       Uri uri = mContentResolver.insert(Notes.CONTENT_DATA_URI, mDiffDataValues);// 插入数据并获取URI
       try {
         mDataId = Long.valueOf(uri.getPathSegments().get(1));// 提取返回的ID
@@ -200,6 +204,7 @@ public class SqlData {
       // 更新操作：根据版本号验证是否允许更新
       if (mDiffDataValues.size() > 0) {
         int result = 0;
+        SqlNote.countProviderCall();
         if (!validateVersion) {
           result = mContentResolver.update(ContentUris.withAppendedId(
             Notes.CONTENT_DATA_URI, mDataId), mDiffDataValues, null, null);
@@ -213,13 +218,68 @@ public class SqlData {
             });
         }
         if (result == 0) {
-          Log.w(TAG, "there is no update. maybe user updates note when syncing");// 更新失败时抛出异常
+          Log.w(TAG, "there is no update. maybe user updates note when syncing");
+          written = !validateVersion;
         }
       }
     }
     // 清空变更值，准备下一次操作
     mDiffDataValues.clear();
     mIsCreate = false;
+    return written;
+  }
+
+  /**
+   * 与 commit(long, boolean, long) 相同，但变更加入批量写入，在 batch.flush() 时提交
+   *
+   * @param noteInsert 所属笔记也在本批中新建时为它的插入记录，此时忽略 noteId
+   */
+  void commit(SyncWriteBatch batch, SyncWriteBatch.Insert noteInsert, long noteId,
+              boolean validateVersion, long version) {
+    if (mIsCreate) {
+      if (mDataId == INVALID_ID && mDiffDataValues.containsKey(DataColumns.ID)) {
+        mDiffDataValues.remove(DataColumns.ID); // 移除无效的ID
+      }
+
+      ContentValues values = new ContentValues(mDiffDataValues);
+      if (noteInsert == null) {
+        values.put(DataColumns.NOTE_ID, noteId);
+      }
+      batch.insertData(this, values, noteInsert);
+    } else if (mDiffDataValues.size() > 0) {
+      ContentProviderOperation.Builder builder = ContentProviderOperation.newUpdate(
+        ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, mDataId)).withValues(mDiffDataValues);
+      if (validateVersion) {
+        builder.withSelection(" ? in (SELECT " + NoteColumns.ID + " FROM " + TABLE.NOTE
+          + " WHERE " + NoteColumns.VERSION + "=?)", new String[]{
+          String.valueOf(noteId), String.valueOf(version)
+        });
+      }
+      batch.add(builder.build());
+    }
+    mDiffDataValues.clear();
+  }
+
+  /**
+   * 是否有尚未写入的变更
+   */
+  boolean isModified() {
+    return mIsCreate || mDiffDataValues.size() > 0;
+  }
+
+  /**
+   * 数据为笔记正文时返回正文内容，否则返回 null
+   */
+  String getNoteText() {
+    return DataConstants.NOTE.equals(mDataMimeType) ? mDataContent : null;
+  }
+
+  /**
+   * 批量写入提交后记下新建数据的 id
+   */
+  void onInserted(long id) {
+    mDataId = id;
+    mIsCreate = false;
   }
 
   /**
@@ -1,6 +1,7 @@
 package net.micode.notes.gtask.data;
 
 import android.appwidget.AppWidgetManager;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
@@ -20,6 +21,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 数据库笔记实体类，负责：
@@ -34,6 +36,9 @@ public class SqlNote {
 
   private static final int INVALID_ID = -99999;
 
+  // 进程内 SqlNote、SqlData 及批量写入累计调用内容提供者的次数
+  private static final AtomicLong sProviderCallCount = new AtomicLong();
+
   public static final String[] PROJECTION_NOTE = new String[]{
     NoteColumns.ID, NoteColumns.ALERTED_DATE, NoteColumns.BG_COLOR_ID,
     NoteColumns.CREATED_DATE, NoteColumns.HAS_ATTACHMENT, NoteColumns.MODIFIED_DATE,
@@ -160,6 +165,7 @@ public class SqlNote {
   private void loadFromCursor(long id) {
     Cursor c = null;
     try {
+      countProviderCall();
       c = mContentResolver.query(Notes.CONTENT_NOTE_URI, PROJECTION_NOTE, "(_id=?)",
         new String[]{
           String.valueOf(id)
@@ -195,6 +201,7 @@ public class SqlNote {
     Cursor c = null;
     mDataList.clear();
     try {
+      countProviderCall();
       c = mContentResolver.query(Notes.CONTENT_DATA_URI, SqlData.PROJECTION_DATA,
         "(note_id=?)", new String[]{
           String.valueOf(mId)
@@ -423,6 +430,10 @@ public class SqlNote {
     return mParentId;
   }
 
+  public long getVersion() {
+    return mVersion;
+  }
+
   public String getSnippet() {
     return mSnippet;
   }
@@ -431,12 +442,19 @@ public class SqlNote {
     return mType == Notes.TYPE_NOTE;
   }
 
+  /**
+   * 写入变更。写入后不再从数据库重新读取，只把已写入的内容（新建的 id、递增的版本号、
+   * 由触发器维护的摘要）同步到内存中；带版本校验的写入没有更新任何记录时，
+   * 说明笔记在同步期间被用户修改，此时重新读取数据库中的实际内容
+   */
   public void commit(boolean validateVersion) {
+    boolean stale = false;
     if (mIsCreate) {
       if (mId == INVALID_ID && mDiffNoteValues.containsKey(NoteColumns.ID)) {
         mDiffNoteValues.remove(NoteColumns.ID);
       }
 
+      countProviderCall();
       Uri uri = mContentResolver.insert(Notes.CONTENT_NOTE_URI, mDiffNoteValues);
       try {
         mId = Long.valueOf(uri.getPathSegments().get(1));
@@ -450,7 +468,7 @@ public class SqlNote {
 
       if (mType == Notes.TYPE_NOTE) {
         for (SqlData sqlData : mDataList) {
-          sqlData.commit(mId, false, -1);
+          commitData(sqlData, false);
         }
       }
     } else {
@@ -458,9 +476,10 @@ public class SqlNote {
         Log.e(TAG, "No such note");
         throw new IllegalStateException("Try to update note with invalid id");
       }
+      // 笔记在同步期间被用户修改时，版本校验失败，此时也不能覆盖其正文数据
       if (mDiffNoteValues.size() > 0) {
-        mVersion++;
         int result = 0;
+        countProviderCall();
         if (!validateVersion) {
           result = mContentResolver.update(Notes.CONTENT_NOTE_URI, mDiffNoteValues, "("
             + NoteColumns.ID + "=?)", new String[]{
@@ -475,22 +494,132 @@ public class SqlNote {
         }
         if (result == 0) {
           Log.w(TAG, "there is no update. maybe user updates note when syncing");
+          stale = validateVersion;
+        } else {
+          // the provider increases the version of every updated note
+          mVersion++;
         }
       }
 
-      if (mType == Notes.TYPE_NOTE) {
+      if (mType == Notes.TYPE_NOTE && !stale) {
         for (SqlData sqlData : mDataList) {
-          sqlData.commit(mId, validateVersion, mVersion);
+          if (!commitData(sqlData, validateVersion)) {
+            stale = true;
+          }
         }
       }
     }
 
-    // refresh local info
-    loadFromCursor(mId);
-    if (mType == Notes.TYPE_NOTE)
-      loadDataContent();
+    if (stale) {
+      // refresh local info, the user's version is kept
+      loadFromCursor(mId);
+      if (mType == Notes.TYPE_NOTE)
+        loadDataContent();
+    }
+
+    mDiffNoteValues.clear();
+    mIsCreate = false;
+  }
+
+  /**
+   * 写入一条有变更的数据
+   *
+   * @return 带版本校验的更新没有写入时返回 false
+   */
+  private boolean commitData(SqlData sqlData, boolean validateVersion) {
+    if (!sqlData.isModified()) {
+      return true;
+    }
+    if (!sqlData.commit(mId, validateVersion, mVersion)) {
+      return false;
+    }
+    applyDataSnippet(sqlData);
+    return true;
+  }
+
+  /**
+   * 与 commit(boolean) 相同，但变更加入批量写入，在 batch.flush() 时与其他笔记一起在一个事务中提交。
+   * 提交后不从数据库重新读取：新建的笔记在 flush() 之后才有 id；
+   * 修改时版本号按提供者的规则在内存中加 1。数据的更新排在笔记的更新之前，
+   * 两者都按写入前的版本号校验，笔记在同步期间被用户修改时一起被跳过
+   */
+  public void commit(SyncWriteBatch batch, boolean validateVersion) {
+    if (mIsCreate) {
+      if (mId == INVALID_ID && mDiffNoteValues.containsKey(NoteColumns.ID)) {
+        mDiffNoteValues.remove(NoteColumns.ID);
+      }
+
+      SyncWriteBatch.Insert insert = batch.insertNote(this, new ContentValues(mDiffNoteValues));
+      if (mType == Notes.TYPE_NOTE) {
+        for (SqlData sqlData : mDataList) {
+          if (sqlData.isModified()) {
+            applyDataSnippet(sqlData);
+          }
+          sqlData.commit(batch, insert, 0, false, -1);
+        }
+      }
+    } else {
+      if (mId <= 0 && mId != Notes.ID_ROOT_FOLDER && mId != Notes.ID_CALL_RECORD_FOLDER) {
+        Log.e(TAG, "No such note");
+        throw new IllegalStateException("Try to update note with invalid id");
+      }
+      // the data rows are checked against the version before the note update bumps it
+      if (mType == Notes.TYPE_NOTE) {
+        for (SqlData sqlData : mDataList) {
+          if (sqlData.isModified()) {
+            applyDataSnippet(sqlData);
+          }
+          sqlData.commit(batch, null, mId, validateVersion, mVersion);
+        }
+      }
 
+      if (mDiffNoteValues.size() > 0) {
+        ContentProviderOperation.Builder builder = ContentProviderOperation
+          .newUpdate(Notes.CONTENT_NOTE_URI).withValues(mDiffNoteValues);
+        if (!validateVersion) {
+          builder.withSelection("(" + NoteColumns.ID + "=?)", new String[]{
+            String.valueOf(mId)
+          });
+        } else {
+          builder.withSelection("(" + NoteColumns.ID + "=?) AND (" + NoteColumns.VERSION + "<=?)",
+            new String[]{
+              String.valueOf(mId), String.valueOf(mVersion)
+            });
+        }
+        batch.add(builder.build());
+        mVersion++;
+      }
+    }
     mDiffNoteValues.clear();
+  }
+
+  /**
+   * 写入正文数据后触发器会把正文写入笔记的摘要，在内存中做同样的修改
+   */
+  private void applyDataSnippet(SqlData sqlData) {
+    String text = sqlData.getNoteText();
+    if (text != null) {
+      mSnippet = text;
+    }
+  }
+
+  /**
+   * 批量写入提交后记下新建笔记的 id
+   */
+  void onInserted(long id) {
+    mId = id;
     mIsCreate = false;
   }
+
+  static void countProviderCall() {
+    sProviderCallCount.incrementAndGet();
+  }
+
+  /**
+   * 获取进程内 SqlNote、SqlData 及批量写入累计调用内容提供者的次数，
+   * 用于统计同步每条笔记的开销
+   */
+  public static long getProviderCallCount() {
+    return sProviderCallCount.get();
+  }
 }
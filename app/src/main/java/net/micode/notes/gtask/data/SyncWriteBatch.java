@@ -0,0 +1,209 @@
+package net.micode.notes.gtask.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.util.Log;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.gtask.exception.ActionFailureException;
+import net.micode.notes.tool.DataUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * 同步期间对本地数据库的批量写入：
+ * 1. SqlNote、SqlData 的新建和修改以及同步状态的更新先加入批次，不立即写入
+ * 2. flush() 时整批作为一次 applyBatch 在一个事务中提交，
+ * 新建的数据通过反向引用取得同一批中新建的笔记的 id
+ * 3. 提交后把新建的笔记和数据的 id 写回对应的 SqlNote、SqlData
+ * <p>
+ * 远程笔记中带有的 id 在提交前统一检查，已被占用或在本批中重复的改为自动分配；
+ * 带 id 的插入排在自动分配 id 的插入之前，自动分配的 id 不会占用后面要插入的 id
+ */
+public class SyncWriteBatch {
+  private static final String TAG = SyncWriteBatch.class.getSimpleName();
+
+  /**
+   * 一条待插入的笔记或数据
+   */
+  static final class Insert {
+    // 插入的是笔记时不为 null
+    final SqlNote mNote;
+
+    // 插入的是数据时不为 null
+    final SqlData mData;
+
+    final ContentValues mValues;
+
+    // 所属笔记也在本批中新建时为它的插入记录
+    final Insert mParent;
+
+    // 在提交的操作列表中的位置
+    int mIndex;
+
+    Insert(SqlNote note, SqlData data, ContentValues values, Insert parent) {
+      mNote = note;
+      mData = data;
+      mValues = values;
+      mParent = parent;
+    }
+  }
+
+  private final ContentResolver mContentResolver;
+
+  private final ArrayList<Insert> mNoteInserts;
+
+  private final ArrayList<Insert> mDataInserts;
+
+  // 更新和删除，按加入的顺序排在全部插入之后执行
+  private final ArrayList<ContentProviderOperation> mOperations;
+
+  public SyncWriteBatch(ContentResolver resolver) {
+    mContentResolver = resolver;
+    mNoteInserts = new ArrayList<Insert>();
+    mDataInserts = new ArrayList<Insert>();
+    mOperations = new ArrayList<ContentProviderOperation>();
+  }
+
+  Insert insertNote(SqlNote note, ContentValues values) {
+    Insert insert = new Insert(note, null, values, null);
+    mNoteInserts.add(insert);
+    return insert;
+  }
+
+  /**
+   * @param note 所属笔记也在本批中新建时为它的插入记录，否则 values 中应已包含笔记 id
+   */
+  void insertData(SqlData data, ContentValues values, Insert note) {
+    mDataInserts.add(new Insert(null, data, values, note));
+  }
+
+  /**
+   * 加入一条更新或删除操作
+   */
+  public void add(ContentProviderOperation operation) {
+    mOperations.add(operation);
+  }
+
+  public boolean isEmpty() {
+    return mNoteInserts.isEmpty() && mDataInserts.isEmpty() && mOperations.isEmpty();
+  }
+
+  /**
+   * 放弃尚未提交的写入
+   */
+  public void clear() {
+    mNoteInserts.clear();
+    mDataInserts.clear();
+    mOperations.clear();
+  }
+
+  /**
+   * 在一个事务中提交批次中的全部写入
+   */
+  public void flush() {
+    if (isEmpty()) {
+      return;
+    }
+
+    releaseTakenIds(Notes.CONTENT_NOTE_URI, NoteColumns.ID, mNoteInserts);
+    releaseTakenIds(Notes.CONTENT_DATA_URI, DataColumns.ID, mDataInserts);
+
+    ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(
+      mNoteInserts.size() + mDataInserts.size() + mOperations.size());
+    // notes go first, the data inserts refer back to them
+    addInserts(operations, Notes.CONTENT_NOTE_URI, NoteColumns.ID, mNoteInserts);
+    addInserts(operations, Notes.CONTENT_DATA_URI, DataColumns.ID, mDataInserts);
+    operations.addAll(mOperations);
+
+    ContentProviderResult[] results;
+    SqlNote.countProviderCall();
+    try {
+      results = mContentResolver.applyBatch(Notes.AUTHORITY, operations);
+    } catch (RemoteException e) {
+      Log.e(TAG, e.toString());
+      throw new ActionFailureException("flush: apply batch failed");
+    } catch (OperationApplicationException e) {
+      Log.e(TAG, e.toString());
+      throw new ActionFailureException("flush: apply batch failed");
+    }
+
+    for (Insert insert : mNoteInserts) {
+      insert.mNote.onInserted(getInsertedId(results[insert.mIndex]));
+    }
+    for (Insert insert : mDataInserts) {
+      insert.mData.onInserted(getInsertedId(results[insert.mIndex]));
+    }
+    Log.d(TAG, operations.size() + " local writes applied");
+    clear();
+  }
+
+  /**
+   * 去掉已被占用或在本批中重复的 id，这些记录改为自动分配 id
+   */
+  private void releaseTakenIds(Uri uri, String idColumn, ArrayList<Insert> inserts) {
+    HashSet<Long> ids = new HashSet<Long>();
+    for (Insert insert : inserts) {
+      Long id = insert.mValues.getAsLong(idColumn);
+      if (id != null && !ids.add(id)) {
+        insert.mValues.remove(idColumn);
+      }
+    }
+    if (ids.isEmpty()) {
+      return;
+    }
+
+    SqlNote.countProviderCall();
+    HashSet<Long> taken = DataUtils.getExistingIds(mContentResolver, uri, idColumn, ids);
+    if (taken == null) {
+      // not known, none of them is kept
+      taken = ids;
+    }
+    for (Insert insert : inserts) {
+      Long id = insert.mValues.getAsLong(idColumn);
+      if (id != null && taken.contains(id)) {
+        insert.mValues.remove(idColumn);
+      }
+    }
+  }
+
+  private static void addInserts(ArrayList<ContentProviderOperation> operations, Uri uri,
+                                 String idColumn, ArrayList<Insert> inserts) {
+    // rows keeping their ids first, the ids assigned afterwards are larger
+    for (int pass = 0; pass < 2; pass++) {
+      for (Insert insert : inserts) {
+        if (insert.mValues.containsKey(idColumn) != (pass == 0)) {
+          continue;
+        }
+        ContentProviderOperation.Builder builder = ContentProviderOperation.newInsert(uri)
+          .withValues(insert.mValues);
+        if (insert.mParent != null) {
+          builder.withValueBackReference(DataColumns.NOTE_ID, insert.mParent.mIndex);
+        }
+        insert.mIndex = operations.size();
+        operations.add(builder.build());
+      }
+    }
+  }
+
+  private static long getInsertedId(ContentProviderResult result) {
+    long id = 0;
+    try {
+      id = Long.valueOf(result.uri.getPathSegments().get(1));
+    } catch (NumberFormatException e) {
+      Log.e(TAG, "Get inserted id error :" + e.toString());
+    }
+    if (id <= 0) {
+      throw new ActionFailureException("create note failed");
+    }
+    return id;
+  }
+}
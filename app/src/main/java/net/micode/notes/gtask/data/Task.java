@@ -242,7 +242,7 @@ public class Task extends Node {
   public void setMetaInfo(MetaData metaData) {
     if (metaData != null && metaData.getNotes() != null) {
       try {
-        mMetaInfo = new JSONObject(metaData.getNotes());
+        mMetaInfo = metaData.getMetaInfo(getName());
       } catch (JSONException e) {
         Log.w(TAG, e.toString());
         mMetaInfo = null;
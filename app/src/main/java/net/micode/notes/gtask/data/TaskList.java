@@ -29,6 +29,12 @@ public class TaskList extends Node {
 
   private ArrayList<Task> mChildren;
 
+  // 只计数、没有加载到 mChildren 中的远程子任务，位于 mChildren 之前
+  private int mUnloadedCount;
+
+  // 没有加载的远程子任务中的最后一个，只有 gid，加入的子任务排在它之后
+  private Task mLastUnloadedTask;
+
   public TaskList() {
     super();
     mChildren = new ArrayList<Task>();
@@ -209,7 +215,26 @@ public class TaskList extends Node {
   }
 
   public int getChildTaskCount() {
-    return mChildren.size();
+    return mUnloadedCount + mChildren.size();
+  }
+
+  /**
+   * 设置没有加载到内存中的远程子任务数，新建的子任务排在它们之后
+   */
+  public void setUnloadedTaskCount(int count) {
+    mUnloadedCount = count;
+  }
+
+  /**
+   * 设置没有加载到内存中的最后一个远程子任务的 gid，列表为空时为 null
+   */
+  public void setLastUnloadedTaskGid(String gid) {
+    if (gid == null) {
+      mLastUnloadedTask = null;
+    } else {
+      mLastUnloadedTask = new Task();
+      mLastUnloadedTask.setGid(gid);
+    }
   }
 
   public boolean addChildTask(Task task) {
@@ -218,14 +243,26 @@ public class TaskList extends Node {
       ret = mChildren.add(task);
       if (ret) {
         // need to set prior sibling and parent
-        task.setPriorSibling(mChildren.isEmpty() ? null : mChildren
-          .get(mChildren.size() - 1));
+        task.setPriorSibling(getLastTaskWithGid(mChildren.size() - 1));
         task.setParent(this);
       }
     }
     return ret;
   }
 
+  /**
+   * 获取位置 end 之前最后一个已有 gid 的子任务。
+   * 新建的任务在提交前没有 gid，不能作为前一个兄弟任务，跳过它们
+   */
+  private Task getLastTaskWithGid(int end) {
+    for (int i = end - 1; i >= 0; i--) {
+      if (mChildren.get(i).getGid() != null) {
+        return mChildren.get(i);
+      }
+    }
+    return mLastUnloadedTask;
+  }
+
   public boolean addChildTask(Task task, int index) {
     if (index < 0 || index > mChildren.size()) {
       Log.e(TAG, "add child task: invalid index");
@@ -237,7 +274,7 @@ public class TaskList extends Node {
       mChildren.add(index, task);
 
       // update the task list
-      Task preTask = null;
+      Task preTask = mLastUnloadedTask;
       Task afterTask = null;
       if (index != 0)
         preTask = mChildren.get(index - 1);
@@ -266,7 +303,7 @@ public class TaskList extends Node {
         // update the task list
         if (index != mChildren.size()) {
           mChildren.get(index).setPriorSibling(
-            index == 0 ? null : mChildren.get(index - 1));
+            index == 0 ? mLastUnloadedTask : mChildren.get(index - 1));
         }
       }
     }
@@ -302,7 +339,8 @@ public class TaskList extends Node {
   }
 
   public int getChildTaskIndex(Task task) {
-    return mChildren.indexOf(task);
+    int index = mChildren.indexOf(task);
+    return index < 0 ? index : mUnloadedCount + index;
   }
 
   public Task getChildTaskByIndex(int index) {
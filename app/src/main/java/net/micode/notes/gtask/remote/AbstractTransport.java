@@ -0,0 +1,128 @@
+package net.micode.notes.gtask.remote;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 传输层实现的公共部分：
+ * 1. 探测到服务器接受压缩的请求体后，较大的请求体使用 gzip 压缩；POST 请求不会重发
+ * 2. 按响应的 Content-Encoding 解压响应内容
+ * 3. 统计每个请求的耗时并回调
+ */
+abstract class AbstractTransport implements GTaskTransport {
+  private static final String TAG = AbstractTransport.class.getSimpleName();
+
+  // 请求体达到该大小才压缩
+  private static final int MIN_COMPRESS_SIZE = 1024;
+
+  // 服务器是否接受压缩的请求体：尚未探测、接受、不接受
+  private static final int COMPRESSION_UNKNOWN = 0;
+  private static final int COMPRESSION_SUPPORTED = 1;
+  private static final int COMPRESSION_UNSUPPORTED = 2;
+
+  private volatile int mCompression = COMPRESSION_UNKNOWN;
+
+  private volatile RequestListener mListener;
+
+  /**
+   * 实际发送请求
+   *
+   * @param body 请求体，GET 请求为 null
+   */
+  protected abstract Response execute(String method, String url, Map<String, String> headers,
+                                      byte[] body) throws IOException;
+
+  @Override
+  public Response get(String url) throws IOException {
+    return executeTimed("GET", url, new HashMap<String, String>(), null);
+  }
+
+  @Override
+  public Response post(String url, Map<String, String> headers, byte[] body)
+    throws IOException {
+    if (mCompression == COMPRESSION_SUPPORTED && body.length >= MIN_COMPRESS_SIZE) {
+      return executeTimed("POST", url, gzipHeaders(headers), gzip(body));
+    }
+    return executeTimed("POST", url, headers, body);
+  }
+
+  @Override
+  public synchronized boolean probeCompression(String url, Map<String, String> headers,
+                                               byte[] body) throws IOException {
+    if (mCompression == COMPRESSION_UNKNOWN) {
+      Response response = executeTimed("POST", url, gzipHeaders(headers), gzip(body));
+      int statusCode;
+      try {
+        statusCode = response.getStatusCode();
+      } finally {
+        response.close();
+      }
+      // a failed request leaves the state unknown, any answer from the server is kept
+      mCompression = statusCode >= 200 && statusCode < 300 ? COMPRESSION_SUPPORTED
+        : COMPRESSION_UNSUPPORTED;
+      Log.d(TAG, "compression probe answered " + statusCode);
+    }
+    return mCompression == COMPRESSION_SUPPORTED;
+  }
+
+  @Override
+  public void setRequestListener(RequestListener listener) {
+    mListener = listener;
+  }
+
+  private Response executeTimed(String method, String url, Map<String, String> headers,
+                                byte[] body) throws IOException {
+    long start = SystemClock.elapsedRealtime();
+    Response response = execute(method, url, headers, body);
+    RequestListener listener = mListener;
+    if (listener != null) {
+      listener.onRequestFinished(method, url, response.getStatusCode(),
+        body == null ? 0 : body.length, SystemClock.elapsedRealtime() - start);
+    }
+    return response;
+  }
+
+  private static Map<String, String> gzipHeaders(Map<String, String> headers) {
+    HashMap<String, String> gzipHeaders = new HashMap<String, String>(headers);
+    gzipHeaders.put("Content-Encoding", "gzip");
+    return gzipHeaders;
+  }
+
+  private static byte[] gzip(byte[] body) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream(body.length / 4 + 64);
+    GZIPOutputStream gzip = new GZIPOutputStream(output);
+    try {
+      gzip.write(body);
+    } finally {
+      gzip.close();
+    }
+    return output.toByteArray();
+  }
+
+  /**
+   * 按 Content-Encoding 解压响应内容
+   */
+  protected static InputStream decodeContent(InputStream input, String contentEncoding)
+    throws IOException {
+    if (contentEncoding != null) {
+      Log.d(TAG, "encoding: " + contentEncoding);
+    }
+    if (contentEncoding != null && contentEncoding.equalsIgnoreCase("gzip")) {
+      return new GZIPInputStream(input);
+    } else if (contentEncoding != null && contentEncoding.equalsIgnoreCase("deflate")) {
+      Inflater inflater = new Inflater(true);
+      return new InflaterInputStream(input, inflater);
+    }
+    return input;
+  }
+}
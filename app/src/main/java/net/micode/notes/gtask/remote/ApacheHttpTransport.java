@@ -0,0 +1,146 @@
+package net.micode.notes.gtask.remote;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于 org.apache.http.legacy 的传输层实现，作为 HttpURLConnection 不可用时的后备。
+ * 使用线程安全的连接池管理器，多个线程可以同时发送请求并复用 keep-alive 连接。
+ */
+public class ApacheHttpTransport extends AbstractTransport {
+  // 连接池中的连接数上限
+  private static final int MAX_CONNECTIONS = 8;
+
+  private final DefaultHttpClient mHttpClient;
+
+  private final BasicCookieStore mCookieStore;
+
+  /**
+   * @param connectTimeout 连接超时（毫秒）
+   * @param readTimeout    读取超时（毫秒）
+   */
+  public ApacheHttpTransport(int connectTimeout, int readTimeout) {
+    HttpParams httpParameters = new BasicHttpParams();
+    HttpConnectionParams.setConnectionTimeout(httpParameters, connectTimeout);
+    HttpConnectionParams.setSoTimeout(httpParameters, readTimeout);
+    HttpProtocolParams.setUseExpectContinue(httpParameters, false);
+    ConnManagerParams.setMaxTotalConnections(httpParameters, MAX_CONNECTIONS);
+    ConnManagerParams.setMaxConnectionsPerRoute(httpParameters,
+      new ConnPerRouteBean(MAX_CONNECTIONS));
+
+    SchemeRegistry schemeRegistry = new SchemeRegistry();
+    schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+    schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+    mHttpClient = new DefaultHttpClient(
+      new ThreadSafeClientConnManager(httpParameters, schemeRegistry), httpParameters);
+    mCookieStore = new BasicCookieStore();
+    mHttpClient.setCookieStore(mCookieStore);
+  }
+
+  @Override
+  protected Response execute(String method, String url, Map<String, String> headers,
+                             byte[] body) throws IOException {
+    HttpUriRequest request;
+    if (body != null) {
+      HttpPost httpPost = new HttpPost(url);
+      httpPost.setEntity(new ByteArrayEntity(body));
+      request = httpPost;
+    } else {
+      request = new HttpGet(url);
+    }
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      request.setHeader(header.getKey(), header.getValue());
+    }
+    return new EntityResponse(mHttpClient.execute(request));
+  }
+
+  @Override
+  public List<String> getCookieNames() {
+    ArrayList<String> names = new ArrayList<String>();
+    for (Cookie cookie : mCookieStore.getCookies()) {
+      names.add(cookie.getName());
+    }
+    return names;
+  }
+
+  @Override
+  public void clearCookies() {
+    mCookieStore.clear();
+  }
+
+  @Override
+  public void shutdown() {
+    mHttpClient.getConnectionManager().shutdown();
+  }
+
+  private static class EntityResponse implements Response {
+    private final HttpResponse mResponse;
+
+    private InputStream mContent;
+
+    EntityResponse(HttpResponse response) {
+      mResponse = response;
+    }
+
+    @Override
+    public int getStatusCode() {
+      return mResponse.getStatusLine().getStatusCode();
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+      if (mContent == null) {
+        HttpEntity entity = mResponse.getEntity();
+        if (entity == null) {
+          throw new IOException("no response content, status " + getStatusCode());
+        }
+        Header contentEncoding = entity.getContentEncoding();
+        mContent = decodeContent(entity.getContent(),
+          contentEncoding != null ? contentEncoding.getValue() : null);
+      }
+      return mContent;
+    }
+
+    @Override
+    public void close() {
+      try {
+        if (mContent != null) {
+          mContent.close();
+        }
+        // release the connection back to the pool
+        HttpEntity entity = mResponse.getEntity();
+        if (entity != null) {
+          entity.consumeContent();
+        }
+      } catch (IOException e) {
+        // ignore, the connection manager drops broken connections
+      }
+    }
+  }
+}
@@ -6,10 +6,9 @@ import android.accounts.AccountManagerFuture;
 import android.app.Activity;
 import android.os.Bundle;
 import android.text.TextUtils;
+import android.util.JsonReader;
 import android.util.Log;
 
-import com.google.firebase.crashlytics.buildtools.reloc.org.apache.http.HttpEntity;
-
 import net.micode.notes.gtask.data.Node;
 import net.micode.notes.gtask.data.Task;
 import net.micode.notes.gtask.data.TaskList;
@@ -18,32 +17,25 @@ import net.micode.notes.gtask.exception.NetworkFailureException;
 import net.micode.notes.tool.GTaskStringUtils;
 import net.micode.notes.ui.NotesPreferenceActivity;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.cookie.Cookie;
-import org.apache.http.impl.client.BasicCookieStore;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
-import org.apache.http.params.HttpProtocolParams;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.LinkedList;
+import java.io.Reader;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Google Tasks API客户端核心类，功能包括：
@@ -63,11 +55,27 @@ public class GTaskClient {
   private static final String GTASK_GET_URL = "https://mail.google.com/tasks/ig";
   private static final String GTASK_POST_URL = "https://mail.google.com/tasks/r/ig";
 
+  // 连接超时与读取超时（毫秒）
+  private static final int TIMEOUT_CONNECTION = 10000;
+  private static final int TIMEOUT_SOCKET = 15000;
+
+  // POST 请求的请求头
+  private static final Map<String, String> POST_HEADERS = new HashMap<String, String>();
+
+  static {
+    POST_HEADERS.put("Content-Type", "application/x-www-form-urlencoded;charset=utf-8");
+    POST_HEADERS.put("AT", "1");
+  }
+
+  // 每次请求中默认最多包含的操作数，操作过多时请求可能出错
+  private static final int DEFAULT_MAX_BATCH_ACTIONS = 10;
+
   // 单例模式实例
   private static GTaskClient mInstance = null;
 
   // 网络请求参数
-  private DefaultHttpClient mHttpClient;
+  // 登录在同步线程中进行，而获取任务列表时会在多个线程中读取
+  private volatile GTaskTransport mTransport;
   private String mGetUrl;
   private String mPostUrl;
 
@@ -81,12 +89,34 @@ public class GTaskClient {
   private Account mAccount;
   private JSONArray mUpdateArray;
 
+  // 待提交队列中新建操作的 action_id 与对应的节点，提交后据此设置节点的 gid
+  private HashMap<Integer, Node> mCreatedNodes;
+
+  // 每次请求中最多包含的操作数
+  private int mMaxBatchActions;
+
+  // 各操作结果中返回的最后修改时间（gid -> last_modified）
+  private HashMap<String, Long> mLastModified;
+
+  /**
+   * 流式获取任务列表时用于逐个接收任务
+   */
+  public interface TaskHandler {
+    /**
+     * 每读取一个任务调用一次
+     *
+     * @param listIndex 任务所在的任务列表在请求列表中的位置
+     * @param jsTask    任务的 JSON 对象
+     */
+    void onTask(int listIndex, JSONObject jsTask) throws JSONException;
+  }
+
   /**
    * 私有构造函数（单例模式）
    * 初始化默认值和空对象
    */
   private GTaskClient() {
-    mHttpClient = null;
+    mTransport = null;
     mGetUrl = GTASK_GET_URL;
     mPostUrl = GTASK_POST_URL;
     mClientVersion = -1;
@@ -95,6 +125,9 @@ public class GTaskClient {
     mActionId = 1;
     mAccount = null;
     mUpdateArray = null;
+    mCreatedNodes = new HashMap<Integer, Node>();
+    mMaxBatchActions = DEFAULT_MAX_BATCH_ACTIONS;
+    mLastModified = new HashMap<String, Long>();
   }
 
   /**
@@ -234,48 +267,89 @@ public class GTaskClient {
     return true;
   }
 
+  /**
+   * 设置与服务器通信使用的传输层，默认使用 {@link UrlConnectionTransport}，
+   * 也可以换成 {@link ApacheHttpTransport}。设置后需要重新登录
+   */
+  public synchronized void setTransport(GTaskTransport transport) {
+    if (mTransport != null && mTransport != transport) {
+      mTransport.shutdown();
+    }
+    mTransport = transport;
+    mLoggedin = false;
+    mLastLoginTime = 0;
+  }
+
+  /**
+   * 用已经取得的认证令牌直接登录，不经过 AccountManager，用于测试。
+   * 之后的 login 在会话过期或同步账户变更前不再重新登录
+   *
+   * @param account   同步账户，名称需要与设置中的同步账户一致
+   * @param authToken 认证令牌
+   * @return 是否登录成功
+   */
+  public boolean login(Account account, String authToken) {
+    mAccount = account;
+    mLastLoginTime = System.currentTimeMillis();
+    mGetUrl = GTASK_GET_URL;
+    mPostUrl = GTASK_POST_URL;
+    mLoggedin = loginGtask(authToken);
+    return mLoggedin;
+  }
+
+  private synchronized GTaskTransport getTransport() {
+    if (mTransport == null) {
+      mTransport = new UrlConnectionTransport(TIMEOUT_CONNECTION, TIMEOUT_SOCKET);
+      mTransport.setRequestListener(new GTaskTransport.RequestListener() {
+        @Override
+        public void onRequestFinished(String method, String url, int statusCode,
+                                      int requestSize, long elapsedMs) {
+          Log.d(TAG, method + " " + statusCode + " sent " + requestSize + " bytes in "
+            + elapsedMs + "ms");
+        }
+      });
+    }
+    return mTransport;
+  }
+
   private boolean loginGtask(String authToken) {
-    int timeoutConnection = 10000;
-    int timeoutSocket = 15000;
-    HttpParams httpParameters = new BasicHttpParams();
-    HttpConnectionParams.setConnectionTimeout(httpParameters, timeoutConnection);
-    HttpConnectionParams.setSoTimeout(httpParameters, timeoutSocket);
-    mHttpClient = new DefaultHttpClient(httpParameters);
-    BasicCookieStore localBasicCookieStore = new BasicCookieStore();
-    mHttpClient.setCookieStore(localBasicCookieStore);
-    HttpProtocolParams.setUseExpectContinue(mHttpClient.getParams(), false);
+    GTaskTransport transport = getTransport();
+    transport.clearCookies();
 
     // login gtask
     try {
       String loginUrl = mGetUrl + "?auth=" + authToken;
-      HttpGet httpGet = new HttpGet(loginUrl);
-      HttpResponse response = null;
-      response = mHttpClient.execute(httpGet);
-
-      // get the cookie now
-      List<Cookie> cookies = mHttpClient.getCookieStore().getCookies();
-      boolean hasAuthCookie = false;
-      for (Cookie cookie : cookies) {
-        if (cookie.getName().contains("GTL")) {
-          hasAuthCookie = true;
+      GTaskTransport.Response response = transport.get(loginUrl);
+
+      try {
+        // get the cookie now
+        boolean hasAuthCookie = false;
+        for (String name : transport.getCookieNames()) {
+          if (name.contains("GTL")) {
+            hasAuthCookie = true;
+          }
+        }
+        if (!hasAuthCookie) {
+          Log.w(TAG, "it seems that there is no auth cookie");
         }
-      }
-      if (!hasAuthCookie) {
-        Log.w(TAG, "it seems that there is no auth cookie");
-      }
 
-      // get the client version
-      String resString = getResponseContent((HttpEntity) response.getEntity());
-      String jsBegin = "_setup(";
-      String jsEnd = ")}</script>";
-      int begin = resString.indexOf(jsBegin);
-      int end = resString.lastIndexOf(jsEnd);
-      String jsString = null;
-      if (begin != -1 && end != -1 && begin < end) {
-        jsString = resString.substring(begin + jsBegin.length(), end);
+        // get the client version
+        JsonReader reader = openSetupReader(response);
+        mClientVersion = -1;
+        reader.beginObject();
+        while (reader.hasNext()) {
+          if (reader.nextName().equals("v")) {
+            mClientVersion = reader.nextLong();
+            break;
+          }
+          reader.skipValue();
+        }
+        if (mClientVersion == -1) {
+          throw new JSONException("no client version in response");
+        }
+      } finally {
+        response.close();
       }
-      JSONObject js = new JSONObject(jsString);
-      mClientVersion = js.getLong("v");
     } catch (JSONException e) {
       Log.e(TAG, e.toString());
       e.printStackTrace();
@@ -286,74 +360,84 @@ public class GTaskClient {
       return false;
     }
 
+    probeCompression(transport);
     return true;
   }
 
-  private int getActionId() {
-    return mActionId++;
+  /**
+   * 用不含任何操作的请求探测服务器是否接受压缩的请求体，每个传输层只探测一次，
+   * 探测失败时请求体不压缩
+   */
+  private void probeCompression(GTaskTransport transport) {
+    try {
+      JSONObject js = new JSONObject();
+      js.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, new JSONArray());
+      js.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
+      boolean supported = transport.probeCompression(mPostUrl, POST_HEADERS, createPostBody(js));
+      Log.d(TAG, "compressed requests " + (supported ? "enabled" : "disabled"));
+    } catch (JSONException e) {
+      Log.w(TAG, "build compression probe failed: " + e.toString());
+    } catch (IOException e) {
+      Log.w(TAG, "compression probe failed: " + e.toString());
+    }
   }
 
-  private HttpPost createHttpPost() {
-    HttpPost httpPost = new HttpPost(mPostUrl);
-    httpPost.setHeader("Content-Type", "application/x-www-form-urlencoded;charset=utf-8");
-    httpPost.setHeader("AT", "1");
-    return httpPost;
+  // 并发获取任务列表时会在多个线程中调用
+  private synchronized int getActionId() {
+    return mActionId++;
   }
 
-  private String getResponseContent(HttpEntity entity) throws IOException {
-    String contentEncoding = null;
-    if (entity.getContentEncoding() != null) {
-      contentEncoding = entity.getContentEncoding().getValue();
-      Log.d(TAG, "encoding: " + contentEncoding);
-    }
-
-    InputStream input = entity.getContent();
-    if (contentEncoding != null && contentEncoding.equalsIgnoreCase("gzip")) {
-      input = new GZIPInputStream(entity.getContent());
-    } else if (contentEncoding != null && contentEncoding.equalsIgnoreCase("deflate")) {
-      Inflater inflater = new Inflater(true);
-      input = new InflaterInputStream(entity.getContent(), inflater);
-    }
+  /**
+   * 生成 POST 请求体：JSON 作为表单字段 r 提交
+   */
+  private static byte[] createPostBody(JSONObject js) throws IOException {
+    return ("r=" + URLEncoder.encode(js.toString(), "UTF-8")).getBytes("UTF-8");
+  }
 
-    try {
-      InputStreamReader isr = new InputStreamReader(input);
-      BufferedReader br = new BufferedReader(isr);
-      StringBuilder sb = new StringBuilder();
-
-      while (true) {
-        String buff = br.readLine();
-        if (buff == null) {
-          return sb.toString();
-        }
-        sb = sb.append(buff);
-      }
-    } finally {
-      input.close();
+  /**
+   * 打开网页响应中 _setup( 之后的 JSON 数据，返回的 reader 位于数据对象的开始处
+   */
+  private JsonReader openSetupReader(GTaskTransport.Response response) throws IOException {
+    Reader reader = new BufferedReader(new InputStreamReader(response.getContent(), "UTF-8"));
+    if (!GTaskJsonReader.skipTo(reader, "_setup(")) {
+      reader.close();
+      throw new IOException("no setup data in response");
     }
+    // the script continues after the setup object
+    JsonReader jsReader = new JsonReader(reader);
+    jsReader.setLenient(true);
+    return jsReader;
   }
 
   private JSONObject postRequest(JSONObject js) throws NetworkFailureException {
+    return postRequest(js, null, 0);
+  }
+
+  /**
+   * 发送请求并流式解析响应。taskHandler 不为 null 时响应中的任务逐个交给它处理，不放入返回的对象中
+   */
+  private JSONObject postRequest(JSONObject js, TaskHandler taskHandler, int listIndex)
+    throws NetworkFailureException {
     if (!mLoggedin) {
       Log.e(TAG, "please login first");
       throw new ActionFailureException("not logged in");
     }
 
-    HttpPost httpPost = createHttpPost();
     try {
-      LinkedList<BasicNameValuePair> list = new LinkedList<BasicNameValuePair>();
-      list.add(new BasicNameValuePair("r", js.toString()));
-      UrlEncodedFormEntity entity = new UrlEncodedFormEntity(list, "UTF-8");
-      httpPost.setEntity(entity);
-
       // execute the post
-      HttpResponse response = mHttpClient.execute(httpPost);
-      String jsString = getResponseContent((HttpEntity) response.getEntity());
-      return new JSONObject(jsString);
+      GTaskTransport.Response response = getTransport().post(mPostUrl, POST_HEADERS,
+        createPostBody(js));
+      JSONObject jsResponse;
+      try {
+        JsonReader reader = new JsonReader(new InputStreamReader(response.getContent(),
+          "UTF-8"));
+        jsResponse = readResponse(reader, taskHandler, listIndex);
+      } finally {
+        response.close();
+      }
+      recordLastModified(jsResponse);
+      return jsResponse;
 
-    } catch (ClientProtocolException e) {
-      Log.e(TAG, e.toString());
-      e.printStackTrace();
-      throw new NetworkFailureException("postRequest failed");
     } catch (IOException e) {
       Log.e(TAG, e.toString());
       e.printStackTrace();
@@ -369,69 +453,104 @@ public class GTaskClient {
     }
   }
 
+  private JSONObject readResponse(JsonReader reader, TaskHandler taskHandler, int listIndex)
+    throws IOException, JSONException {
+    JSONObject jsResponse = new JSONObject();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (taskHandler != null && name.equals(GTaskStringUtils.GTASK_JSON_TASKS)) {
+        reader.beginArray();
+        while (reader.hasNext()) {
+          taskHandler.onTask(listIndex, GTaskJsonReader.readObject(reader));
+        }
+        reader.endArray();
+      } else {
+        jsResponse.put(name, GTaskJsonReader.readValue(reader));
+      }
+    }
+    reader.endObject();
+    return jsResponse;
+  }
+
   /**
-   * 创建新任务
+   * 记录响应中各操作结果携带的最后修改时间。同步结束后据此更新本地的 sync_id，
+   * 不必为此重新下载任务列表
+   */
+  private void recordLastModified(JSONObject jsResponse) {
+    JSONArray results = jsResponse.optJSONArray(GTaskStringUtils.GTASK_JSON_RESULTS);
+    if (results == null) {
+      return;
+    }
+    synchronized (mLastModified) {
+      for (int i = 0; i < results.length(); i++) {
+        JSONObject result = results.optJSONObject(i);
+        if (result == null || !result.has(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED)) {
+          continue;
+        }
+        // 新建的节点以 new_id 标识，其余以 id 标识
+        String gid = result.optString(GTaskStringUtils.GTASK_JSON_NEW_ID,
+          result.optString(GTaskStringUtils.GTASK_JSON_ID, null));
+        if (gid != null) {
+          mLastModified.put(gid, result.optLong(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED));
+        }
+      }
+    }
+  }
+
+  /**
+   * 获取本次同步中某个节点在修改后由服务器返回的最后修改时间
+   *
+   * @param gid 节点ID
+   * @return 最后修改时间，响应中没有携带时返回 null
+   */
+  public Long getLastModified(String gid) {
+    synchronized (mLastModified) {
+      return mLastModified.get(gid);
+    }
+  }
+
+  /**
+   * 清除记录的最后修改时间，每次同步开始时调用
+   */
+  public void resetLastModified() {
+    synchronized (mLastModified) {
+      mLastModified.clear();
+    }
+  }
+
+  /**
+   * 创建新任务。创建操作会先加入待提交队列，任务的 gid 在队列提交后才会设置
    *
    * @param task 要创建的任务对象
    * @throws NetworkFailureException 网络异常
    */
   public void createTask(Task task) throws NetworkFailureException {
-    commitUpdate();
-    try {
-      JSONObject jsPost = new JSONObject();
-      JSONArray actionList = new JSONArray();
-
-      // action_list
-      actionList.put(task.getCreateAction(getActionId()));
-      jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, actionList);
-
-      // client_version
-      jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
-
-      // post
-      JSONObject jsResponse = postRequest(jsPost);
-      JSONObject jsResult = (JSONObject) jsResponse.getJSONArray(
-        GTaskStringUtils.GTASK_JSON_RESULTS).get(0);
-      task.setGid(jsResult.getString(GTaskStringUtils.GTASK_JSON_NEW_ID));
-
-    } catch (JSONException e) {
-      Log.e(TAG, e.toString());
-      e.printStackTrace();
-      throw new ActionFailureException("create task: handing jsonobject failed");
-    }
+    // the parent list may be waiting for its gid
+    commitIfUnresolved(task.getParent().getGid());
+    addAction(task.getCreateAction(getActionId()), task);
   }
 
+  /**
+   * 创建新任务列表，任务列表的 gid 在队列提交后才会设置
+   */
   public void createTaskList(TaskList tasklist) throws NetworkFailureException {
-    commitUpdate();
-    try {
-      JSONObject jsPost = new JSONObject();
-      JSONArray actionList = new JSONArray();
-
-      // action_list
-      actionList.put(tasklist.getCreateAction(getActionId()));
-      jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, actionList);
-
-      // client version
-      jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
-
-      // post
-      JSONObject jsResponse = postRequest(jsPost);
-      JSONObject jsResult = (JSONObject) jsResponse.getJSONArray(
-        GTaskStringUtils.GTASK_JSON_RESULTS).get(0);
-      tasklist.setGid(jsResult.getString(GTaskStringUtils.GTASK_JSON_NEW_ID));
-
-    } catch (JSONException e) {
-      Log.e(TAG, e.toString());
-      e.printStackTrace();
-      throw new ActionFailureException("create tasklist: handing jsonobject failed");
-    }
+    addAction(tasklist.getCreateAction(getActionId()), tasklist);
   }
 
+  /**
+   * 设置每次请求中最多包含的操作数
+   *
+   * @param maxBatchActions 操作数上限，不小于 1
+   */
+  public void setMaxBatchActions(int maxBatchActions) {
+    mMaxBatchActions = Math.max(1, maxBatchActions);
+  }
 
   /**
    * 提交批量更新
    *
-   * @throws 网络异常 说明：当更新操作超过10个时会自动提交
+   * @throws 网络异常 说明：当队列中的操作数达到上限时会自动提交
    */
   public void commitUpdate() throws NetworkFailureException {
     if (mUpdateArray != null) {
@@ -444,7 +563,10 @@ public class GTaskClient {
         // client_version
         jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
 
-        postRequest(jsPost);
+        JSONObject jsResponse = postRequest(jsPost);
+        if (!mCreatedNodes.isEmpty()) {
+          setCreatedGids(mUpdateArray, jsResponse);
+        }
         mUpdateArray = null;
       } catch (JSONException e) {
         Log.e(TAG, e.toString());
@@ -454,26 +576,73 @@ public class GTaskClient {
     }
   }
 
-  public void addUpdateNode(Node node) throws NetworkFailureException {
-    if (node != null) {
-      // too many update items may result in an error
-      // set max to 10 items
-      if (mUpdateArray != null && mUpdateArray.length() > 10) {
+  /**
+   * 根据操作结果设置新建节点的 gid。结果中带有 action_id 时按其对应，否则按结果在数组中的位置对应
+   */
+  private void setCreatedGids(JSONArray actionList, JSONObject jsResponse)
+    throws JSONException {
+    JSONArray results = jsResponse.getJSONArray(GTaskStringUtils.GTASK_JSON_RESULTS);
+    for (int i = 0; i < results.length(); i++) {
+      JSONObject result = results.getJSONObject(i);
+      int actionId = result.has(GTaskStringUtils.GTASK_JSON_ACTION_ID)
+        ? result.getInt(GTaskStringUtils.GTASK_JSON_ACTION_ID)
+        : actionList.getJSONObject(i).getInt(GTaskStringUtils.GTASK_JSON_ACTION_ID);
+      Node node = mCreatedNodes.remove(actionId);
+      if (node != null) {
+        node.setGid(result.getString(GTaskStringUtils.GTASK_JSON_NEW_ID));
+      }
+    }
+    if (!mCreatedNodes.isEmpty()) {
+      mCreatedNodes.clear();
+      throw new ActionFailureException("commit update: some created nodes have no gid");
+    }
+  }
+
+  /**
+   * 将一个操作加入待提交队列，队列已满时先提交
+   *
+   * @param action      操作的 JSON 对象
+   * @param createdNode 操作新建的节点，不是新建操作时为 null
+   */
+  private void addAction(JSONObject action, Node createdNode) throws NetworkFailureException {
+    if (mUpdateArray != null && mUpdateArray.length() >= mMaxBatchActions) {
+      commitUpdate();
+    }
+
+    if (mUpdateArray == null)
+      mUpdateArray = new JSONArray();
+    mUpdateArray.put(action);
+    if (createdNode != null) {
+      mCreatedNodes.put(action.optInt(GTaskStringUtils.GTASK_JSON_ACTION_ID), createdNode);
+    }
+  }
+
+  /**
+   * 操作引用的节点还在等待 gid 时，先提交队列得到 gid 后再生成操作
+   */
+  private void commitIfUnresolved(String... gids) throws NetworkFailureException {
+    if (mCreatedNodes.isEmpty()) {
+      return;
+    }
+    for (String gid : gids) {
+      if (gid == null) {
         commitUpdate();
+        return;
       }
+    }
+  }
 
-      if (mUpdateArray == null)
-        mUpdateArray = new JSONArray();
-      mUpdateArray.put(node.getUpdateAction(getActionId()));
+  public void addUpdateNode(Node node) throws NetworkFailureException {
+    if (node != null) {
+      commitIfUnresolved(node.getGid());
+      addAction(node.getUpdateAction(getActionId()), null);
     }
   }
 
   public void moveTask(Task task, TaskList preParent, TaskList curParent)
     throws NetworkFailureException {
-    commitUpdate();
+    commitIfUnresolved(task.getGid(), preParent.getGid(), curParent.getGid());
     try {
-      JSONObject jsPost = new JSONObject();
-      JSONArray actionList = new JSONArray();
       JSONObject action = new JSONObject();
 
       // action_list
@@ -481,10 +650,11 @@ public class GTaskClient {
         GTaskStringUtils.GTASK_JSON_ACTION_TYPE_MOVE);
       action.put(GTaskStringUtils.GTASK_JSON_ACTION_ID, getActionId());
       action.put(GTaskStringUtils.GTASK_JSON_ID, task.getGid());
-      if (preParent == curParent && task.getPriorSibling() != null) {
-        // put prioring_sibing_id only if moving within the tasklist and
-        // it is not the first one
-        action.put(GTaskStringUtils.GTASK_JSON_PRIOR_SIBLING_ID, task.getPriorSibling());
+      if (task.getPriorSibling() != null && task.getPriorSibling().getGid() != null) {
+        // put prioring_sibing_id only if it is not the first one, also when
+        // moving between tasklists so the task is appended to the dest_list
+        action.put(GTaskStringUtils.GTASK_JSON_PRIOR_SIBLING_ID,
+          task.getPriorSibling().getGid());
       }
       action.put(GTaskStringUtils.GTASK_JSON_SOURCE_LIST, preParent.getGid());
       action.put(GTaskStringUtils.GTASK_JSON_DEST_PARENT, curParent.getGid());
@@ -492,13 +662,7 @@ public class GTaskClient {
         // put the dest_list only if moving between tasklists
         action.put(GTaskStringUtils.GTASK_JSON_DEST_LIST, curParent.getGid());
       }
-      actionList.put(action);
-      jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, actionList);
-
-      // client_version
-      jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
-
-      postRequest(jsPost);
+      addAction(action, null);
 
     } catch (JSONException e) {
       Log.e(TAG, e.toString());
@@ -508,26 +672,11 @@ public class GTaskClient {
   }
 
   public void deleteNode(Node node) throws NetworkFailureException {
-    commitUpdate();
-    try {
-      JSONObject jsPost = new JSONObject();
-      JSONArray actionList = new JSONArray();
+    commitIfUnresolved(node.getGid());
 
-      // action_list
-      node.setDeleted(true);
-      actionList.put(node.getUpdateAction(getActionId()));
-      jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, actionList);
-
-      // client_version
-      jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
-
-      postRequest(jsPost);
-      mUpdateArray = null;
-    } catch (JSONException e) {
-      Log.e(TAG, e.toString());
-      e.printStackTrace();
-      throw new ActionFailureException("delete node: handing jsonobject failed");
-    }
+    // action_list
+    node.setDeleted(true);
+    addAction(node.getUpdateAction(getActionId()), null);
   }
 
   public JSONArray getTaskLists() throws NetworkFailureException {
@@ -537,26 +686,30 @@ public class GTaskClient {
     }
 
     try {
-      HttpGet httpGet = new HttpGet(mGetUrl);
-      HttpResponse response = null;
-      response = mHttpClient.execute(httpGet);
-
-      // get the task list
-      String resString = getResponseContent((HttpEntity) response.getEntity());
-      String jsBegin = "_setup(";
-      String jsEnd = ")}</script>";
-      int begin = resString.indexOf(jsBegin);
-      int end = resString.lastIndexOf(jsEnd);
-      String jsString = null;
-      if (begin != -1 && end != -1 && begin < end) {
-        jsString = resString.substring(begin + jsBegin.length(), end);
+      GTaskTransport.Response response = getTransport().get(mGetUrl);
+
+      // get the task list, only t.lists is materialized
+      try {
+        JsonReader reader = openSetupReader(response);
+        reader.beginObject();
+        while (reader.hasNext()) {
+          if (!reader.nextName().equals("t")) {
+            reader.skipValue();
+            continue;
+          }
+          reader.beginObject();
+          while (reader.hasNext()) {
+            if (reader.nextName().equals(GTaskStringUtils.GTASK_JSON_LISTS)) {
+              return GTaskJsonReader.readArray(reader);
+            }
+            reader.skipValue();
+          }
+          reader.endObject();
+        }
+        throw new JSONException("no task lists in response");
+      } finally {
+        response.close();
       }
-      JSONObject js = new JSONObject(jsString);
-      return js.getJSONObject("t").getJSONArray(GTaskStringUtils.GTASK_JSON_LISTS);
-    } catch (ClientProtocolException e) {
-      Log.e(TAG, e.toString());
-      e.printStackTrace();
-      throw new NetworkFailureException("gettasklists: httpget failed");
     } catch (IOException e) {
       Log.e(TAG, e.toString());
       e.printStackTrace();
@@ -565,6 +718,10 @@ public class GTaskClient {
       Log.e(TAG, e.toString());
       e.printStackTrace();
       throw new ActionFailureException("get task lists: handing jasonobject failed");
+    } catch (IllegalStateException e) {
+      Log.e(TAG, e.toString());
+      e.printStackTrace();
+      throw new ActionFailureException("get task lists: unexpected json structure");
     }
   }
 
@@ -576,7 +733,74 @@ public class GTaskClient {
    * @throws 网络异常
    */
   public JSONArray getTaskList(String listGid) throws NetworkFailureException {
+    final JSONArray jsTasks = new JSONArray();
+    getTaskLists(Arrays.asList(listGid), 1, new TaskHandler() {
+      @Override
+      public void onTask(int listIndex, JSONObject jsTask) {
+        jsTasks.put(jsTask);
+      }
+    });
+    return jsTasks;
+  }
+
+  /**
+   * 获取多个任务列表的所有任务，响应以流的方式解析，每读取一个任务就交给 handler 处理
+   *
+   * @param listGids    任务列表ID
+   * @param parallelism 同时进行的请求数上限，不大于1时逐个获取
+   * @param handler     任务处理器，并发获取时在工作线程中调用
+   * @throws 网络异常，任一任务列表获取失败时抛出
+   */
+  public void getTaskLists(final List<String> listGids, int parallelism,
+                           final TaskHandler handler) throws NetworkFailureException {
     commitUpdate();
+    final int threads = Math.min(parallelism, listGids.size());
+    if (threads <= 1) {
+      for (int i = 0; i < listGids.size(); i++) {
+        requestTaskList(listGids.get(i), handler, i);
+      }
+      return;
+    }
+
+    // 每个线程按固定的间隔取任务列表，同一任务列表的任务总在同一线程中按顺序处理
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>(threads);
+      for (int worker = 0; worker < threads; worker++) {
+        final int first = worker;
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws NetworkFailureException {
+            for (int i = first; i < listGids.size(); i += threads) {
+              requestTaskList(listGids.get(i), handler, i);
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof NetworkFailureException) {
+            throw (NetworkFailureException) cause;
+          } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          throw new ActionFailureException("get task lists: " + cause);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new NetworkFailureException("get task lists: interrupted");
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void requestTaskList(String listGid, TaskHandler handler, int listIndex)
+    throws NetworkFailureException {
     try {
       JSONObject jsPost = new JSONObject();
       JSONArray actionList = new JSONArray();
@@ -594,8 +818,7 @@ public class GTaskClient {
       // client_version
       jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
 
-      JSONObject jsResponse = postRequest(jsPost);
-      return jsResponse.getJSONArray(GTaskStringUtils.GTASK_JSON_TASKS);
+      postRequest(jsPost, handler, listIndex);
     } catch (JSONException e) {
       Log.e(TAG, e.toString());
       e.printStackTrace();
@@ -609,5 +832,6 @@ public class GTaskClient {
 
   public void resetUpdateArray() {
     mUpdateArray = null;
+    mCreatedNodes.clear();
   }
 }
@@ -0,0 +1,105 @@
+package net.micode.notes.gtask.remote;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Google Tasks 响应的流式解析工具：
+ * 1. 在网页响应中定位 _setup( 之后的 JSON 数据，不必读入整个网页
+ * 2. 将 JsonReader 当前位置的值转换为 org.json 对象，
+ * 只为需要的部分（单个任务、任务列表等）建立对象树
+ */
+final class GTaskJsonReader {
+  private GTaskJsonReader() {
+  }
+
+  /**
+   * 跳过 reader 中的内容，直到读完 marker 为止
+   *
+   * @return 找到 marker 返回 true，读到末尾仍未找到返回 false
+   */
+  static boolean skipTo(Reader reader, String marker) throws IOException {
+    int matched = 0;
+    int c;
+    while ((c = reader.read()) != -1) {
+      if (c == marker.charAt(matched)) {
+        matched++;
+        if (matched == marker.length()) {
+          return true;
+        }
+      } else {
+        matched = (c == marker.charAt(0)) ? 1 : 0;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * 读取一个对象，reader 需位于对象开始处
+   */
+  static JSONObject readObject(JsonReader reader) throws IOException, JSONException {
+    JSONObject object = new JSONObject();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      object.put(name, readValue(reader));
+    }
+    reader.endObject();
+    return object;
+  }
+
+  /**
+   * 读取一个数组，reader 需位于数组开始处
+   */
+  static JSONArray readArray(JsonReader reader) throws IOException, JSONException {
+    JSONArray array = new JSONArray();
+    reader.beginArray();
+    while (reader.hasNext()) {
+      array.put(readValue(reader));
+    }
+    reader.endArray();
+    return array;
+  }
+
+  /**
+   * 读取任意一个值，数字按整数或浮点数转换
+   */
+  static Object readValue(JsonReader reader) throws IOException, JSONException {
+    JsonToken token = reader.peek();
+    switch (token) {
+      case BEGIN_OBJECT:
+        return readObject(reader);
+      case BEGIN_ARRAY:
+        return readArray(reader);
+      case BOOLEAN:
+        return reader.nextBoolean();
+      case NULL:
+        reader.nextNull();
+        return JSONObject.NULL;
+      case NUMBER:
+        return parseNumber(reader.nextString());
+      case STRING:
+        return reader.nextString();
+      default:
+        throw new JSONException("unexpected json token: " + token);
+    }
+  }
+
+  private static Object parseNumber(String number) {
+    if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+      try {
+        return Long.parseLong(number);
+      } catch (NumberFormatException e) {
+        // too large for a long, fall through
+      }
+    }
+    return Double.parseDouble(number);
+  }
+}
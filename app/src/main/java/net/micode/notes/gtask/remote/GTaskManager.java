@@ -1,34 +1,45 @@
 package net.micode.notes.gtask.remote;
 
 import android.app.Activity;
+import android.appwidget.AppWidgetManager;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.text.TextUtils;
 import android.util.Log;
 
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.JournalColumns;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.OutboxColumns;
 import net.micode.notes.gtask.data.MetaData;
 import net.micode.notes.gtask.data.Node;
 import net.micode.notes.gtask.data.SqlNote;
+import net.micode.notes.gtask.data.SyncWriteBatch;
 import net.micode.notes.gtask.data.Task;
 import net.micode.notes.gtask.data.TaskList;
 import net.micode.notes.gtask.exception.ActionFailureException;
 import net.micode.notes.gtask.exception.NetworkFailureException;
 import net.micode.notes.tool.DataUtils;
 import net.micode.notes.tool.GTaskStringUtils;
+import net.micode.notes.tool.LineMerger;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -53,6 +64,52 @@ public class GTaskManager {
 
   public static final int STATE_SYNC_CANCELLED = 4;
 
+  // 判断本地记录是否需要同步时只读取这几列，不必加载完整的笔记内容
+  private static final String[] SYNC_STATE_PROJECTION = new String[]{
+    NoteColumns.ID, NoteColumns.GTASK_ID, NoteColumns.SYNC_ID, NoteColumns.LOCAL_MODIFIED
+  };
+
+  private static final int SYNC_STATE_ID_COLUMN = 0;
+
+  private static final int SYNC_STATE_GTASK_ID_COLUMN = 1;
+
+  private static final int SYNC_STATE_SYNC_ID_COLUMN = 2;
+
+  private static final int SYNC_STATE_LOCAL_MODIFIED_COLUMN = 3;
+
+  // 同步时读取本地记录的条件，NotesQueryPlanTest 检查它们的查询计划。
+  // 回收站中的笔记和文件夹
+  public static final String TRASHED_NOTES_SELECTION = "(" + NoteColumns.TYPE + "<>? AND "
+    + NoteColumns.PARENT_ID + "=?)";
+
+  // 不在回收站中的某类记录
+  public static final String LOCAL_NODES_SELECTION = "(" + NoteColumns.TYPE + "=? AND "
+    + NoteColumns.PARENT_ID + "<>?)";
+
+  // 同步过的笔记，按 gid 与远程任务归并连接，分页时由 SyncReconciler 追加 gtask_id>? 条件
+  public static final String SYNCED_NOTES_SELECTION = NoteColumns.TYPE + "=? AND "
+    + NoteColumns.GTASK_ID + "<>''";
+
+  // 本地新建、尚未上传的笔记，按 id 分页
+  public static final String LOCAL_ADDED_NOTES_SELECTION = NoteColumns.TYPE + "=? AND "
+    + NoteColumns.PARENT_ID + "<>? AND " + NoteColumns.GTASK_ID + "='' AND "
+    + NoteColumns.ID + ">?";
+
+  // 按 id 批量读取完整笔记时，每次查询的 id 数量上限
+  private static final int MAX_IDS_PER_QUERY = 500;
+
+  // 逐页上传本地新建的笔记时每页的条数
+  private static final int PAGE_SIZE = 200;
+
+  // 每同步这么多条记录保存一次检查点
+  private static final int CHECKPOINT_INTERVAL = 50;
+
+  // 初始化时默认同时获取的任务列表数
+  private static final int DEFAULT_FETCH_PARALLELISM = 4;
+
+  // 缓存目录下存放远程任务排序临时文件的子目录
+  private static final String SPILL_DIR_NAME = "sync_spill";
+
   private static GTaskManager mInstance = null;
 
   private Activity mActivity;
@@ -67,10 +124,18 @@ public class GTaskManager {
 
   private HashMap<String, TaskList> mGTaskListHashMap;
 
+  // 按名称索引 mGTaskListHashMap 中的任务列表，名称相同时保留先加入的
+  private HashMap<String, TaskList> mGTaskListNameMap;
+
+  // 还没有与本地文件夹对应的任务列表；笔记对应的任务不在内存中保留，由 mReconciler 处理
   private HashMap<String, Node> mGTaskHashMap;
 
+  // 正在同步的任务的元数据，保存检查点后清空
   private HashMap<String, MetaData> mMetaHashMap;
 
+  // 初始化时写入全部远程任务，同步笔记时与本地笔记做归并连接
+  private SyncReconciler mReconciler;
+
   private TaskList mMetaList;
 
   private HashSet<Long> mLocalDeleteIdMap;
@@ -79,16 +144,61 @@ public class GTaskManager {
 
   private HashMap<Long, String> mNidToGid;
 
+  // 同步开始时变更日志中出现过的笔记 id
+  private HashSet<Long> mJournaledIds;
+
+  // 同步开始时变更日志的最大序号，同步成功后删除不超过该序号的记录
+  private long mJournalWatermark;
+
+  // 同步开始时待发件箱中的笔记 id 与合并后的用户操作
+  private HashMap<Long, Integer> mOutboxOps;
+
+  // 同步开始时待发件箱的最大序号，之后再次编辑的笔记得到更大的序号，不会被本次同步删除
+  private long mOutboxWatermark;
+
+  // 初始化时同时获取的任务列表数上限，为 1 时逐个获取
+  private int mFetchParallelism;
+
+  // 本次同步中处理过的笔记 id 与对应的远程节点，同步结束后刷新它们的 sync_id
+  private HashMap<Long, Node> mSyncedNodes;
+
+  // 本地修改已加入上传队列、等待提交后清除本地修改标记的笔记 id 与读取时的版本号
+  private HashMap<Long, Long> mPushedVersions;
+
+  // 上次保存检查点之后同步过的记录数
+  private int mUncheckpointedCount;
+
+  // 本次同步中在远程创建或修改过的节点 gid，它们的最后修改时间需要以服务器返回的为准
+  private HashSet<String> mRemoteChangedGids;
+
+  // 已排队创建、还在等待 gid 的远程节点与对应的本地笔记，按加入顺序关联
+  private LinkedHashMap<Node, SqlNote> mPendingRemoteAdds;
+
+  // 同步过程中的本地写入，在保存检查点时于一个事务中提交
+  private SyncWriteBatch mWriteBatch;
+
+  // 写入已加入 mWriteBatch、等待提交后才有 id 的本地笔记与对应的远程节点
+  private LinkedHashMap<SqlNote, Node> mPendingLocalWrites;
+
   private GTaskManager() {
     mSyncing = false;
     mCancelled = false;
     mGTaskListHashMap = new HashMap<String, TaskList>();
+    mGTaskListNameMap = new HashMap<String, TaskList>();
     mGTaskHashMap = new HashMap<String, Node>();
     mMetaHashMap = new HashMap<String, MetaData>();
     mMetaList = null;
     mLocalDeleteIdMap = new HashSet<Long>();
     mGidToNid = new HashMap<String, Long>();
     mNidToGid = new HashMap<Long, String>();
+    mJournaledIds = new HashSet<Long>();
+    mOutboxOps = new HashMap<Long, Integer>();
+    mSyncedNodes = new HashMap<Long, Node>();
+    mRemoteChangedGids = new HashSet<String>();
+    mPushedVersions = new HashMap<Long, Long>();
+    mPendingRemoteAdds = new LinkedHashMap<Node, SqlNote>();
+    mPendingLocalWrites = new LinkedHashMap<SqlNote, Node>();
+    mFetchParallelism = DEFAULT_FETCH_PARALLELISM;
   }
 
   public static synchronized GTaskManager getInstance() {
@@ -98,6 +208,15 @@ public class GTaskManager {
     return mInstance;
   }
 
+  /**
+   * 设置初始化时同时获取的任务列表数上限
+   *
+   * @param parallelism 并发数，不大于 1 时逐个获取
+   */
+  public synchronized void setFetchParallelism(int parallelism) {
+    mFetchParallelism = Math.max(1, parallelism);
+  }
+
   public synchronized void setActivityContext(Activity activity) {
     // used for getting authtoken
     mActivity = activity;
@@ -110,18 +229,29 @@ public class GTaskManager {
     }
     mContext = context;
     mContentResolver = mContext.getContentResolver();
+    mWriteBatch = new SyncWriteBatch(mContentResolver);
     mSyncing = true;
     mCancelled = false;
     mGTaskListHashMap.clear();
+    mGTaskListNameMap.clear();
     mGTaskHashMap.clear();
     mMetaHashMap.clear();
     mLocalDeleteIdMap.clear();
     mGidToNid.clear();
     mNidToGid.clear();
+    mJournaledIds.clear();
+    mOutboxOps.clear();
+    mSyncedNodes.clear();
+    mRemoteChangedGids.clear();
+    mPendingRemoteAdds.clear();
+    mPendingLocalWrites.clear();
+    mPushedVersions.clear();
+    mUncheckpointedCount = 0;
 
     try {
       GTaskClient client = GTaskClient.getInstance();
       client.resetUpdateArray();
+      client.resetLastModified();
 
       // login google task
       if (!mCancelled) {
@@ -139,21 +269,38 @@ public class GTaskManager {
       syncContent();
     } catch (NetworkFailureException e) {
       Log.e(TAG, e.toString());
+      saveInterruptedWrites();
       return STATE_NETWORK_ERROR;
     } catch (ActionFailureException e) {
       Log.e(TAG, e.toString());
+      saveInterruptedWrites();
       return STATE_INTERNAL_ERROR;
     } catch (Exception e) {
       Log.e(TAG, e.toString());
       e.printStackTrace();
+      saveInterruptedWrites();
       return STATE_INTERNAL_ERROR;
     } finally {
       mGTaskListHashMap.clear();
+      mGTaskListNameMap.clear();
       mGTaskHashMap.clear();
       mMetaHashMap.clear();
       mLocalDeleteIdMap.clear();
       mGidToNid.clear();
       mNidToGid.clear();
+      mJournaledIds.clear();
+      mOutboxOps.clear();
+      mSyncedNodes.clear();
+      mRemoteChangedGids.clear();
+      mPendingRemoteAdds.clear();
+      mPendingLocalWrites.clear();
+      mPushedVersions.clear();
+      mUncheckpointedCount = 0;
+      mWriteBatch = null;
+      if (mReconciler != null) {
+        mReconciler.close();
+        mReconciler = null;
+      }
       mSyncing = false;
     }
 
@@ -164,35 +311,77 @@ public class GTaskManager {
     if (mCancelled)
       return;
     GTaskClient client = GTaskClient.getInstance();
+    File spillDir = prepareSpillDir();
     try {
       JSONArray jsTaskLists = client.getTaskLists();
 
-      // init meta list first
-      mMetaList = null;
+      // find the meta list and the folders, then load their tasks concurrently
+      JSONObject jsMetaList = null;
+      ArrayList<JSONObject> jsFolders = new ArrayList<JSONObject>();
       for (int i = 0; i < jsTaskLists.length(); i++) {
         JSONObject object = jsTaskLists.getJSONObject(i);
-        String gid = object.getString(GTaskStringUtils.GTASK_JSON_ID);
         String name = object.getString(GTaskStringUtils.GTASK_JSON_NAME);
 
         if (name
           .equals(GTaskStringUtils.MIUI_FOLDER_PREFFIX + GTaskStringUtils.FOLDER_META)) {
-          mMetaList = new TaskList();
-          mMetaList.setContentByRemoteJSON(object);
-
-          // load meta data
-          JSONArray jsMetas = client.getTaskList(gid);
-          for (int j = 0; j < jsMetas.length(); j++) {
-            object = (JSONObject) jsMetas.getJSONObject(j);
-            MetaData metaData = new MetaData();
-            metaData.setContentByRemoteJSON(object);
-            if (metaData.isWorthSaving()) {
-              mMetaList.addChildTask(metaData);
-              if (metaData.getGid() != null) {
-                mMetaHashMap.put(metaData.getRelatedGid(), metaData);
+          jsMetaList = object;
+        } else if (name.startsWith(GTaskStringUtils.MIUI_FOLDER_PREFFIX)) {
+          jsFolders.add(object);
+        }
+      }
+
+      ArrayList<String> listGids = new ArrayList<String>();
+      if (jsMetaList != null) {
+        listGids.add(jsMetaList.getString(GTaskStringUtils.GTASK_JSON_ID));
+      }
+      for (JSONObject object : jsFolders) {
+        listGids.add(object.getString(GTaskStringUtils.GTASK_JSON_ID));
+      }
+
+      // tasks are handed to the reconciler as they are read, on the fetching threads;
+      // only the number and the last gid of the tasks in each list are kept, each list is
+      // read by one thread in its order on the server
+      final boolean hasMetaList = jsMetaList != null;
+      final String[] gids = listGids.toArray(new String[0]);
+      final int[] taskCounts = new int[gids.length];
+      final String[] lastTaskGids = new String[gids.length];
+      final SyncReconciler reconciler = new SyncReconciler(spillDir);
+      mReconciler = reconciler;
+      client.getTaskLists(listGids, mFetchParallelism, new GTaskClient.TaskHandler() {
+        @Override
+        public void onTask(int listIndex, JSONObject jsTask) {
+          try {
+            if (hasMetaList && listIndex == 0) {
+              MetaData metaData = new MetaData();
+              metaData.setContentByRemoteJSON(jsTask);
+              if (metaData.isWorthSaving() && metaData.getGid() != null
+                && metaData.getRelatedGid() != null) {
+                reconciler.addMeta(metaData.getRelatedGid(), jsTask.toString());
+              }
+            } else {
+              Task task = new Task();
+              task.setContentByRemoteJSON(jsTask);
+              if (task.isWorthSaving()) {
+                reconciler.addTask(task.getGid(), gids[listIndex], task.getLastModified(),
+                  jsTask.toString());
+                taskCounts[listIndex]++;
+                lastTaskGids[listIndex] = task.getGid();
               }
             }
+          } catch (IOException e) {
+            Log.e(TAG, e.toString());
+            throw new ActionFailureException("initGTaskList: spilling remote tasks failed");
           }
         }
+      });
+      int next = 0;
+
+      // init meta list first, its meta data stay in the reconciler
+      mMetaList = null;
+      if (hasMetaList) {
+        mMetaList = new TaskList();
+        mMetaList.setContentByRemoteJSON(jsMetaList);
+        next++;
       }
 
       // create meta list if not existed
@@ -203,34 +392,15 @@ public class GTaskManager {
         GTaskClient.getInstance().createTaskList(mMetaList);
       }
 
-      // init task list
-      for (int i = 0; i < jsTaskLists.length(); i++) {
-        JSONObject object = jsTaskLists.getJSONObject(i);
+      // init task list, in the order returned by the server
+      for (JSONObject object : jsFolders) {
         String gid = object.getString(GTaskStringUtils.GTASK_JSON_ID);
-        String name = object.getString(GTaskStringUtils.GTASK_JSON_NAME);
-
-        if (name.startsWith(GTaskStringUtils.MIUI_FOLDER_PREFFIX)
-          && !name.equals(GTaskStringUtils.MIUI_FOLDER_PREFFIX
-          + GTaskStringUtils.FOLDER_META)) {
-          TaskList tasklist = new TaskList();
-          tasklist.setContentByRemoteJSON(object);
-          mGTaskListHashMap.put(gid, tasklist);
-          mGTaskHashMap.put(gid, tasklist);
-
-          // load tasks
-          JSONArray jsTasks = client.getTaskList(gid);
-          for (int j = 0; j < jsTasks.length(); j++) {
-            object = (JSONObject) jsTasks.getJSONObject(j);
-            gid = object.getString(GTaskStringUtils.GTASK_JSON_ID);
-            Task task = new Task();
-            task.setContentByRemoteJSON(object);
-            if (task.isWorthSaving()) {
-              task.setMetaInfo(mMetaHashMap.get(gid));
-              tasklist.addChildTask(task);
-              mGTaskHashMap.put(gid, task);
-            }
-          }
-        }
+        TaskList tasklist = new TaskList();
+        tasklist.setContentByRemoteJSON(object);
+        tasklist.setUnloadedTaskCount(taskCounts[next]);
+        tasklist.setLastUnloadedTaskGid(lastTaskGids[next++]);
+        putTaskList(gid, tasklist);
+        mGTaskHashMap.put(gid, tasklist);
       }
     } catch (JSONException e) {
       Log.e(TAG, e.toString());
@@ -239,8 +409,26 @@ public class GTaskManager {
     }
   }
 
+  /**
+   * 准备存放排序临时文件的目录。同步进程被杀死时临时文件来不及删除，
+   * 每次同步开始时先清空上次遗留的文件
+   */
+  private File prepareSpillDir() {
+    File dir = new File(mContext.getCacheDir(), SPILL_DIR_NAME);
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (!file.delete()) {
+          Log.w(TAG, "failed to delete spill file " + file.getName());
+        }
+      }
+    } else if (!dir.mkdirs()) {
+      throw new ActionFailureException("initGTaskList: cannot create spill directory");
+    }
+    return dir;
+  }
+
   private void syncContent() throws NetworkFailureException {
-    int syncType;
     Cursor c = null;
     String gid;
     Node node;
@@ -251,10 +439,14 @@ public class GTaskManager {
       return;
     }
 
-    // for local deleted note
+    // 记下自上次同步成功以来有变化的笔记以及用户对它们的操作
+    loadJournal();
+    loadOutbox();
+
+    // for local deleted folder and note, notes are matched with remote tasks later
     try {
       c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE,
-        "(type<>? AND parent_id=?)", new String[]{
+        TRASHED_NOTES_SELECTION, new String[]{
           String.valueOf(Notes.TYPE_SYSTEM), String.valueOf(Notes.ID_TRASH_FOLER)
         }, null);
       if (c != null) {
@@ -281,50 +473,11 @@ public class GTaskManager {
     // sync folder first
     syncFolder();
 
-    // for note existing in database
-    try {
-      c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE,
-        "(type=? AND parent_id<>?)", new String[]{
-          String.valueOf(Notes.TYPE_NOTE), String.valueOf(Notes.ID_TRASH_FOLER)
-        }, NoteColumns.TYPE + " DESC");
-      if (c != null) {
-        while (c.moveToNext()) {
-          gid = c.getString(SqlNote.GTASK_ID_COLUMN);
-          node = mGTaskHashMap.get(gid);
-          if (node != null) {
-            mGTaskHashMap.remove(gid);
-            mGidToNid.put(gid, c.getLong(SqlNote.ID_COLUMN));
-            mNidToGid.put(c.getLong(SqlNote.ID_COLUMN), gid);
-            syncType = node.getSyncAction(c);
-          } else {
-            if (c.getString(SqlNote.GTASK_ID_COLUMN).trim().length() == 0) {
-              // local add
-              syncType = Node.SYNC_ACTION_ADD_REMOTE;
-            } else {
-              // remote delete
-              syncType = Node.SYNC_ACTION_DEL_LOCAL;
-            }
-          }
-          doContentSync(syncType, node, c);
-        }
-      } else {
-        Log.w(TAG, "failed to query existing note in database");
-      }
-
-    } finally {
-      if (c != null) {
-        c.close();
-        c = null;
-      }
-    }
+    // for note existing on either side
+    syncNotes();
 
-    // go through remaining items
-    Iterator<Map.Entry<String, Node>> iter = mGTaskHashMap.entrySet().iterator();
-    while (iter.hasNext()) {
-      Map.Entry<String, Node> entry = iter.next();
-      node = entry.getValue();
-      doContentSync(Node.SYNC_ACTION_ADD_LOCAL, node, null);
-    }
+    // for note created locally
+    syncLocalAddedNotes();
 
     // mCancelled can be set by another thread, so we neet to check one by
     // one
@@ -335,10 +488,15 @@ public class GTaskManager {
       }
     }
 
-    // refresh local sync id
+    // refresh local sync id, only the finished part when cancelled
+    saveCheckpoint(true);
+
+    // 同步成功，清除本次已处理的变更日志
     if (!mCancelled) {
-      GTaskClient.getInstance().commitUpdate();
-      refreshLocalSyncId();
+      mContentResolver.delete(Notes.CONTENT_JOURNAL_URI, JournalColumns.ID + "<=?",
+        new String[]{String.valueOf(mJournalWatermark)});
+      mContentResolver.delete(Notes.CONTENT_OUTBOX_URI, OutboxColumns.ID + "<=?",
+        new String[]{String.valueOf(mOutboxWatermark)});
     }
 
   }
@@ -347,7 +505,6 @@ public class GTaskManager {
     Cursor c = null;
     String gid;
     Node node;
-    int syncType;
 
     if (mCancelled) {
       return;
@@ -417,33 +574,263 @@ public class GTaskManager {
     }
 
     // for local existing folders
+    syncLocalNodes(LOCAL_NODES_SELECTION, new String[]{
+      String.valueOf(Notes.TYPE_FOLDER), String.valueOf(Notes.ID_TRASH_FOLER)
+    });
+
+    // for remote add folders
+    Iterator<Map.Entry<String, TaskList>> iter = mGTaskListHashMap.entrySet().iterator();
+    while (iter.hasNext()) {
+      Map.Entry<String, TaskList> entry = iter.next();
+      gid = entry.getKey();
+      node = entry.getValue();
+      if (mGTaskHashMap.containsKey(gid)) {
+        mGTaskHashMap.remove(gid);
+        doContentSync(Node.SYNC_ACTION_ADD_LOCAL, node, null);
+      }
+    }
+
+    // also when cancelled, the finished part is kept
+    saveCheckpoint(false);
+  }
+
+  /**
+   * 读取变更日志，记下其中出现过的笔记 id 以及当前最大的日志序号
+   */
+  private void loadJournal() {
+    mJournaledIds.clear();
+    mJournalWatermark = 0;
+    Cursor c = mContentResolver.query(Notes.CONTENT_JOURNAL_URI, new String[]{
+      JournalColumns.ID, JournalColumns.NOTE_ID
+    }, null, null, null);
+    if (c == null) {
+      Log.w(TAG, "failed to query change journal");
+      return;
+    }
     try {
-      c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE,
-        "(type=? AND parent_id<>?)", new String[]{
-          String.valueOf(Notes.TYPE_FOLDER), String.valueOf(Notes.ID_TRASH_FOLER)
-        }, NoteColumns.TYPE + " DESC");
+      while (c.moveToNext()) {
+        mJournalWatermark = Math.max(mJournalWatermark, c.getLong(0));
+        mJournaledIds.add(c.getLong(1));
+      }
+    } finally {
+      c.close();
+    }
+    Log.d(TAG, mJournaledIds.size() + " notes changed since last sync");
+  }
+
+  /**
+   * 读取待发件箱。提供方写入时已把同一笔记的多次操作合并为一条记录，
+   * 因此无论用户编辑了多少次，每个笔记在本次同步中只上传一次
+   */
+  private void loadOutbox() {
+    mOutboxOps.clear();
+    mOutboxWatermark = 0;
+    Cursor c = mContentResolver.query(Notes.CONTENT_OUTBOX_URI, new String[]{
+      OutboxColumns.ID, OutboxColumns.NOTE_ID, OutboxColumns.OPERATIONS
+    }, null, null, null);
+    if (c == null) {
+      Log.w(TAG, "failed to query outbox");
+      return;
+    }
+    try {
+      while (c.moveToNext()) {
+        mOutboxWatermark = Math.max(mOutboxWatermark, c.getLong(0));
+        mOutboxOps.put(c.getLong(1), c.getInt(2));
+        // notes in the outbox are never skipped by the join
+        mJournaledIds.add(c.getLong(1));
+      }
+    } finally {
+      c.close();
+    }
+    Log.d(TAG, mOutboxOps.size() + " notes in outbox");
+  }
+
+  /**
+   * 以 gid 归并连接本地笔记与远程任务并同步：
+   * 回收站中的笔记删除对应的远程任务（本地记录已在之前加入删除列表）；
+   * 不在变更日志中、本地没有修改且远程也没有变化的笔记两边都不需要同步；
+   * 其余笔记每页按 id 批量读取完整内容，交给 doContentSync 处理；
+   * 只在远程存在的任务在本地新建。gid 为空的本地新建笔记不参与连接
+   */
+  private void syncNotes() throws NetworkFailureException {
+    if (mCancelled) {
+      return;
+    }
+
+    final HashMap<Long, SyncReconciler.RemoteTask> changed =
+      new HashMap<Long, SyncReconciler.RemoteTask>();
+    mReconciler.reconcile(mContentResolver, SYNCED_NOTES_SELECTION, new String[]{
+        String.valueOf(Notes.TYPE_NOTE)
+      }, new SyncReconciler.Handler() {
+        @Override
+        public void onLocalNote(SyncReconciler.LocalNote local, SyncReconciler.RemoteTask remote)
+          throws NetworkFailureException {
+          if (local.parentId == Notes.ID_TRASH_FOLER) {
+            if (remote != null) {
+              doContentSync(Node.SYNC_ACTION_DEL_REMOTE, loadTask(remote), null);
+            }
+          } else if (remote == null || mJournaledIds.contains(local.id) || local.localModified
+            || local.syncId != remote.lastModified || remote.meta == null) {
+            // remote is null for a remote delete
+            changed.put(local.id, remote);
+          }
+        }
+
+        @Override
+        public void onRemoteTask(SyncReconciler.RemoteTask remote)
+          throws NetworkFailureException {
+          doContentSync(Node.SYNC_ACTION_ADD_LOCAL, loadTask(remote), null);
+        }
+
+        @Override
+        public void onPageEnd() throws NetworkFailureException {
+          syncChangedNotes(changed);
+          changed.clear();
+        }
+
+        @Override
+        public boolean isCancelled() {
+          return mCancelled;
+        }
+      });
+  }
+
+  /**
+   * 按 id 批量读取有变化的笔记的完整内容并同步
+   *
+   * @param changed 笔记 id 与对应的远程任务，远程任务已删除时为 null
+   */
+  private void syncChangedNotes(HashMap<Long, SyncReconciler.RemoteTask> changed)
+    throws NetworkFailureException {
+    if (changed.isEmpty() || mCancelled) {
+      return;
+    }
+
+    Cursor c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE,
+      NoteColumns.ID + " IN (" + TextUtils.join(",", changed.keySet()) + ")", null, null);
+    if (c == null) {
+      Log.w(TAG, "failed to query changed local notes");
+      return;
+    }
+    try {
+      while (c.moveToNext()) {
+        SyncReconciler.RemoteTask remote = changed.get(c.getLong(SqlNote.ID_COLUMN));
+        if (remote != null) {
+          Task task = loadTask(remote);
+          doContentSync(getNoteSyncAction(task, remote, c), task, c);
+        } else {
+          // remote delete
+          doContentSync(Node.SYNC_ACTION_DEL_LOCAL, null, c);
+        }
+      }
+    } finally {
+      c.close();
+    }
+  }
+
+  /**
+   * 远程任务自上次同步后没有变化时，待发件箱中的用户操作直接上传，不必再推断；
+   * 远程也有变化或者笔记不在待发件箱中时，由任务节点比较两边的同步状态，冲突在那里处理
+   */
+  private int getNoteSyncAction(Task task, SyncReconciler.RemoteTask remote, Cursor c) {
+    Integer ops = mOutboxOps.get(c.getLong(SqlNote.ID_COLUMN));
+    if (ops != null && remote.meta != null
+      && c.getLong(SqlNote.SYNC_ID_COLUMN) == remote.lastModified) {
+      // a trashed note is handled before the join, here it has been restored already
+      return Node.SYNC_ACTION_UPDATE_REMOTE;
+    }
+    return task.getSyncAction(c);
+  }
+
+  /**
+   * 逐页上传本地新建（gid 为空）的笔记。
+   * 上传的笔记在排队的操作提交后才得到 gid，因此按 id 分页，不会重复读取
+   */
+  private void syncLocalAddedNotes() throws NetworkFailureException {
+    long lastId = 0;
+    int count;
+    do {
+      if (mCancelled) {
+        return;
+      }
+      count = 0;
+      Cursor c = mContentResolver.query(Notes.CONTENT_NOTE_URI.buildUpon()
+          .appendQueryParameter(Notes.PAGE_PARAM_LIMIT, String.valueOf(PAGE_SIZE)).build(),
+        SqlNote.PROJECTION_NOTE, LOCAL_ADDED_NOTES_SELECTION, new String[]{
+          String.valueOf(Notes.TYPE_NOTE), String.valueOf(Notes.ID_TRASH_FOLER),
+          String.valueOf(lastId)
+        }, NoteColumns.ID);
+      if (c == null) {
+        Log.w(TAG, "failed to query local added notes");
+        return;
+      }
+      try {
+        while (c.moveToNext()) {
+          count++;
+          lastId = c.getLong(SqlNote.ID_COLUMN);
+          doContentSync(Node.SYNC_ACTION_ADD_REMOTE, null, c);
+        }
+      } finally {
+        c.close();
+      }
+    } while (count == PAGE_SIZE);
+  }
+
+  /**
+   * 由连接得到的远程任务建立任务节点，它的元数据放入 mMetaHashMap 供之后的同步操作使用
+   */
+  private Task loadTask(SyncReconciler.RemoteTask remote) {
+    try {
+      Task task = new Task();
+      task.setContentByRemoteJSON(new JSONObject(remote.task));
+      if (remote.meta != null) {
+        MetaData metaData = new MetaData();
+        metaData.setContentByRemoteJSON(new JSONObject(remote.meta));
+        task.setMetaInfo(metaData);
+        mMetaHashMap.put(remote.gid, metaData);
+      }
+      // not added to the children, only the folder is needed
+      task.setParent(mGTaskListHashMap.get(remote.listGid));
+      return task;
+    } catch (JSONException e) {
+      Log.e(TAG, e.toString());
+      e.printStackTrace();
+      throw new ActionFailureException("loadTask: handing JSONObject failed");
+    }
+  }
+
+  /**
+   * 同步本地文件夹。
+   * 先只读取 id、gid 和同步状态：不在变更日志中、本地没有修改且远端也没有变化的记录，
+   * 两边都不需要同步，只建立 gid 与 id 的对应关系；
+   * 其余记录再按 id 读取完整内容，交给 doContentSync 处理。
+   * 这样每次同步读取完整内容的记录数只与变化的数量有关。
+   */
+  private void syncLocalNodes(String selection, String[] selectionArgs)
+    throws NetworkFailureException {
+    ArrayList<Long> changedIds = new ArrayList<Long>();
+    Cursor c = null;
+    try {
+      c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SYNC_STATE_PROJECTION, selection,
+        selectionArgs, null);
       if (c != null) {
         while (c.moveToNext()) {
-          gid = c.getString(SqlNote.GTASK_ID_COLUMN);
-          node = mGTaskHashMap.get(gid);
-          if (node != null) {
+          long id = c.getLong(SYNC_STATE_ID_COLUMN);
+          String gid = c.getString(SYNC_STATE_GTASK_ID_COLUMN);
+          Node node = mGTaskHashMap.get(gid);
+          if (node != null && !mJournaledIds.contains(id)
+            && c.getInt(SYNC_STATE_LOCAL_MODIFIED_COLUMN) == 0
+            && c.getLong(SYNC_STATE_SYNC_ID_COLUMN) == node.getLastModified()
+            && (node instanceof TaskList || mMetaHashMap.containsKey(gid))) {
             mGTaskHashMap.remove(gid);
-            mGidToNid.put(gid, c.getLong(SqlNote.ID_COLUMN));
-            mNidToGid.put(c.getLong(SqlNote.ID_COLUMN), gid);
-            syncType = node.getSyncAction(c);
+            mGidToNid.put(gid, id);
+            mNidToGid.put(id, gid);
           } else {
-            if (c.getString(SqlNote.GTASK_ID_COLUMN).trim().length() == 0) {
-              // local add
-              syncType = Node.SYNC_ACTION_ADD_REMOTE;
-            } else {
-              // remote delete
-              syncType = Node.SYNC_ACTION_DEL_LOCAL;
-            }
+            changedIds.add(id);
           }
-          doContentSync(syncType, node, c);
         }
       } else {
-        Log.w(TAG, "failed to query existing folder");
+        Log.w(TAG, "failed to query sync state of local nodes");
       }
     } finally {
       if (c != null) {
@@ -452,20 +839,49 @@ public class GTaskManager {
       }
     }
 
-    // for remote add folders
-    Iterator<Map.Entry<String, TaskList>> iter = mGTaskListHashMap.entrySet().iterator();
-    while (iter.hasNext()) {
-      Map.Entry<String, TaskList> entry = iter.next();
-      gid = entry.getKey();
-      node = entry.getValue();
-      if (mGTaskHashMap.containsKey(gid)) {
-        mGTaskHashMap.remove(gid);
-        doContentSync(Node.SYNC_ACTION_ADD_LOCAL, node, null);
+    for (int start = 0; start < changedIds.size() && !mCancelled; start += MAX_IDS_PER_QUERY) {
+      StringBuilder ids = new StringBuilder();
+      for (int i = start; i < Math.min(start + MAX_IDS_PER_QUERY, changedIds.size()); i++) {
+        if (ids.length() > 0) {
+          ids.append(',');
+        }
+        ids.append(changedIds.get(i));
+      }
+      try {
+        c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE,
+          selection + " AND " + NoteColumns.ID + " IN (" + ids + ")", selectionArgs,
+          NoteColumns.TYPE + " DESC");
+        if (c != null) {
+          while (c.moveToNext()) {
+            String gid = c.getString(SqlNote.GTASK_ID_COLUMN);
+            Node node = mGTaskHashMap.get(gid);
+            int syncType;
+            if (node != null) {
+              mGTaskHashMap.remove(gid);
+              mGidToNid.put(gid, c.getLong(SqlNote.ID_COLUMN));
+              mNidToGid.put(c.getLong(SqlNote.ID_COLUMN), gid);
+              syncType = node.getSyncAction(c);
+            } else {
+              if (c.getString(SqlNote.GTASK_ID_COLUMN).trim().length() == 0) {
+                // local add
+                syncType = Node.SYNC_ACTION_ADD_REMOTE;
+              } else {
+                // remote delete
+                syncType = Node.SYNC_ACTION_DEL_LOCAL;
+              }
+            }
+            doContentSync(syncType, node, c);
+          }
+        } else {
+          Log.w(TAG, "failed to query changed local nodes");
+        }
+      } finally {
+        if (c != null) {
+          c.close();
+          c = null;
+        }
       }
     }
-
-    if (!mCancelled)
-      GTaskClient.getInstance().commitUpdate();
   }
 
   private void doContentSync(int syncType, Node node, Cursor c) throws NetworkFailureException {
@@ -502,16 +918,22 @@ public class GTaskManager {
         updateRemoteNode(node, c);
         break;
       case Node.SYNC_ACTION_UPDATE_CONFLICT:
-        // merging both modifications maybe a good idea
-        // right now just use local update simply
-        updateRemoteNode(node, c);
+        mergeRemoteNode(node, c);
         break;
       case Node.SYNC_ACTION_NONE:
-        break;
+        return;
       case Node.SYNC_ACTION_ERROR:
       default:
         throw new ActionFailureException("unkown sync action type");
     }
+
+    if (bindCreatedNodes()) {
+      // the meta data of the bound nodes may refer to the notes written locally
+      flushLocalWrites();
+    }
+    if (++mUncheckpointedCount >= CHECKPOINT_INTERVAL) {
+      saveCheckpoint(false);
+    }
   }
 
   private void addLocalNode(Node node) throws NetworkFailureException {
@@ -533,40 +955,9 @@ public class GTaskManager {
         sqlNote.setParentId(Notes.ID_ROOT_FOLDER);
       }
     } else {
+      // ids already taken locally are dropped by the write batch before it is applied
       sqlNote = new SqlNote(mContext);
-      JSONObject js = node.getLocalJSONFromContent();
-      try {
-        if (js.has(GTaskStringUtils.META_HEAD_NOTE)) {
-          JSONObject note = js.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
-          if (note.has(NoteColumns.ID)) {
-            long id = note.getLong(NoteColumns.ID);
-            if (DataUtils.existInNoteDatabase(mContentResolver, id)) {
-              // the id is not available, have to create a new one
-              note.remove(NoteColumns.ID);
-            }
-          }
-        }
-
-        if (js.has(GTaskStringUtils.META_HEAD_DATA)) {
-          JSONArray dataArray = js.getJSONArray(GTaskStringUtils.META_HEAD_DATA);
-          for (int i = 0; i < dataArray.length(); i++) {
-            JSONObject data = dataArray.getJSONObject(i);
-            if (data.has(DataColumns.ID)) {
-              long dataId = data.getLong(DataColumns.ID);
-              if (DataUtils.existInDataDatabase(mContentResolver, dataId)) {
-                // the data id is not available, have to create
-                // a new one
-                data.remove(DataColumns.ID);
-              }
-            }
-          }
-
-        }
-      } catch (JSONException e) {
-        Log.w(TAG, e.toString());
-        e.printStackTrace();
-      }
-      sqlNote.setContent(js);
+      sqlNote.setContent(node.getLocalJSONFromContent());
 
       Long parentId = mGidToNid.get(((Task) node).getParent().getGid());
       if (parentId == null) {
@@ -576,16 +967,10 @@ public class GTaskManager {
       sqlNote.setParentId(parentId.longValue());
     }
 
-    // create the local node
+    // create the local node, mapped and synced once the write batch is applied
     sqlNote.setGtaskId(node.getGid());
-    sqlNote.commit(false);
-
-    // update gid-nid mapping
-    mGidToNid.put(node.getGid(), sqlNote.getId());
-    mNidToGid.put(sqlNote.getId(), node.getGid());
-
-    // update meta
-    updateRemoteMeta(node.getGid(), sqlNote);
+    sqlNote.commit(mWriteBatch, false);
+    mPendingLocalWrites.put(sqlNote, node);
   }
 
   private void updateLocalNode(Node node, Cursor c) throws NetworkFailureException {
@@ -605,10 +990,28 @@ public class GTaskManager {
       throw new ActionFailureException("cannot update local node");
     }
     sqlNote.setParentId(parentId.longValue());
-    sqlNote.commit(true);
+    sqlNote.commit(mWriteBatch, true);
+    mPendingLocalWrites.put(sqlNote, node);
+  }
 
-    // update meta info
-    updateRemoteMeta(node.getGid(), sqlNote);
+  /**
+   * 在一个事务中提交排队的本地写入，再为写入的笔记建立映射、记录同步节点并更新元数据。
+   * 元数据中包含笔记和数据的 id，因此必须在提交排队的远程操作之前调用
+   */
+  private void flushLocalWrites() throws NetworkFailureException {
+    mWriteBatch.flush();
+    for (Map.Entry<SqlNote, Node> entry : mPendingLocalWrites.entrySet()) {
+      SqlNote sqlNote = entry.getKey();
+      Node node = entry.getValue();
+      // gid-nid mapping, only folders are looked up
+      if (node instanceof TaskList) {
+        mGidToNid.put(node.getGid(), sqlNote.getId());
+        mNidToGid.put(sqlNote.getId(), node.getGid());
+      }
+      mSyncedNodes.put(sqlNote.getId(), node);
+      updateRemoteMeta(node.getGid(), sqlNote);
+    }
+    mPendingLocalWrites.clear();
   }
 
   private void addRemoteNode(Node node, Cursor c) throws NetworkFailureException {
@@ -631,11 +1034,10 @@ public class GTaskManager {
       }
       mGTaskListHashMap.get(parentGid).addChildTask(task);
 
+      // the gid is assigned when the queued actions are committed
       GTaskClient.getInstance().createTask(task);
-      n = (Node) task;
-
-      // add meta
-      updateRemoteMeta(task.getGid(), sqlNote);
+      mPendingRemoteAdds.put(task, sqlNote);
+      return;
     } else {
       TaskList tasklist = null;
 
@@ -648,19 +1050,10 @@ public class GTaskManager {
       else
         folderName += sqlNote.getSnippet();
 
-      Iterator<Map.Entry<String, TaskList>> iter = mGTaskListHashMap.entrySet().iterator();
-      while (iter.hasNext()) {
-        Map.Entry<String, TaskList> entry = iter.next();
-        String gid = entry.getKey();
-        TaskList list = entry.getValue();
-
-        if (list.getName().equals(folderName)) {
-          tasklist = list;
-          if (mGTaskHashMap.containsKey(gid)) {
-            mGTaskHashMap.remove(gid);
-          }
-          break;
-        }
+      TaskList list = mGTaskListNameMap.get(folderName);
+      if (list != null) {
+        tasklist = list;
+        mGTaskHashMap.remove(list.getGid());
       }
 
       // no match we can add now
@@ -668,32 +1061,165 @@ public class GTaskManager {
         tasklist = new TaskList();
         tasklist.setContentByLocalJSON(sqlNote.getContent());
         GTaskClient.getInstance().createTaskList(tasklist);
-        mGTaskListHashMap.put(tasklist.getGid(), tasklist);
+        mPendingRemoteAdds.put(tasklist, sqlNote);
+        return;
       }
       n = (Node) tasklist;
     }
 
+    bindRemoteNode(n, sqlNote);
+  }
+
+  /**
+   * 提交排队的远程操作，为其中新建的节点关联本地笔记
+   */
+  private void commitRemoteAdds() throws NetworkFailureException {
+    GTaskClient.getInstance().commitUpdate();
+    bindCreatedNodes();
+  }
+
+  /**
+   * 为已经得到 gid 的新建远程节点关联本地笔记，再为其中的任务上传元数据
+   *
+   * @return 是否关联了节点
+   */
+  private boolean bindCreatedNodes() throws NetworkFailureException {
+    LinkedHashMap<Node, SqlNote> bound = bindCreatedGids();
+    for (Map.Entry<Node, SqlNote> entry : bound.entrySet()) {
+      if (!(entry.getKey() instanceof TaskList)) {
+        // add meta
+        updateRemoteMeta(entry.getKey().getGid(), entry.getValue());
+      }
+    }
+    return !bound.isEmpty();
+  }
+
+  /**
+   * 把已经得到 gid 的新建远程节点的 gid 立即写入本地笔记，不发送任何请求。
+   * 队列满时会自动提交，服务器此时已经建立了这些节点；之后同步无论失败还是取消，
+   * 本地都已记下它们的 gid，下次同步不会重复创建
+   *
+   * @return 关联的节点与对应的本地笔记
+   */
+  private LinkedHashMap<Node, SqlNote> bindCreatedGids() {
+    LinkedHashMap<Node, SqlNote> bound = new LinkedHashMap<Node, SqlNote>();
+    Iterator<Map.Entry<Node, SqlNote>> iter = mPendingRemoteAdds.entrySet().iterator();
+    while (iter.hasNext()) {
+      Map.Entry<Node, SqlNote> entry = iter.next();
+      Node n = entry.getKey();
+      SqlNote sqlNote = entry.getValue();
+      if (n.getGid() == null) {
+        continue;
+      }
+      iter.remove();
+      mRemoteChangedGids.add(n.getGid());
+      if (n instanceof TaskList) {
+        putTaskList(n.getGid(), (TaskList) n);
+      }
+      bindRemoteNode(n, sqlNote);
+      bound.put(n, sqlNote);
+    }
+    if (!bound.isEmpty()) {
+      mWriteBatch.flush();
+    }
+    return bound;
+  }
+
+  /**
+   * 同步因网络或其他错误中断时，保存已经完成的本地写入以及服务器已分配的 gid，
+   * 不再发送请求，也不写入同步状态，这些笔记在下次同步时重新检查
+   */
+  private void saveInterruptedWrites() {
+    try {
+      bindCreatedGids();
+      mWriteBatch.flush();
+    } catch (RuntimeException e) {
+      Log.e(TAG, "failed to save local writes of the interrupted sync: " + e.toString());
+    }
+  }
+
+  /**
+   * 将远程节点的 gid 写入本地笔记；本地修改标记在检查点中清除，
+   * 期间被用户修改过的笔记保留标记
+   */
+  private void bindRemoteNode(Node n, SqlNote sqlNote) {
     // update local note
     sqlNote.setGtaskId(n.getGid());
-    sqlNote.commit(false);
-    sqlNote.resetLocalModified();
-    sqlNote.commit(true);
+    sqlNote.commit(mWriteBatch, false);
+    // the gid update above is the one version bump allowed
+    mPushedVersions.put(sqlNote.getId(), sqlNote.getVersion());
+
+    // gid-id mapping, only folders are looked up
+    if (n instanceof TaskList) {
+      mGidToNid.put(n.getGid(), sqlNote.getId());
+      mNidToGid.put(sqlNote.getId(), n.getGid());
+    }
+    mSyncedNodes.put(sqlNote.getId(), n);
+  }
 
-    // gid-id mapping
-    mGidToNid.put(n.getGid(), sqlNote.getId());
-    mNidToGid.put(sqlNote.getId(), n.getGid());
+  /**
+   * 加入一个任务列表，同时按名称建立索引
+   */
+  private void putTaskList(String gid, TaskList list) {
+    mGTaskListHashMap.put(gid, list);
+    String name = list.getName();
+    if (name != null && !mGTaskListNameMap.containsKey(name)) {
+      mGTaskListNameMap.put(name, list);
+    }
+  }
+
+  /**
+   * 任务列表改名后更新名称索引
+   */
+  private void renameTaskList(TaskList list, String oldName) {
+    String name = list.getName();
+    if (name == null || name.equals(oldName)) {
+      return;
+    }
+    if (oldName != null && mGTaskListNameMap.get(oldName) == list) {
+      mGTaskListNameMap.remove(oldName);
+      // another list of the old name takes its place, renames are rare
+      for (TaskList other : mGTaskListHashMap.values()) {
+        if (other != list && oldName.equals(other.getName())) {
+          mGTaskListNameMap.put(oldName, other);
+          break;
+        }
+      }
+    }
+    if (!mGTaskListNameMap.containsKey(name)) {
+      mGTaskListNameMap.put(name, list);
+    }
   }
 
   private void updateRemoteNode(Node node, Cursor c) throws NetworkFailureException {
+    Integer ops = mOutboxOps.get(c.getLong(SqlNote.ID_COLUMN));
+    updateRemoteNode(node, new SqlNote(mContext, c),
+      ops != null && ops == Notes.OUTBOX_OP_MOVE);
+  }
+
+  /**
+   * 把本地笔记的内容上传到远程节点
+   *
+   * @param moveOnly 待发件箱中只记录了移动操作，此时正文与远程任务相同就只上传元数据和移动操作
+   */
+  private void updateRemoteNode(Node node, SqlNote sqlNote, boolean moveOnly)
+    throws NetworkFailureException {
     if (mCancelled) {
       return;
     }
 
-    SqlNote sqlNote = new SqlNote(mContext, c);
-
-    // update remotely
-    node.setContentByLocalJSON(sqlNote.getContent());
-    GTaskClient.getInstance().addUpdateNode(node);
+    // the text is still compared, it may have been edited before the outbox recorded edits
+    if (!moveOnly || !sqlNote.isNoteType()
+      || !getNoteText(sqlNote.getContent()).equals(node.getName())) {
+      // update remotely
+      String oldName = node.getName();
+      node.setContentByLocalJSON(sqlNote.getContent());
+      GTaskClient.getInstance().addUpdateNode(node);
+      mRemoteChangedGids.add(node.getGid());
+      if (node instanceof TaskList) {
+        renameTaskList((TaskList) node, oldName);
+      }
+    }
 
     // update meta
     updateRemoteMeta(node.getGid(), sqlNote);
@@ -714,20 +1240,147 @@ public class GTaskManager {
         preParentList.removeChildTask(task);
         curParentList.addChildTask(task);
         GTaskClient.getInstance().moveTask(task, preParentList, curParentList);
+        mRemoteChangedGids.add(task.getGid());
       }
     }
 
-    // clear local modified flag
-    sqlNote.resetLocalModified();
-    sqlNote.commit(true);
+    // the local modified flag is cleared by the checkpoint after the update is committed
+    mPushedVersions.put(sqlNote.getId(), sqlNote.getVersion());
+    mSyncedNodes.put(sqlNote.getId(), node);
+  }
+
+  /**
+   * 本地和远程都修改了同一条笔记时，以上次同步时的正文为基准按行做三方合并：
+   * 互不重叠的修改合并后同时写入本地和远程；无法合并的部分在笔记中采用本地的内容，
+   * 另在同一文件夹中建立一份采用远程内容的冲突副本，双方的修改都不会丢失。
+   * 没有基准正文时（升级前同步过的笔记）整篇视为一处修改
+   */
+  private void mergeRemoteNode(Node node, Cursor c) throws NetworkFailureException {
+    if (mCancelled) {
+      return;
+    }
+
+    SqlNote sqlNote = new SqlNote(mContext, c);
+    if (!sqlNote.isNoteType()) {
+      // a folder only has its name, the local one wins
+      updateRemoteNode(node, sqlNote, false);
+      return;
+    }
+
+    JSONObject js = sqlNote.getContent();
+    String local = getNoteText(js);
+    String remote = node.getName() != null ? node.getName() : "";
+    String base = querySyncBase(sqlNote.getId());
+    LineMerger.Result result = LineMerger.merge(base != null ? base : "", local, remote);
+
+    if (!result.getMerged().equals(local)) {
+      setNoteText(js, result.getMerged());
+      sqlNote.setContent(js);
+      sqlNote.commit(true);
+      if (!result.getMerged().equals(getNoteText(sqlNote.getContent()))) {
+        // edited by the user meanwhile, it stays modified and is merged again next time
+        Log.w(TAG, "note " + sqlNote.getId() + " is changed during merging");
+        return;
+      }
+    }
+    updateRemoteNode(node, sqlNote, false);
+
+    if (result.isConflicted()) {
+      addConflictCopy(sqlNote, result.getTheirs());
+    }
+  }
+
+  /**
+   * 在笔记所在的文件夹中建立一份正文为 text 的副本。
+   * 副本的 gid 为空，在本次同步上传本地新建的笔记时上传
+   */
+  private void addConflictCopy(SqlNote sqlNote, String text) {
+    JSONObject js = sqlNote.getContent();
+    try {
+      JSONObject note = js.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
+      note.remove(NoteColumns.ID);
+      note.put(NoteColumns.CREATED_DATE, System.currentTimeMillis());
+      note.put(NoteColumns.MODIFIED_DATE, System.currentTimeMillis());
+      note.put(NoteColumns.WIDGET_ID, AppWidgetManager.INVALID_APPWIDGET_ID);
+      note.put(NoteColumns.WIDGET_TYPE, Notes.TYPE_WIDGET_INVALIDE);
+      JSONArray dataArray = js.getJSONArray(GTaskStringUtils.META_HEAD_DATA);
+      for (int i = 0; i < dataArray.length(); i++) {
+        dataArray.getJSONObject(i).remove(DataColumns.ID);
+      }
+      setNoteText(js, text);
+    } catch (JSONException e) {
+      Log.e(TAG, e.toString());
+      e.printStackTrace();
+      throw new ActionFailureException("addConflictCopy: handing JSONObject failed");
+    }
+
+    SqlNote copy = new SqlNote(mContext);
+    copy.setContent(js);
+    copy.commit(false);
+    Log.d(TAG, "conflict copy " + copy.getId() + " is created for note " + sqlNote.getId());
+  }
+
+  private String querySyncBase(long noteId) {
+    Cursor c = mContentResolver.query(
+      ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId),
+      new String[]{NoteColumns.SYNC_BASE}, null, null, null);
+    if (c == null) {
+      return null;
+    }
+    try {
+      return c.moveToFirst() ? c.getString(0) : null;
+    } finally {
+      c.close();
+    }
+  }
+
+  /**
+   * 获取笔记内容中的正文，即任务的名称
+   */
+  private static String getNoteText(JSONObject js) {
+    try {
+      JSONArray dataArray = js.getJSONArray(GTaskStringUtils.META_HEAD_DATA);
+      for (int i = 0; i < dataArray.length(); i++) {
+        JSONObject data = dataArray.getJSONObject(i);
+        if (TextUtils.equals(data.optString(DataColumns.MIME_TYPE), DataConstants.NOTE)) {
+          return data.optString(DataColumns.CONTENT);
+        }
+      }
+    } catch (JSONException e) {
+      Log.w(TAG, e.toString());
+    }
+    return "";
+  }
+
+  private static void setNoteText(JSONObject js, String text) {
+    try {
+      JSONArray dataArray = js.getJSONArray(GTaskStringUtils.META_HEAD_DATA);
+      for (int i = 0; i < dataArray.length(); i++) {
+        JSONObject data = dataArray.getJSONObject(i);
+        if (TextUtils.equals(data.optString(DataColumns.MIME_TYPE), DataConstants.NOTE)) {
+          data.put(DataColumns.CONTENT, text);
+          return;
+        }
+      }
+      JSONObject data = new JSONObject();
+      data.put(DataColumns.MIME_TYPE, DataConstants.NOTE);
+      data.put(DataColumns.CONTENT, text);
+      dataArray.put(data);
+    } catch (JSONException e) {
+      Log.e(TAG, e.toString());
+      e.printStackTrace();
+      throw new ActionFailureException("setNoteText: handing JSONObject failed");
+    }
   }
 
   private void updateRemoteMeta(String gid, SqlNote sqlNote) throws NetworkFailureException {
     if (sqlNote != null && sqlNote.isNoteType()) {
       MetaData metaData = mMetaHashMap.get(gid);
       if (metaData != null) {
-        metaData.setMeta(gid, sqlNote.getContent());
-        GTaskClient.getInstance().addUpdateNode(metaData);
+        // unchanged meta data is not uploaded again
+        if (metaData.setMeta(gid, sqlNote.getContent())) {
+          GTaskClient.getInstance().addUpdateNode(metaData);
+        }
       } else {
         metaData = new MetaData();
         metaData.setMeta(gid, sqlNote.getContent());
@@ -738,47 +1391,158 @@ public class GTaskManager {
     }
   }
 
-  private void refreshLocalSyncId() throws NetworkFailureException {
+  /**
+   * 保存同步检查点：先提交排队的本地写入和远程操作，再在一个事务中写入新建远程节点的 gid
+   * 以及已完成记录的同步状态，包括 sync_id、上传后的本地修改标记以及对应的变更日志。
+   * 同步中断后，下次同步时这些记录与远程一致，只需经过轻量检查，不会重复上传或下载。
+   * 未在远程修改过的节点直接使用下载时的最后修改时间，在远程创建或修改过的节点使用服务器响应中返回的时间；
+   * 响应中没有返回时间的节点在最后一次保存时重新下载所在的任务列表，此前留待下次保存。
+   * 同步已取消时只提交已经排队的远程操作，保存完成的本地写入和服务器分配的 gid，
+   * 不再上传新的元数据，也不重新下载任务列表；本次写入的笔记在下次同步时重新检查。
+   *
+   * @param finish 是否为同步结束时的最后一次保存，同步已取消时不视为结束
+   */
+  private void saveCheckpoint(boolean finish) throws NetworkFailureException {
+    GTaskClient client = GTaskClient.getInstance();
     if (mCancelled) {
-      return;
+      client.commitUpdate();
+      // the meta data of the bound nodes is uploaded by the next sync
+      bindCreatedGids();
+      mWriteBatch.flush();
+      mPendingLocalWrites.clear();
+      finish = false;
+    } else {
+      // the meta data of the written notes holds their ids, so they are written first
+      flushLocalWrites();
+      // bound nodes queue their meta data, so commit once more afterwards
+      commitRemoteAdds();
+      client.commitUpdate();
     }
-
-    // get the latest gtask list
-    mGTaskHashMap.clear();
-    mGTaskListHashMap.clear();
+    mUncheckpointedCount = 0;
+    // all changes of the meta data are committed, they are loaded again when needed
     mMetaHashMap.clear();
-    initGTaskList();
 
-    Cursor c = null;
-    try {
-      c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE,
-        "(type<>? AND parent_id<>?)", new String[]{
-          String.valueOf(Notes.TYPE_SYSTEM), String.valueOf(Notes.ID_TRASH_FOLER)
-        }, NoteColumns.TYPE + " DESC");
-      if (c != null) {
-        while (c.moveToNext()) {
-          String gid = c.getString(SqlNote.GTASK_ID_COLUMN);
-          Node node = mGTaskHashMap.get(gid);
-          if (node != null) {
-            mGTaskHashMap.remove(gid);
-            ContentValues values = new ContentValues();
-            values.put(NoteColumns.SYNC_ID, node.getLastModified());
-            mContentResolver.update(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI,
-              c.getLong(SqlNote.ID_COLUMN)), values, null, null);
-          } else {
-            Log.e(TAG, "something is missed");
-            throw new ActionFailureException(
-              "some local items don't have gid after sync");
-          }
+    HashMap<Long, Long> syncIds = new HashMap<Long, Long>();
+    HashMap<Long, Node> missing = new HashMap<Long, Node>();
+    for (Map.Entry<Long, Node> entry : mSyncedNodes.entrySet()) {
+      Node node = entry.getValue();
+      Long lastModified = mRemoteChangedGids.contains(node.getGid())
+        ? client.getLastModified(node.getGid()) : Long.valueOf(node.getLastModified());
+      if (lastModified != null) {
+        syncIds.put(entry.getKey(), lastModified);
+      } else {
+        missing.put(entry.getKey(), node);
+      }
+    }
+
+    if (finish && !missing.isEmpty()) {
+      HashMap<String, Long> remoteModified = loadRemoteLastModified(missing.values());
+      for (Map.Entry<Long, Node> entry : missing.entrySet()) {
+        Long lastModified = remoteModified.get(entry.getValue().getGid());
+        if (lastModified == null) {
+          Log.e(TAG, "something is missed");
+          throw new ActionFailureException(
+            "some local items don't have gid after sync");
         }
+        syncIds.put(entry.getKey(), lastModified);
+      }
+    }
+
+    // after the gids written by the bound nodes, in the same transaction;
+    // every update bumps the version, so the version checks go before the sync_id updates
+    for (Map.Entry<Long, Long> entry : mPushedVersions.entrySet()) {
+      // skip notes changed by the user after being uploaded, they stay modified
+      mWriteBatch.add(ContentProviderOperation.newUpdate(
+          ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, entry.getKey()))
+        .withValue(NoteColumns.LOCAL_MODIFIED, 0)
+        .withSelection(NoteColumns.VERSION + "<=?", new String[]{
+          String.valueOf(entry.getValue())
+        })
+        .build());
+    }
+    for (Map.Entry<Long, Long> entry : syncIds.entrySet()) {
+      ContentProviderOperation.Builder builder = ContentProviderOperation.newUpdate(
+          ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, entry.getKey()))
+        .withValue(NoteColumns.SYNC_ID, entry.getValue());
+      Node node = mSyncedNodes.get(entry.getKey());
+      if (node instanceof Task) {
+        // the text both sides agree on now, the base of the next merge
+        builder.withValue(NoteColumns.SYNC_BASE, node.getName());
+      }
+      mWriteBatch.add(builder.build());
+    }
+    if (!finish && !syncIds.isEmpty()) {
+      // the journal and outbox entries of these notes are handled,
+      // the rest is removed when sync finishes
+      mWriteBatch.add(ContentProviderOperation.newDelete(Notes.CONTENT_JOURNAL_URI)
+        .withSelection(JournalColumns.NOTE_ID + " IN (" + TextUtils.join(",", syncIds.keySet())
+          + ") AND " + JournalColumns.ID + "<=?", new String[]{
+          String.valueOf(mJournalWatermark)
+        })
+        .build());
+      mWriteBatch.add(ContentProviderOperation.newDelete(Notes.CONTENT_OUTBOX_URI)
+        .withSelection(OutboxColumns.NOTE_ID + " IN (" + TextUtils.join(",", syncIds.keySet())
+          + ") AND " + OutboxColumns.ID + "<=?", new String[]{
+          String.valueOf(mOutboxWatermark)
+        })
+        .build());
+    }
+    mWriteBatch.flush();
+
+    mSyncedNodes.keySet().removeAll(syncIds.keySet());
+    mPushedVersions.clear();
+    Log.d(TAG, "checkpoint saved for " + syncIds.size() + " notes");
+  }
+
+  /**
+   * 重新下载一组节点的最后修改时间。
+   * 任务只下载其所在的任务列表，任务列表本身的时间只需下载一次任务列表的列表
+   */
+  private HashMap<String, Long> loadRemoteLastModified(Iterable<Node> nodes)
+    throws NetworkFailureException {
+    GTaskClient client = GTaskClient.getInstance();
+    boolean needTaskLists = false;
+    HashSet<String> parentGids = new HashSet<String>();
+    for (Node node : nodes) {
+      if (node instanceof TaskList) {
+        needTaskLists = true;
       } else {
-        Log.w(TAG, "failed to query local note to refresh sync id");
+        parentGids.add(((Task) node).getParent().getGid());
       }
-    } finally {
-      if (c != null) {
-        c.close();
-        c = null;
+    }
+
+    final HashMap<String, Long> lastModified = new HashMap<String, Long>();
+    try {
+      if (needTaskLists) {
+        putLastModified(client.getTaskLists(), lastModified);
       }
+      client.getTaskLists(new ArrayList<String>(parentGids), 1, new GTaskClient.TaskHandler() {
+        @Override
+        public void onTask(int listIndex, JSONObject jsTask) throws JSONException {
+          putLastModified(jsTask, lastModified);
+        }
+      });
+    } catch (JSONException e) {
+      Log.e(TAG, e.toString());
+      e.printStackTrace();
+      throw new ActionFailureException("refreshLocalSyncId: handing JSONObject failed");
+    }
+    return lastModified;
+  }
+
+  private static void putLastModified(JSONArray jsNodes, HashMap<String, Long> lastModified)
+    throws JSONException {
+    for (int i = 0; i < jsNodes.length(); i++) {
+      putLastModified(jsNodes.getJSONObject(i), lastModified);
+    }
+  }
+
+  private static void putLastModified(JSONObject object, HashMap<String, Long> lastModified)
+    throws JSONException {
+    if (object.has(GTaskStringUtils.GTASK_JSON_ID)
+      && object.has(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED)) {
+      lastModified.put(object.getString(GTaskStringUtils.GTASK_JSON_ID),
+        object.getLong(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED));
     }
   }
 
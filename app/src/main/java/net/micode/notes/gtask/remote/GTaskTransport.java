@@ -0,0 +1,98 @@
+package net.micode.notes.gtask.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 与 Google Tasks 服务器通信的传输层接口，GTaskClient 只通过它发送请求。
+ * 实现需要：
+ * 1. 可以在多个线程中同时使用
+ * 2. 自行保存会话 cookie
+ * 3. 返回的响应内容已经解压
+ */
+public interface GTaskTransport {
+  /**
+   * 发送 GET 请求
+   *
+   * @param url 请求地址
+   * @return 响应，使用后需要关闭
+   */
+  Response get(String url) throws IOException;
+
+  /**
+   * 发送 POST 请求
+   *
+   * @param url     请求地址
+   * @param headers 请求头
+   * @param body    请求体
+   * @return 响应，使用后需要关闭
+   */
+  Response post(String url, Map<String, String> headers, byte[] body) throws IOException;
+
+  /**
+   * 用一个重发也无副作用的 POST 请求探测服务器是否接受压缩的请求体，
+   * 结果保存在传输层中，之后的调用直接返回保存的结果。
+   * 探测成功前 post 发送的请求体都不压缩
+   *
+   * @param url     请求地址
+   * @param headers 请求头
+   * @param body    探测用的请求体
+   * @return 服务器是否接受压缩的请求体
+   */
+  boolean probeCompression(String url, Map<String, String> headers, byte[] body)
+    throws IOException;
+
+  /**
+   * 获取当前保存的 cookie 名称
+   */
+  List<String> getCookieNames();
+
+  /**
+   * 清除保存的 cookie，重新登录前调用
+   */
+  void clearCookies();
+
+  /**
+   * 设置请求完成时的回调，为 null 时不回调
+   */
+  void setRequestListener(RequestListener listener);
+
+  /**
+   * 关闭传输层，释放连接
+   */
+  void shutdown();
+
+  /**
+   * 服务器响应
+   */
+  interface Response {
+    int getStatusCode();
+
+    /**
+     * 获取解压后的响应内容
+     */
+    InputStream getContent() throws IOException;
+
+    /**
+     * 关闭响应，读完的连接可以被复用
+     */
+    void close();
+  }
+
+  /**
+   * 请求耗时的回调，在发送请求的线程中调用
+   */
+  interface RequestListener {
+    /**
+     * @param method      请求方法
+     * @param url         请求地址
+     * @param statusCode  响应状态码
+     * @param requestSize 实际发送的请求体字节数
+     * @param elapsedMs   从发送请求到收到响应头的毫秒数
+     */
+    void onRequestFinished(String method, String url, int statusCode, int requestSize,
+                           long elapsedMs);
+  }
+}
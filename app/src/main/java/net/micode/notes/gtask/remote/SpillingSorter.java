@@ -0,0 +1,265 @@
+package net.micode.notes.gtask.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * 按 key 排序的外部排序器：
+ * 1. 记录先缓存在内存中，超过上限时排好序写入临时文件（一个有序段），再清空缓存
+ * 2. 读取时对各个有序段和剩余的缓存做多路归并，按 key、value 的顺序逐条返回
+ * 因此占用的内存只与缓存上限和有序段的个数有关，与记录总数无关。
+ * add 可以在多个线程中同时调用
+ */
+final class SpillingSorter implements Closeable {
+  private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+    @Override
+    public int compare(Entry e1, Entry e2) {
+      int result = e1.key.compareTo(e2.key);
+      return result != 0 ? result : e1.value.compareTo(e2.value);
+    }
+  };
+
+  /**
+   * 一条记录
+   */
+  static final class Entry {
+    final String key;
+
+    final String value;
+
+    Entry(String key, String value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  /**
+   * 有序读取记录的流
+   */
+  interface EntryStream extends Closeable {
+    /**
+     * 返回下一条记录但不前进，读完时返回 null
+     */
+    Entry peek() throws IOException;
+
+    /**
+     * 返回下一条记录，读完时返回 null
+     */
+    Entry next() throws IOException;
+  }
+
+  private final File mDir;
+
+  // 内存缓存的字符数上限
+  private final int mMaxBufferChars;
+
+  private final ArrayList<Entry> mBuffer;
+
+  private final ArrayList<File> mRuns;
+
+  private int mBufferChars;
+
+  /**
+   * @param dir            临时文件所在的目录
+   * @param maxBufferChars 内存缓存的字符数上限
+   */
+  SpillingSorter(File dir, int maxBufferChars) {
+    mDir = dir;
+    mMaxBufferChars = maxBufferChars;
+    mBuffer = new ArrayList<Entry>();
+    mRuns = new ArrayList<File>();
+  }
+
+  synchronized void add(String key, String value) throws IOException {
+    mBuffer.add(new Entry(key, value));
+    mBufferChars += key.length() + value.length();
+    if (mBufferChars >= mMaxBufferChars) {
+      spill();
+    }
+  }
+
+  /**
+   * 按顺序读取全部记录，之后不能再添加记录
+   */
+  synchronized EntryStream sorted() throws IOException {
+    if (mRuns.isEmpty()) {
+      Collections.sort(mBuffer, ORDER);
+      return new ListStream(mBuffer);
+    }
+    spill();
+    MergeStream stream = new MergeStream();
+    for (File run : mRuns) {
+      stream.add(new RunStream(run));
+    }
+    return stream;
+  }
+
+  private void spill() throws IOException {
+    if (mBuffer.isEmpty()) {
+      return;
+    }
+    Collections.sort(mBuffer, ORDER);
+    File run = File.createTempFile("sync", ".run", mDir);
+    mRuns.add(run);
+    DataOutputStream output = new DataOutputStream(
+      new BufferedOutputStream(new FileOutputStream(run)));
+    try {
+      for (Entry entry : mBuffer) {
+        writeString(output, entry.key);
+        writeString(output, entry.value);
+      }
+    } finally {
+      output.close();
+    }
+    mBuffer.clear();
+    mBufferChars = 0;
+  }
+
+  /**
+   * 删除全部临时文件
+   */
+  @Override
+  public synchronized void close() {
+    for (File run : mRuns) {
+      run.delete();
+    }
+    mRuns.clear();
+    mBuffer.clear();
+    mBufferChars = 0;
+  }
+
+  // writeUTF is limited to 64 KiB, a note can be longer
+  private static void writeString(DataOutputStream output, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static String readString(DataInputStream input) throws IOException {
+    byte[] bytes = new byte[input.readInt()];
+    input.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static class ListStream implements EntryStream {
+    private final ArrayList<Entry> mEntries;
+
+    private int mPosition;
+
+    ListStream(ArrayList<Entry> entries) {
+      mEntries = entries;
+    }
+
+    @Override
+    public Entry peek() {
+      return mPosition < mEntries.size() ? mEntries.get(mPosition) : null;
+    }
+
+    @Override
+    public Entry next() {
+      return mPosition < mEntries.size() ? mEntries.get(mPosition++) : null;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private static class RunStream implements EntryStream {
+    private final DataInputStream mInput;
+
+    private Entry mNext;
+
+    RunStream(File run) throws IOException {
+      mInput = new DataInputStream(new BufferedInputStream(new FileInputStream(run)));
+      mNext = read();
+    }
+
+    private Entry read() throws IOException {
+      String key;
+      try {
+        key = readString(mInput);
+      } catch (EOFException e) {
+        return null;
+      }
+      return new Entry(key, readString(mInput));
+    }
+
+    @Override
+    public Entry peek() {
+      return mNext;
+    }
+
+    @Override
+    public Entry next() throws IOException {
+      Entry entry = mNext;
+      if (entry != null) {
+        mNext = read();
+      }
+      return entry;
+    }
+
+    @Override
+    public void close() throws IOException {
+      mInput.close();
+    }
+  }
+
+  private static class MergeStream implements EntryStream {
+    private final PriorityQueue<RunStream> mQueue = new PriorityQueue<RunStream>(8,
+      new Comparator<RunStream>() {
+        @Override
+        public int compare(RunStream s1, RunStream s2) {
+          return ORDER.compare(s1.peek(), s2.peek());
+        }
+      });
+
+    private final ArrayList<RunStream> mStreams = new ArrayList<RunStream>();
+
+    void add(RunStream stream) {
+      mStreams.add(stream);
+      if (stream.peek() != null) {
+        mQueue.add(stream);
+      }
+    }
+
+    @Override
+    public Entry peek() {
+      RunStream stream = mQueue.peek();
+      return stream != null ? stream.peek() : null;
+    }
+
+    @Override
+    public Entry next() throws IOException {
+      RunStream stream = mQueue.poll();
+      if (stream == null) {
+        return null;
+      }
+      Entry entry = stream.next();
+      if (stream.peek() != null) {
+        mQueue.add(stream);
+      }
+      return entry;
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (RunStream stream : mStreams) {
+        stream.close();
+      }
+    }
+  }
+}
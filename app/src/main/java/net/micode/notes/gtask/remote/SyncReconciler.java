@@ -0,0 +1,254 @@
+package net.micode.notes.gtask.remote;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.gtask.exception.ActionFailureException;
+import net.micode.notes.gtask.exception.NetworkFailureException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * 以归并连接的方式对比本地笔记与远程任务：
+ * 1. 初始化时远程任务及其元数据按 gid 写入可溢出到磁盘的排序器，不在内存中保留
+ * 2. 本地笔记按 gtask_id 排序，以 gtask_id 为游标分页读取
+ * 3. 两个有序序列逐一比较，得到只在本地、只在远程以及两边都有的记录
+ * 同步时占用的内存只与分页大小和排序器的缓存上限有关，与账户中的任务数无关。
+ * 本地 gtask_id 与远程 gid 都只包含 ASCII 字符，SQLite 与 String.compareTo 的排序一致
+ */
+final class SyncReconciler implements Closeable {
+  private static final String TAG = SyncReconciler.class.getSimpleName();
+
+  // 每页读取的本地笔记数
+  private static final int PAGE_SIZE = 200;
+
+  // 排序器的内存缓存上限（字符数）
+  private static final int MAX_BUFFER_CHARS = 512 * 1024;
+
+  // 记录类型，元数据排在同一 gid 的任务之前
+  private static final char KIND_META = 'M';
+
+  private static final char KIND_TASK = 'T';
+
+  private static final String[] PAGE_PROJECTION = new String[]{
+    NoteColumns.ID,
+    NoteColumns.GTASK_ID,
+    NoteColumns.SYNC_ID,
+    NoteColumns.LOCAL_MODIFIED,
+    NoteColumns.PARENT_ID
+  };
+
+  /**
+   * 一条远程任务，内容保持为 JSON 文本，需要同步时再解析
+   */
+  static final class RemoteTask {
+    final String gid;
+
+    // 任务所在任务列表的 gid
+    final String listGid;
+
+    final long lastModified;
+
+    final String task;
+
+    // 任务的元数据，没有时为 null
+    final String meta;
+
+    RemoteTask(String gid, String listGid, long lastModified, String task, String meta) {
+      this.gid = gid;
+      this.listGid = listGid;
+      this.lastModified = lastModified;
+      this.task = task;
+      this.meta = meta;
+    }
+  }
+
+  /**
+   * 一条本地笔记的同步状态
+   */
+  static final class LocalNote {
+    final long id;
+
+    final String gid;
+
+    final long syncId;
+
+    final boolean localModified;
+
+    final long parentId;
+
+    LocalNote(Cursor c) {
+      id = c.getLong(0);
+      gid = c.getString(1);
+      syncId = c.getLong(2);
+      localModified = c.getInt(3) != 0;
+      parentId = c.getLong(4);
+    }
+  }
+
+  interface Handler {
+    /**
+     * 一条本地笔记
+     *
+     * @param remote 对应的远程任务，远程没有时为 null
+     */
+    void onLocalNote(LocalNote local, RemoteTask remote) throws NetworkFailureException;
+
+    /**
+     * 一条本地没有对应笔记的远程任务
+     */
+    void onRemoteTask(RemoteTask remote) throws NetworkFailureException;
+
+    /**
+     * 一页本地笔记处理完毕
+     */
+    void onPageEnd() throws NetworkFailureException;
+
+    boolean isCancelled();
+  }
+
+  private final SpillingSorter mSorter;
+
+  /**
+   * @param spillDir 排序器临时文件所在的目录
+   */
+  SyncReconciler(File spillDir) {
+    mSorter = new SpillingSorter(spillDir, MAX_BUFFER_CHARS);
+  }
+
+  /**
+   * 加入一条远程任务，可以在多个线程中同时调用
+   */
+  void addTask(String gid, String listGid, long lastModified, String jsTask)
+    throws IOException {
+    mSorter.add(gid, KIND_TASK + listGid + "\n" + lastModified + "\n" + jsTask);
+  }
+
+  /**
+   * 加入一条元数据，可以在多个线程中同时调用
+   *
+   * @param relatedGid 元数据所属任务的 gid
+   */
+  void addMeta(String relatedGid, String jsMeta) throws IOException {
+    mSorter.add(relatedGid, KIND_META + jsMeta);
+  }
+
+  /**
+   * 对比满足条件的本地笔记与全部远程任务。
+   * 本地笔记分页读取，处理一页时不持有游标，因此回调中可以修改笔记：
+   * 新插入的笔记的 gid 必定小于当前页的最后一个 gid，不会在之后的页中再次出现。
+   * 回调中不能修改已有笔记的 gtask_id，gtask_id 为空的笔记不应包含在 selection 中
+   */
+  void reconcile(ContentResolver resolver, String selection, String[] selectionArgs,
+                 Handler handler) throws NetworkFailureException {
+    SpillingSorter.EntryStream remotes = null;
+    try {
+      remotes = mSorter.sorted();
+      RemoteTask remote = readRemote(remotes);
+      String lastGid = null;
+      ArrayList<LocalNote> page;
+      do {
+        page = queryPage(resolver, selection, selectionArgs, lastGid);
+        for (LocalNote local : page) {
+          if (handler.isCancelled()) {
+            return;
+          }
+          while (remote != null && remote.gid.compareTo(local.gid) < 0) {
+            handler.onRemoteTask(remote);
+            remote = readRemote(remotes);
+          }
+          if (remote != null && remote.gid.equals(local.gid)) {
+            handler.onLocalNote(local, remote);
+            remote = readRemote(remotes);
+          } else {
+            handler.onLocalNote(local, null);
+          }
+          lastGid = local.gid;
+        }
+        handler.onPageEnd();
+      } while (page.size() == PAGE_SIZE);
+
+      while (remote != null && !handler.isCancelled()) {
+        handler.onRemoteTask(remote);
+        remote = readRemote(remotes);
+      }
+    } catch (IOException e) {
+      Log.e(TAG, e.toString());
+      throw new ActionFailureException("reconcile: reading remote tasks failed");
+    } finally {
+      if (remotes != null) {
+        try {
+          remotes.close();
+        } catch (IOException e) {
+          Log.w(TAG, e.toString());
+        }
+      }
+    }
+  }
+
+  private ArrayList<LocalNote> queryPage(ContentResolver resolver, String selection,
+                                         String[] selectionArgs, String lastGid) {
+    ArrayList<LocalNote> page = new ArrayList<LocalNote>(PAGE_SIZE);
+    String[] args = selectionArgs;
+    if (lastGid != null) {
+      selection = "(" + selection + ") AND " + NoteColumns.GTASK_ID + ">?";
+      args = new String[selectionArgs.length + 1];
+      System.arraycopy(selectionArgs, 0, args, 0, selectionArgs.length);
+      args[selectionArgs.length] = lastGid;
+    }
+    Uri uri = Notes.CONTENT_NOTE_URI.buildUpon()
+      .appendQueryParameter(Notes.PAGE_PARAM_LIMIT, String.valueOf(PAGE_SIZE)).build();
+    Cursor c = resolver.query(uri, PAGE_PROJECTION, selection, args, NoteColumns.GTASK_ID);
+    if (c == null) {
+      Log.w(TAG, "failed to query local notes");
+      return page;
+    }
+    try {
+      while (c.moveToNext()) {
+        page.add(new LocalNote(c));
+      }
+    } finally {
+      c.close();
+    }
+    return page;
+  }
+
+  /**
+   * 读取下一个 gid 的任务及其元数据
+   */
+  private static RemoteTask readRemote(SpillingSorter.EntryStream remotes) throws IOException {
+    String meta = null;
+    SpillingSorter.Entry entry;
+    while ((entry = remotes.next()) != null) {
+      String value = entry.value;
+      if (value.charAt(0) == KIND_META) {
+        // a meta without its task is dropped, of several metas the last one is used
+        SpillingSorter.Entry next = remotes.peek();
+        meta = next != null && next.key.equals(entry.key) ? value.substring(1) : null;
+        continue;
+      }
+      // a task listed twice is only synced once
+      SpillingSorter.Entry next;
+      while ((next = remotes.peek()) != null && next.key.equals(entry.key)) {
+        remotes.next();
+      }
+      int split = value.indexOf('\n');
+      int split2 = value.indexOf('\n', split + 1);
+      return new RemoteTask(entry.key, value.substring(1, split),
+        Long.parseLong(value.substring(split + 1, split2)), value.substring(split2 + 1), meta);
+    }
+    return null;
+  }
+
+  @Override
+  public void close() {
+    mSorter.close();
+  }
+}
@@ -0,0 +1,170 @@
+package net.micode.notes.gtask.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.HttpCookie;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于 HttpURLConnection 的传输层实现，默认使用。
+ * 系统会在进程内保持并复用 keep-alive 连接，因此响应读完后只关闭输入流，不断开连接。
+ * cookie 保存在本实例自己的 CookieManager 中，不影响进程中的其他连接；
+ * 为了保存重定向过程中设置的 cookie，重定向由本类自己处理。
+ */
+public class UrlConnectionTransport extends AbstractTransport {
+  // 最多跟随的重定向次数
+  private static final int MAX_REDIRECTS = 5;
+
+  private final int mConnectTimeout;
+
+  private final int mReadTimeout;
+
+  private final CookieManager mCookieManager;
+
+  /**
+   * @param connectTimeout 连接超时（毫秒）
+   * @param readTimeout    读取超时（毫秒）
+   */
+  public UrlConnectionTransport(int connectTimeout, int readTimeout) {
+    mConnectTimeout = connectTimeout;
+    mReadTimeout = readTimeout;
+    mCookieManager = new CookieManager(null, CookiePolicy.ACCEPT_ALL);
+  }
+
+  @Override
+  protected Response execute(String method, String url, Map<String, String> headers,
+                             byte[] body) throws IOException {
+    for (int redirects = 0; ; redirects++) {
+      URI uri = toUri(url);
+      HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+      connection.setConnectTimeout(mConnectTimeout);
+      connection.setReadTimeout(mReadTimeout);
+      connection.setInstanceFollowRedirects(false);
+      connection.setUseCaches(false);
+      connection.setRequestMethod(method);
+      connection.setRequestProperty("Accept-Encoding", "gzip");
+      for (Map.Entry<String, String> header : headers.entrySet()) {
+        connection.setRequestProperty(header.getKey(), header.getValue());
+      }
+      for (Map.Entry<String, List<String>> cookie
+        : mCookieManager.get(uri, connection.getRequestProperties()).entrySet()) {
+        for (String value : cookie.getValue()) {
+          connection.addRequestProperty(cookie.getKey(), value);
+        }
+      }
+
+      if (body != null) {
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        OutputStream output = connection.getOutputStream();
+        try {
+          output.write(body);
+        } finally {
+          output.close();
+        }
+      }
+
+      int statusCode = connection.getResponseCode();
+      mCookieManager.put(uri, connection.getHeaderFields());
+
+      String location = connection.getHeaderField("Location");
+      if (statusCode >= 300 && statusCode < 400 && location != null
+        && redirects < MAX_REDIRECTS) {
+        new ConnectionResponse(connection, statusCode).close();
+        url = new URL(new URL(url), location).toString();
+        if (statusCode != 307 && statusCode != 308) {
+          // the same as browsers: the request after a redirect is a plain GET
+          method = "GET";
+          body = null;
+        }
+        continue;
+      }
+      return new ConnectionResponse(connection, statusCode);
+    }
+  }
+
+  private static URI toUri(String url) throws IOException {
+    try {
+      return new URI(url);
+    } catch (URISyntaxException e) {
+      throw new IOException("invalid url " + url);
+    }
+  }
+
+  @Override
+  public List<String> getCookieNames() {
+    ArrayList<String> names = new ArrayList<String>();
+    for (HttpCookie cookie : mCookieManager.getCookieStore().getCookies()) {
+      names.add(cookie.getName());
+    }
+    return names;
+  }
+
+  @Override
+  public void clearCookies() {
+    mCookieManager.getCookieStore().removeAll();
+  }
+
+  @Override
+  public void shutdown() {
+    // connections are pooled by the system and closed when idle
+  }
+
+  private static class ConnectionResponse implements Response {
+    private final HttpURLConnection mConnection;
+
+    private final int mStatusCode;
+
+    private InputStream mContent;
+
+    ConnectionResponse(HttpURLConnection connection, int statusCode) {
+      mConnection = connection;
+      mStatusCode = statusCode;
+    }
+
+    @Override
+    public int getStatusCode() {
+      return mStatusCode;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+      if (mContent == null) {
+        InputStream input = mStatusCode >= 400 ? mConnection.getErrorStream()
+          : mConnection.getInputStream();
+        if (input == null) {
+          throw new IOException("no response content, status " + mStatusCode);
+        }
+        mContent = decodeContent(input, mConnection.getContentEncoding());
+      }
+      return mContent;
+    }
+
+    @Override
+    public void close() {
+      try {
+        if (mContent == null) {
+          InputStream input = mStatusCode >= 400 ? mConnection.getErrorStream()
+            : mConnection.getInputStream();
+          if (input != null) {
+            input.close();
+          }
+        } else {
+          mContent.close();
+        }
+      } catch (IOException e) {
+        // the connection can not be reused
+        mConnection.disconnect();
+      }
+    }
+  }
+}
@@ -13,6 +13,7 @@ import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.DataConstants;
 import net.micode.notes.data.Notes.NoteColumns;
 import net.micode.notes.data.Notes.TextNote;
+import net.micode.notes.tool.DataUtils;
 import net.micode.notes.tool.ResourceParser.NoteBgResources;
 
 /**
@@ -228,14 +229,19 @@ public class WorkingNote {
    */
   public synchronized boolean saveNote() {
     if (isWorthSaving()) { // 判断笔记是否值得保存
-      if (!existInDatabase()) { // 判断笔记是否存在于数据库
+      boolean created = !existInDatabase();
+      if (created) { // 判断笔记是否存在于数据库
         if ((mNoteId = Note.getNewNoteId(mContext, mFolderId)) == 0) {
           Log.e(TAG, "Create new note fail with id:" + mNoteId);
           return false; // 创建笔记失败
         }
       }
 
-      mNote.syncNote(mContext, mNoteId); // 同步笔记数据到数据库
+      // 同步笔记数据到数据库；新建的笔记同步时总会上传，只有编辑记入待发件箱，
+      // 多次保存在同步前合并为一条记录
+      if (mNote.syncNote(mContext, mNoteId) && !created) {
+        DataUtils.recordOutbox(mContext.getContentResolver(), mNoteId, Notes.OUTBOX_OP_EDIT);
+      }
 
       /**
        * Update widget content if there exist any widget of this note
@@ -7,15 +7,19 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.RemoteException;
+import android.text.TextUtils;
 import android.util.Log;
 
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.CallNote;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.OutboxColumns;
 import net.micode.notes.ui.NotesListAdapter.AppWidgetAttribute;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 
 /**
@@ -34,6 +38,15 @@ import java.util.HashSet;
 public class DataUtils {
   public static final String TAG = "DataUtils";
 
+  // 按 id 集合查询时每条语句包含的 id 数上限
+  private static final int MAX_IDS_PER_QUERY = 500;
+
+  // 批量操作中每隔这么多个笔记允许提供方让出一次数据库锁，避免长事务阻塞其他写入者
+  private static final int BATCH_YIELD_INTERVAL = 500;
+
+  // 只判断记录是否存在时的投影，不读取整行
+  private static final String[] EXISTS_PROJECTION = new String[]{"1"};
+
   /**
    * 批量删除笔记
    *
@@ -59,6 +72,8 @@ public class DataUtils {
       }
       ContentProviderOperation.Builder builder = ContentProviderOperation
         .newDelete(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, id));
+      // each delete stands alone, so the batch may be committed in parts
+      builder.withYieldAllowed(isYieldPoint(operationList.size()));
       operationList.add(builder.build());
     }
     try {
@@ -86,11 +101,62 @@ public class DataUtils {
    * @param desFolderId 目标文件夹ID
    */
   public static void moveNoteToFoler(ContentResolver resolver, long id, long srcFolderId, long desFolderId) {
+    ArrayList<ContentProviderOperation> operationList = new ArrayList<ContentProviderOperation>();
+    operationList.add(ContentProviderOperation
+      .newUpdate(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, id))
+      .withValue(NoteColumns.PARENT_ID, desFolderId)
+      .withValue(NoteColumns.ORIGIN_PARENT_ID, srcFolderId)
+      .withValue(NoteColumns.LOCAL_MODIFIED, 1)
+      .build());
+    // the outbox row commits together with the move
+    if (isRecordedMove(desFolderId)) {
+      operationList.add(newOutboxInsert(id, Notes.OUTBOX_OP_MOVE));
+    }
+    try {
+      resolver.applyBatch(Notes.AUTHORITY, operationList);
+    } catch (RemoteException e) {
+      Log.e(TAG, String.format("%s: %s", e.toString(), e.getMessage()));
+    } catch (OperationApplicationException e) {
+      Log.e(TAG, String.format("%s: %s", e.toString(), e.getMessage()));
+    }
+  }
+
+  /**
+   * 把一次用户操作写入待发件箱，供下次同步上传
+   *
+   * @param resolver ContentResolver 对象
+   * @param id       笔记ID
+   * @param ops      操作，为 Notes.OUTBOX_OP_* 的组合
+   */
+  public static void recordOutbox(ContentResolver resolver, long id, int ops) {
     ContentValues values = new ContentValues();
-    values.put(NoteColumns.PARENT_ID, desFolderId);
-    values.put(NoteColumns.ORIGIN_PARENT_ID, srcFolderId);
-    values.put(NoteColumns.LOCAL_MODIFIED, 1);
-    resolver.update(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, id), values, null, null);
+    values.put(OutboxColumns.NOTE_ID, id);
+    values.put(OutboxColumns.OPERATIONS, ops);
+    resolver.insert(Notes.CONTENT_OUTBOX_URI, values);
+  }
+
+  /**
+   * 构建写入待发件箱的操作，与笔记的修改放在同一批次中提交
+   */
+  private static ContentProviderOperation newOutboxInsert(long id, int ops) {
+    return ContentProviderOperation.newInsert(Notes.CONTENT_OUTBOX_URI)
+      .withValue(OutboxColumns.NOTE_ID, id)
+      .withValue(OutboxColumns.OPERATIONS, ops)
+      .build();
+  }
+
+  /**
+   * 批量操作中第 index 个笔记之前是否允许让出数据库锁
+   */
+  private static boolean isYieldPoint(int index) {
+    return index > 0 && index % BATCH_YIELD_INTERVAL == 0;
+  }
+
+  /**
+   * 移动到其他文件夹记入待发件箱；移入回收站的笔记同步时由所在文件夹判断，不必记录
+   */
+  private static boolean isRecordedMove(long folderId) {
+    return folderId != Notes.ID_TRASH_FOLER;
   }
 
   /**
@@ -109,12 +175,20 @@ public class DataUtils {
     }
 
     ArrayList<ContentProviderOperation> operationList = new ArrayList<ContentProviderOperation>();
+    boolean recorded = isRecordedMove(folderId);
+    int count = 0;
     for (long id : ids) {
+      // the batch may only be committed in parts between notes,
+      // the outbox row of a note always commits together with its move
       ContentProviderOperation.Builder builder = ContentProviderOperation
         .newUpdate(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, id));
       builder.withValue(NoteColumns.PARENT_ID, folderId);
       builder.withValue(NoteColumns.LOCAL_MODIFIED, 1);
+      builder.withYieldAllowed(isYieldPoint(count++));
       operationList.add(builder.build());
+      if (recorded) {
+        operationList.add(newOutboxInsert(id, Notes.OUTBOX_OP_MOVE));
+      }
     }
 
     try {
@@ -166,20 +240,11 @@ public class DataUtils {
    * @return 存在且可见返回true，否则false
    */
   public static boolean visibleInNoteDatabase(ContentResolver resolver, long noteId, int type) {
-    Cursor cursor = resolver.query(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId),
-      null,
+    return exists(resolver.query(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId),
+      EXISTS_PROJECTION,
       NoteColumns.TYPE + "=? AND " + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER,
       new String[]{String.valueOf(type)},
-      null);
-
-    boolean exist = false;
-    if (cursor != null) {
-      if (cursor.getCount() > 0) {
-        exist = true;
-      }
-      cursor.close();
-    }
-    return exist;
+      null));
   }
 
   /**
@@ -190,17 +255,8 @@ public class DataUtils {
    * @return 存在返回true，否则false
    */
   public static boolean existInNoteDatabase(ContentResolver resolver, long noteId) {
-    Cursor cursor = resolver.query(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId),
-      null, null, null, null);
-
-    boolean exist = false;
-    if (cursor != null) {
-      if (cursor.getCount() > 0) {
-        exist = true;
-      }
-      cursor.close();
-    }
-    return exist;
+    return exists(resolver.query(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId),
+      EXISTS_PROJECTION, null, null, null));
   }
 
   /**
@@ -211,17 +267,55 @@ public class DataUtils {
    * @return 存在返回true，否则false
    */
   public static boolean existInDataDatabase(ContentResolver resolver, long dataId) {
-    Cursor cursor = resolver.query(ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, dataId),
-      null, null, null, null);
+    return exists(resolver.query(ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, dataId),
+      EXISTS_PROJECTION, null, null, null));
+  }
 
-    boolean exist = false;
-    if (cursor != null) {
-      if (cursor.getCount() > 0) {
-        exist = true;
+  /**
+   * 批量检查记录是否存在，每 {@link #MAX_IDS_PER_QUERY} 个 id 只查询一次，且只读取 id 列。
+   * 同步时一个阶段的全部 id 先收集起来再调用，代替逐条调用 existInNoteDatabase 等方法
+   *
+   * @param resolver ContentResolver 对象
+   * @param uri      要查询的表，如 {@link Notes#CONTENT_NOTE_URI}、{@link Notes#CONTENT_DATA_URI}
+   * @param idColumn id 列名
+   * @param ids      要检查的 id
+   * @return 其中已经存在的 id；查询失败时返回 null
+   */
+  public static HashSet<Long> getExistingIds(ContentResolver resolver, Uri uri, String idColumn,
+                                             Collection<Long> ids) {
+    HashSet<Long> existing = new HashSet<Long>();
+    ArrayList<Long> chunk = new ArrayList<Long>(Math.min(ids.size(), MAX_IDS_PER_QUERY));
+    for (Long id : ids) {
+      chunk.add(id);
+      if (chunk.size() == MAX_IDS_PER_QUERY) {
+        if (!queryExistingIds(resolver, uri, idColumn, chunk, existing)) {
+          return null;
+        }
+        chunk.clear();
+      }
+    }
+    if (!chunk.isEmpty() && !queryExistingIds(resolver, uri, idColumn, chunk, existing)) {
+      return null;
+    }
+    return existing;
+  }
+
+  private static boolean queryExistingIds(ContentResolver resolver, Uri uri, String idColumn,
+                                          ArrayList<Long> ids, HashSet<Long> existing) {
+    Cursor cursor = resolver.query(uri, new String[]{idColumn},
+      idColumn + " IN (" + TextUtils.join(",", ids) + ")", null, null);
+    if (cursor == null) {
+      Log.w(TAG, "failed to query existing ids");
+      return false;
+    }
+    try {
+      while (cursor.moveToNext()) {
+        existing.add(cursor.getLong(0));
       }
+    } finally {
       cursor.close();
     }
-    return exist;
+    return true;
   }
 
   /**
@@ -232,19 +326,26 @@ public class DataUtils {
    * @return 存在同名文件夹返回true，否则返回false
    */
   public static boolean checkVisibleFolderName(ContentResolver resolver, String name) {
-    Cursor cursor = resolver.query(Notes.CONTENT_NOTE_URI, null,
+    return exists(resolver.query(Notes.CONTENT_NOTE_URI.buildUpon()
+        .appendQueryParameter(Notes.PAGE_PARAM_LIMIT, "1").build(), EXISTS_PROJECTION,
       NoteColumns.TYPE + "=" + Notes.TYPE_FOLDER +
         " AND " + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER +
         " AND " + NoteColumns.SNIPPET + "=?",
-      new String[]{name}, null);
-    boolean exist = false;
-    if (cursor != null) {
-      if (cursor.getCount() > 0) {
-        exist = true;
-      }
+      new String[]{name}, null));
+  }
+
+  /**
+   * 判断查询结果是否至少有一行，并关闭游标
+   */
+  private static boolean exists(Cursor cursor) {
+    if (cursor == null) {
+      return false;
+    }
+    try {
+      return cursor.moveToFirst();
+    } finally {
       cursor.close();
     }
-    return exist;
   }
 
   /**
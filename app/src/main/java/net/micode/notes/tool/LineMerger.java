@@ -0,0 +1,192 @@
+package net.micode.notes.tool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 按行对笔记正文做三方合并（diff3）
+ * <p>
+ * 以上次同步时双方一致的正文为基准，分别求出本地和远程相对基准的修改：
+ * 1. 只有一方修改的区域直接采用修改后的内容
+ * 2. 双方改成相同内容的区域只保留一份
+ * 3. 双方改成不同内容的区域无法自动合并，记为冲突，
+ * 合并结果中该区域采用本地的内容，另一份结果采用远程的内容，供调用方保存为冲突副本
+ */
+public final class LineMerger {
+  // 求最长公共子序列时动态规划表格的单元数上限，超过时整段视为双方都已修改
+  private static final int MAX_LCS_CELLS = 1 << 20;
+
+  private LineMerger() {
+  }
+
+  /**
+   * 三方合并的结果
+   */
+  public static final class Result {
+    private final String mMerged;
+
+    private final String mTheirs;
+
+    private final boolean mConflicted;
+
+    Result(String merged, String theirs, boolean conflicted) {
+      mMerged = merged;
+      mTheirs = theirs;
+      mConflicted = conflicted;
+    }
+
+    /**
+     * 合并后的正文，冲突区域采用本地的内容
+     */
+    public String getMerged() {
+      return mMerged;
+    }
+
+    /**
+     * 冲突区域采用远程内容的合并结果，没有冲突时与 getMerged() 相同
+     */
+    public String getTheirs() {
+      return mTheirs;
+    }
+
+    public boolean isConflicted() {
+      return mConflicted;
+    }
+  }
+
+  /**
+   * @param base   上次同步时的正文
+   * @param local  本地正文
+   * @param remote 远程正文
+   */
+  public static Result merge(String base, String local, String remote) {
+    if (local.equals(remote) || remote.equals(base)) {
+      return new Result(local, local, false);
+    }
+    if (local.equals(base)) {
+      return new Result(remote, remote, false);
+    }
+
+    String[] baseLines = base.split("\n", -1);
+    String[] localLines = local.split("\n", -1);
+    String[] remoteLines = remote.split("\n", -1);
+    int[] localMatch = match(baseLines, localLines);
+    int[] remoteMatch = match(baseLines, remoteLines);
+
+    ArrayList<String> merged = new ArrayList<String>();
+    ArrayList<String> theirs = new ArrayList<String>();
+    boolean conflicted = false;
+    int b = 0;
+    int l = 0;
+    int r = 0;
+    while (b < baseLines.length || l < localLines.length || r < remoteLines.length) {
+      // stable run: the base line is kept at the current position on both sides
+      if (b < baseLines.length && localMatch[b] == l && remoteMatch[b] == r) {
+        merged.add(baseLines[b]);
+        theirs.add(baseLines[b]);
+        b++;
+        l++;
+        r++;
+        continue;
+      }
+
+      // find the next base line kept on both sides, everything before it is a changed chunk
+      int nextB = b;
+      while (nextB < baseLines.length && (localMatch[nextB] < l || remoteMatch[nextB] < r)) {
+        nextB++;
+      }
+      int nextL = nextB < baseLines.length ? localMatch[nextB] : localLines.length;
+      int nextR = nextB < baseLines.length ? remoteMatch[nextB] : remoteLines.length;
+
+      List<String> baseChunk = Arrays.asList(baseLines).subList(b, nextB);
+      List<String> localChunk = Arrays.asList(localLines).subList(l, nextL);
+      List<String> remoteChunk = Arrays.asList(remoteLines).subList(r, nextR);
+      if (localChunk.equals(baseChunk) || localChunk.equals(remoteChunk)) {
+        merged.addAll(remoteChunk);
+        theirs.addAll(remoteChunk);
+      } else if (remoteChunk.equals(baseChunk)) {
+        merged.addAll(localChunk);
+        theirs.addAll(localChunk);
+      } else {
+        merged.addAll(localChunk);
+        theirs.addAll(remoteChunk);
+        conflicted = true;
+      }
+      b = nextB;
+      l = nextL;
+      r = nextR;
+    }
+
+    String mergedText = join(merged);
+    return new Result(mergedText, conflicted ? join(theirs) : mergedText, conflicted);
+  }
+
+  /**
+   * 求 base 与 other 的最长公共子序列
+   *
+   * @return 每个 base 行在 other 中对应的行号，没有保留的行为 -1
+   */
+  private static int[] match(String[] base, String[] other) {
+    int[] result = new int[base.length];
+    Arrays.fill(result, -1);
+
+    // common prefix and suffix are matched directly, which keeps the table small
+    int start = 0;
+    while (start < base.length && start < other.length && base[start].equals(other[start])) {
+      result[start] = start;
+      start++;
+    }
+    int baseEnd = base.length;
+    int otherEnd = other.length;
+    while (baseEnd > start && otherEnd > start
+      && base[baseEnd - 1].equals(other[otherEnd - 1])) {
+      baseEnd--;
+      otherEnd--;
+      result[baseEnd] = otherEnd;
+    }
+
+    int n = baseEnd - start;
+    int m = otherEnd - start;
+    if (n == 0 || m == 0 || (long) (n + 1) * (m + 1) > MAX_LCS_CELLS) {
+      return result;
+    }
+
+    // lengths[i][j] is the lcs length of base[start + i..] and other[start + j..]
+    int[][] lengths = new int[n + 1][m + 1];
+    for (int i = n - 1; i >= 0; i--) {
+      for (int j = m - 1; j >= 0; j--) {
+        if (base[start + i].equals(other[start + j])) {
+          lengths[i][j] = lengths[i + 1][j + 1] + 1;
+        } else {
+          lengths[i][j] = Math.max(lengths[i + 1][j], lengths[i][j + 1]);
+        }
+      }
+    }
+    int i = 0;
+    int j = 0;
+    while (i < n && j < m) {
+      if (base[start + i].equals(other[start + j])) {
+        result[start + i] = start + j;
+        i++;
+        j++;
+      } else if (lengths[i + 1][j] >= lengths[i][j + 1]) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+    return result;
+  }
+
+  private static String join(List<String> lines) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < lines.size(); i++) {
+      if (i > 0) {
+        sb.append('\n');
+      }
+      sb.append(lines.get(i));
+    }
+    return sb.toString();
+  }
+}
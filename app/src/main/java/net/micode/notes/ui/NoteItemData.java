@@ -6,14 +6,22 @@ import android.text.TextUtils;
 
 import net.micode.notes.data.Contact;
 import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.CallNote;
 import net.micode.notes.data.Notes.NoteColumns;
-import net.micode.notes.tool.DataUtils;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
 
 /**
  * NoteItemData 是一个数据类，用于封装笔记项的数据。
  * 它从数据库游标中读取数据，并提供相应的访问方法。
  */
 public class NoteItemData {
+  // 通话记录笔记的电话号码，通过子查询随列表一起取出，绑定视图时不再单独查询
+  private static final String CALL_NUMBER = "CASE WHEN " + NoteColumns.PARENT_ID + "="
+    + Notes.ID_CALL_RECORD_FOLDER + " THEN (SELECT " + CallNote.PHONE_NUMBER + " FROM "
+    + TABLE.DATA + " WHERE " + CallNote.NOTE_ID + "=" + TABLE.NOTE + "." + NoteColumns.ID
+    + " AND " + CallNote.MIME_TYPE + "='" + CallNote.CONTENT_ITEM_TYPE + "' LIMIT 1)"
+    + " END AS call_number";
+
   // 数据库查询的列名数组
   static final String[] PROJECTION = new String[]{
     NoteColumns.ID,              // 笔记 ID
@@ -28,6 +36,7 @@ public class NoteItemData {
     NoteColumns.TYPE,            // 笔记类型
     NoteColumns.WIDGET_ID,       // 小部件 ID
     NoteColumns.WIDGET_TYPE,     // 小部件类型
+    CALL_NUMBER,                 // 通话记录的电话号码
   };
 
   // 数据库列索引
@@ -43,6 +52,7 @@ public class NoteItemData {
   private static final int TYPE_COLUMN = 9;
   private static final int WIDGET_ID_COLUMN = 10;
   private static final int WIDGET_TYPE_COLUMN = 11;
+  private static final int CALL_NUMBER_COLUMN = 12;
 
   // 笔记项的属性
   private long mId; // 笔记 ID
@@ -74,6 +84,28 @@ public class NoteItemData {
    * @param cursor  数据库游标
    */
   public NoteItemData(Context context, Cursor cursor) {
+    load(cursor);
+    checkPostion(cursor); // 检查笔记项的位置状态
+  }
+
+  /**
+   * 构造函数，用于分页加载的列表：游标只包含一页数据，位置状态由调用者根据整个列表给出
+   *
+   * @param context       上下文
+   * @param cursor        已移动到当前行的游标
+   * @param position      当前项在整个列表中的位置
+   * @param count         整个列表的项数
+   * @param followsFolder 前一项是否为文件夹（或系统文件夹）
+   */
+  NoteItemData(Context context, Cursor cursor, int position, int count, boolean followsFolder) {
+    load(cursor);
+    setPosition(position, count, followsFolder);
+  }
+
+  /**
+   * 从游标的当前行读取笔记项数据
+   */
+  private void load(Cursor cursor) {
     mId = cursor.getLong(ID_COLUMN);
     mAlertDate = cursor.getLong(ALERTED_DATE_COLUMN);
     mBgColorId = cursor.getInt(BG_COLOR_ID_COLUMN);
@@ -90,12 +122,16 @@ public class NoteItemData {
     mWidgetId = cursor.getInt(WIDGET_ID_COLUMN);
     mWidgetType = cursor.getInt(WIDGET_TYPE_COLUMN);
 
-    // 如果是通话记录文件夹，获取联系人信息
+    // 如果是通话记录文件夹，获取联系人信息。这里只读取缓存，
+    // 未缓存的联系人名称由列表适配器在后台批量查询，查询完成后刷新列表
     mPhoneNumber = "";
     if (mParentId == Notes.ID_CALL_RECORD_FOLDER) {
-      mPhoneNumber = DataUtils.getCallNumberByNoteId(context.getContentResolver(), mId);
+      mPhoneNumber = cursor.getString(CALL_NUMBER_COLUMN);
+      if (mPhoneNumber == null) {
+        mPhoneNumber = "";
+      }
       if (!TextUtils.isEmpty(mPhoneNumber)) {
-        mName = Contact.getContact(context, mPhoneNumber);
+        mName = Contact.getCachedContact(mPhoneNumber);
         if (mName == null) {
           mName = mPhoneNumber;
         }
@@ -105,7 +141,6 @@ public class NoteItemData {
     if (mName == null) {
       mName = "";
     }
-    checkPostion(cursor); // 检查笔记项的位置状态
   }
 
   /**
@@ -114,29 +149,43 @@ public class NoteItemData {
    * @param cursor 数据库游标
    */
   private void checkPostion(Cursor cursor) {
-    mIsLastItem = cursor.isLast();
-    mIsFirstItem = cursor.isFirst();
-    mIsOnlyOneItem = (cursor.getCount() == 1);
-    mIsMultiNotesFollowingFolder = false;
-    mIsOneNoteFollowingFolder = false;
+    int position = cursor.getPosition();
+    boolean followsFolder = false;
 
     // 如果当前项是笔记且不是第一项，检查是否跟随在文件夹后
-    if (mType == Notes.TYPE_NOTE && !mIsFirstItem) {
-      int position = cursor.getPosition();
+    if (mType == Notes.TYPE_NOTE && !cursor.isFirst()) {
       if (cursor.moveToPrevious()) {
-        if (cursor.getInt(TYPE_COLUMN) == Notes.TYPE_FOLDER
-          || cursor.getInt(TYPE_COLUMN) == Notes.TYPE_SYSTEM) {
-          if (cursor.getCount() > (position + 1)) {
-            mIsMultiNotesFollowingFolder = true;
-          } else {
-            mIsOneNoteFollowingFolder = true;
-          }
-        }
+        followsFolder = cursor.getInt(TYPE_COLUMN) == Notes.TYPE_FOLDER
+          || cursor.getInt(TYPE_COLUMN) == Notes.TYPE_SYSTEM;
         if (!cursor.moveToNext()) {
           throw new IllegalStateException("cursor move to previous but can't move back");
         }
       }
     }
+    setPosition(position, cursor.getCount(), followsFolder);
+  }
+
+  /**
+   * 根据在列表中的位置设置笔记项的位置状态
+   *
+   * @param position      当前项的位置
+   * @param count         列表的项数
+   * @param followsFolder 前一项是否为文件夹（或系统文件夹）
+   */
+  private void setPosition(int position, int count, boolean followsFolder) {
+    mIsFirstItem = (position == 0);
+    mIsLastItem = (position == count - 1);
+    mIsOnlyOneItem = (count == 1);
+    mIsMultiNotesFollowingFolder = false;
+    mIsOneNoteFollowingFolder = false;
+
+    if (mType == Notes.TYPE_NOTE && !mIsFirstItem && followsFolder) {
+      if (count > (position + 1)) {
+        mIsMultiNotesFollowingFolder = true;
+      } else {
+        mIsOneNoteFollowingFolder = true;
+      }
+    }
   }
 
   // 以下为获取笔记项属性的方法
@@ -157,6 +206,10 @@ public class NoteItemData {
     return mName;
   }
 
+  public String getPhoneNumber() {
+    return mPhoneNumber;
+  }
+
   public boolean isFirst() {
     return mIsFirstItem;
   }
@@ -78,8 +78,6 @@ import java.util.HashSet;
  * 7. 实现界面个性化设置（背景/字体切换）
  */
 public class NotesListActivity extends Activity implements OnClickListener, OnItemLongClickListener {
-  private static final int FOLDER_NOTE_LIST_QUERY_TOKEN = 0;
-
   private static final int FOLDER_LIST_QUERY_TOKEN = 1;
 
   private static final int MENU_FOLDER_DELETE = 0;
@@ -126,12 +124,14 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
 
   private NoteItemData mFocusNoteDataItem;
 
-  private static final String NORMAL_SELECTION = NoteColumns.PARENT_ID + "=?";
+  // 普通文件夹的列表条件，NotesQueryPlanTest 检查它的查询计划
+  public static final String NORMAL_SELECTION = NoteColumns.PARENT_ID + "=?";
 
-  private static final String ROOT_FOLDER_SELECTION = "(" + NoteColumns.TYPE + "<>"
-    + Notes.TYPE_SYSTEM + " AND " + NoteColumns.PARENT_ID + "=?)" + " OR ("
-    + NoteColumns.ID + "=" + Notes.ID_CALL_RECORD_FOLDER + " AND "
-    + NoteColumns.NOTES_COUNT + ">0)";
+  // 系统文件夹的 parent_id 都是根目录，因此通话记录文件夹的条件可以放在 parent_id=? 之内，
+  // 整个条件能走 (parent_id, type, modified_date) 索引，便于分页查询按键值定位
+  public static final String ROOT_FOLDER_SELECTION = NoteColumns.PARENT_ID + "=? AND ("
+    + NoteColumns.TYPE + "<>" + Notes.TYPE_SYSTEM + " OR (" + NoteColumns.ID + "="
+    + Notes.ID_CALL_RECORD_FOLDER + " AND " + NoteColumns.NOTES_COUNT + ">0))";
 
   private final static int REQUEST_CODE_OPEN_NODE = 102;
   private final static int REQUEST_CODE_NEW_NODE = 103;
@@ -217,7 +217,7 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
   protected void onActivityResult(int requestCode, int resultCode, Intent data) {
     if (resultCode == RESULT_OK
       && (requestCode == REQUEST_CODE_OPEN_NODE || requestCode == REQUEST_CODE_NEW_NODE)) {
-      mNotesListAdapter.changeCursor(null);
+      mNotesListAdapter.clear();
     } else {
       super.onActivityResult(requestCode, resultCode, data);
     }
@@ -275,6 +275,13 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
     startAsyncNotesListQuery();
   }
 
+  @Override
+  protected void onDestroy() {
+    // the adapter observes the provider, release it together with its cursors
+    mNotesListAdapter.close();
+    super.onDestroy();
+  }
+
   private void initResources() {
     mContentResolver = this.getContentResolver();
     mBackgroundQueryHandler = new BackgroundQueryHandler(this.getContentResolver());
@@ -480,10 +487,9 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
   private void startAsyncNotesListQuery() {
     String selection = (mCurrentFolderId == Notes.ID_ROOT_FOLDER) ? ROOT_FOLDER_SELECTION
       : NORMAL_SELECTION;
-    mBackgroundQueryHandler.startQuery(FOLDER_NOTE_LIST_QUERY_TOKEN, null,
-      Notes.CONTENT_NOTE_URI, NoteItemData.PROJECTION, selection, new String[]{
-        String.valueOf(mCurrentFolderId)
-      }, NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC");
+    mNotesListAdapter.startQuery(selection, new String[]{
+      String.valueOf(mCurrentFolderId)
+    });
   }
 
   private final class BackgroundQueryHandler extends AsyncQueryHandler {
@@ -494,9 +500,6 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
     @Override
     protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
       switch (token) {
-        case FOLDER_NOTE_LIST_QUERY_TOKEN:
-          mNotesListAdapter.changeCursor(cursor);
-          break;
         case FOLDER_LIST_QUERY_TOKEN:
           if (cursor != null && cursor.getCount() > 0) {
             showFolderListMenu(cursor);
@@ -935,6 +938,10 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
     public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
       if (view instanceof NotesListItem) {
         NoteItemData item = ((NotesListItem) view).getItemData();
+        if (item == null) {
+          // the row is still loading
+          return;
+        }
         if (mNotesListAdapter.isInChoiceMode()) {
           if (item.getType() == Notes.TYPE_NOTE) {
             position = position - mNotesListView.getHeaderViewsCount();
@@ -990,7 +997,7 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
   }
 
   public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
-    if (view instanceof NotesListItem) {
+    if (view instanceof NotesListItem && ((NotesListItem) view).getItemData() != null) {
       mFocusNoteDataItem = ((NotesListItem) view).getItemData();
       if (mFocusNoteDataItem.getType() == Notes.TYPE_NOTE && !mNotesListAdapter.isInChoiceMode()) {
         if (mNotesListView.startActionMode(mModeCallBack) != null) {
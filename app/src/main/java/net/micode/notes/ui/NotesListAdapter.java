@@ -1,30 +1,121 @@
 package net.micode.notes.ui;
 
+import android.content.ContentResolver;
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
+import android.util.LruCache;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
+import android.widget.BaseAdapter;
 
+import net.micode.notes.data.Contact;
 import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.NoteColumns;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 
 /**
  * NotesListAdapter 是一个自定义的适配器，用于显示笔记列表。
- * 它继承自 CursorAdapter，通过绑定数据库中的数据动态生成视图。
+ * <p>
+ * 列表数据按页加载：通过 {@link Notes#CONTENT_NOTE_PAGE_URI} 以 keyset 方式分页查询，
+ * 只在内存中保留最近使用的少量页，滚动到未加载的位置时再按需加载。
+ * 首屏只需要查询第一页；同时在后台扫描一遍列表的键值（type、modified_date、_id），
+ * 记录总数、每页起始键值以及第一条笔记的位置，用于按位置定位页面和全选。
+ * 页面只在后台加载，尚未加载的位置先显示占位项。
+ * 因此无论文件夹中有多少笔记，首屏耗时和游标占用的内存都基本不变；
+ * 键值扫描仍需读取全部行，扫描结果中每页保留一组起始键值。
  */
-public class NotesListAdapter extends CursorAdapter {
+public class NotesListAdapter extends BaseAdapter {
   private static final String TAG = "NotesListAdapter"; // 日志标签
+
+  // 每页的条数
+  private static final int PAGE_SIZE = 50;
+
+  // 内存中最多保留的页数
+  private static final int MAX_CACHED_PAGES = 6;
+
+  // 距离页尾（或页首）不足这么多条时，预加载相邻的页
+  private static final int PREFETCH_DISTANCE = 10;
+
+  // 列表键值扫描使用的列
+  private static final String[] KEY_PROJECTION = new String[]{
+    NoteColumns.TYPE,
+    NoteColumns.MODIFIED_DATE,
+    NoteColumns.ID
+  };
+
+  // 获取选中项信息时使用的列
+  private static final String[] SELECTION_PROJECTION = new String[]{
+    NoteColumns.ID,
+    NoteColumns.WIDGET_ID,
+    NoteColumns.WIDGET_TYPE
+  };
+
   private Context mContext; // 上下文对象
+  private ContentResolver mContentResolver;
   private HashMap<Integer, Boolean> mSelectedIndex; // 存储选中项的索引及其选中状态
-  private int mNotesCount; // 笔记总数
   private boolean mChoiceMode; // 是否处于选择模式
 
+  // 当前列表的查询条件
+  private String mSelection;
+  private String[] mSelectionArgs;
+
+  // 每次重新查询时递增，用于丢弃过期的异步加载结果
+  private int mGeneration;
+
+  // 第一页的数据，在列表键值扫描完成之前用于确定列表范围
+  private Cursor mFirstPage;
+
+  // 列表键值扫描的结果，扫描完成之前为 null
+  private PageIndex mPageIndex;
+
+  // 已加载的页，被挤出时关闭游标
+  private final LruCache<Integer, Cursor> mPages =
+    new LruCache<Integer, Cursor>(MAX_CACHED_PAGES) {
+      @Override
+      protected void entryRemoved(boolean evicted, Integer key, Cursor oldValue,
+                                  Cursor newValue) {
+        if (oldValue != newValue) {
+          oldValue.close();
+        }
+      }
+    };
+
+  // 正在异步加载的页
+  private final HashSet<Integer> mLoadingPages = new HashSet<>();
+
+  // 显示时尚未加载、以占位项显示的页，加载完成后刷新列表
+  private final HashSet<Integer> mMissedPages = new HashSet<>();
+
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+  // 正在等待或正在查询联系人名称的电话号码，避免重复请求
+  private final HashSet<String> mRequestedNumbers = new HashSet<>();
+
+  // 等待下一次批量查询联系人名称的电话号码
+  private final ArrayList<String> mPendingNumbers = new ArrayList<>();
+
+  // 笔记数据变化时重新查询
+  private final ContentObserver mObserver = new ContentObserver(mHandler) {
+    @Override
+    public void onChange(boolean selfChange) {
+      if (mSelection != null || mSelectionArgs != null) {
+        startQuery(mSelection, mSelectionArgs);
+      }
+    }
+  };
+  private boolean mObserverRegistered;
+
   /**
    * AppWidgetAttribute 是一个内部类，用于存储小部件的属性。
    */
@@ -33,45 +124,398 @@ public class NotesListAdapter extends CursorAdapter {
     public int widgetType; // 小部件类型
   }
 
+  /**
+   * PageIndex 保存一次列表键值扫描的结果，创建后不再修改，可在线程间共享。
+   * 列表按 type 降序排列，笔记（type 最小）总是连续排在最后，只需记录第一条笔记的位置
+   */
+  private static class PageIndex {
+    final int count; // 列表总项数
+    final int firstNote; // 第一条笔记的位置，没有笔记时等于 count
+    final long[] pageStarts; // 第 i 页之前一行的键值，按 (type, modified_date, _id) 依次存放
+
+    PageIndex(int count, int firstNote, long[] pageStarts) {
+      this.count = count;
+      this.firstNote = firstNote;
+      this.pageStarts = pageStarts;
+    }
+
+    int getNotesCount() {
+      return count - firstNote;
+    }
+
+    boolean isNote(int position) {
+      return position >= firstNote && position < count;
+    }
+  }
+
   /**
    * 构造函数，初始化适配器
    *
    * @param context 上下文
    */
   public NotesListAdapter(Context context) {
-    super(context, null);
     mSelectedIndex = new HashMap<>();
     mContext = context;
-    mNotesCount = 0;
+    mContentResolver = context.getContentResolver();
   }
 
   /**
-   * 创建新视图
+   * 按给定条件异步加载列表：先加载第一页并立即显示，再在后台扫描列表键值。
+   * 重新加载时扫描完成前保留原来的扫描结果和其他已加载的页，列表长度不会临时缩短
    *
-   * @param context 上下文
-   * @param cursor  数据库游标
-   * @param parent  父视图
-   * @return 新创建的视图
+   * @param selection     查询条件
+   * @param selectionArgs 查询条件参数
    */
-  @Override
-  public View newView(Context context, Cursor cursor, ViewGroup parent) {
-    return new NotesListItem(context); // 返回自定义的 NotesListItem 视图
+  public void startQuery(final String selection, final String[] selectionArgs) {
+    mSelection = selection;
+    mSelectionArgs = selectionArgs;
+    final int generation = ++mGeneration;
+    if (!mObserverRegistered) {
+      mContentResolver.registerContentObserver(Notes.CONTENT_NOTE_URI, true, mObserver);
+      mObserverRegistered = true;
+    }
+
+    new AsyncTask<Void, Cursor, Object[]>() {
+      @Override
+      protected Object[] doInBackground(Void... unused) {
+        Cursor firstPage = queryPage(null, 0, NoteItemData.PROJECTION, selection, selectionArgs);
+        if (firstPage != null && firstPage.getCount() < PAGE_SIZE) {
+          // 列表只有一页，直接由第一页得到扫描结果
+          return new Object[]{firstPage, buildIndex(firstPage)};
+        }
+        if (firstPage != null) {
+          // 先显示第一页，不必等待键值扫描；此后本线程不再访问该游标
+          publishProgress(firstPage);
+        }
+        return new Object[]{firstPage, scanIndex(selection, selectionArgs)};
+      }
+
+      @Override
+      protected void onProgressUpdate(Cursor... pages) {
+        if (generation == mGeneration) {
+          replaceFirstPage(pages[0]);
+        }
+      }
+
+      @Override
+      protected void onPostExecute(Object[] result) {
+        Cursor firstPage = (Cursor) result[0];
+        if (generation != mGeneration) {
+          if (firstPage != null && firstPage != mFirstPage) {
+            firstPage.close();
+          }
+          return;
+        }
+        // 第一页已经显示时不会被关闭，其他页按新的扫描结果重新加载
+        swapFirstPage(firstPage, (PageIndex) result[1]);
+      }
+    }.execute();
+  }
+
+  /**
+   * 只替换第一页数据，键值扫描结果和其他已加载的页保留到新的扫描完成
+   */
+  private void replaceFirstPage(Cursor firstPage) {
+    if (mFirstPage != null && mFirstPage != firstPage) {
+      mFirstPage.close();
+    }
+    mFirstPage = firstPage;
+    notifyDataSetChanged();
+  }
+
+  /**
+   * 替换第一页数据和键值扫描结果，清除其他已加载的页
+   */
+  private void swapFirstPage(Cursor firstPage, PageIndex index) {
+    mPages.evictAll();
+    mLoadingPages.clear();
+    mMissedPages.clear();
+    if (mFirstPage != null && mFirstPage != firstPage) {
+      mFirstPage.close();
+    }
+    mFirstPage = firstPage;
+    mPageIndex = index;
+    notifyDataSetChanged();
+  }
+
+  /**
+   * 释放适配器：停止监听数据变化并关闭所有游标，在所属的 Activity 销毁时调用
+   */
+  public void close() {
+    clear();
+    mHandler.removeCallbacks(mContactLookup);
+    mPendingNumbers.clear();
   }
 
   /**
-   * 绑定视图，将数据绑定到视图上
+   * 清空列表并停止监听数据变化
+   */
+  public void clear() {
+    mGeneration++;
+    mSelection = null;
+    mSelectionArgs = null;
+    if (mObserverRegistered) {
+      mContentResolver.unregisterContentObserver(mObserver);
+      mObserverRegistered = false;
+    }
+    swapFirstPage(null, null);
+  }
+
+  /**
+   * 查询一页数据
    *
-   * @param view    要绑定的视图
-   * @param context 上下文
-   * @param cursor  数据库游标
+   * @param index      列表键值扫描结果，查询第一页时可为 null
+   * @param page       页号
+   * @param projection 查询的列
+   */
+  private Cursor queryPage(PageIndex index, int page, String[] projection, String selection,
+                           String[] selectionArgs) {
+    Uri.Builder builder = Notes.CONTENT_NOTE_PAGE_URI.buildUpon()
+      .appendQueryParameter(Notes.PAGE_PARAM_LIMIT, String.valueOf(PAGE_SIZE));
+    if (page > 0) {
+      int offset = (page - 1) * KEY_PROJECTION.length;
+      builder.appendQueryParameter(Notes.PAGE_PARAM_AFTER_TYPE,
+          String.valueOf(index.pageStarts[offset]))
+        .appendQueryParameter(Notes.PAGE_PARAM_AFTER_MODIFIED_DATE,
+          String.valueOf(index.pageStarts[offset + 1]))
+        .appendQueryParameter(Notes.PAGE_PARAM_AFTER_ID,
+          String.valueOf(index.pageStarts[offset + 2]));
+    }
+    return mContentResolver.query(builder.build(), projection, selection, selectionArgs, null);
+  }
+
+  /**
+   * 扫描整个列表的键值，只读取索引中的三列，并且只保存每页的起始键值
+   */
+  private PageIndex scanIndex(String selection, String[] selectionArgs) {
+    Cursor c = mContentResolver.query(Notes.CONTENT_NOTE_URI, KEY_PROJECTION, selection,
+      selectionArgs, NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC,"
+        + NoteColumns.ID + " DESC");
+    if (c == null) {
+      return null;
+    }
+    try {
+      int count = c.getCount();
+      int pageCount = (count + PAGE_SIZE - 1) / PAGE_SIZE;
+      long[] pageStarts = new long[Math.max(0, pageCount - 1) * KEY_PROJECTION.length];
+      int firstNote = count;
+      while (c.moveToNext()) {
+        int position = c.getPosition();
+        if (firstNote == count && c.getInt(0) == Notes.TYPE_NOTE) {
+          firstNote = position;
+        }
+        // 每页最后一行即下一页的起始键值
+        if ((position + 1) % PAGE_SIZE == 0 && position + 1 < count) {
+          int offset = (position / PAGE_SIZE) * KEY_PROJECTION.length;
+          pageStarts[offset] = c.getLong(0);
+          pageStarts[offset + 1] = c.getLong(1);
+          pageStarts[offset + 2] = c.getLong(2);
+        }
+      }
+      return new PageIndex(count, firstNote, pageStarts);
+    } finally {
+      c.close();
+    }
+  }
+
+  /**
+   * 列表只有一页时，直接由第一页数据得到扫描结果
+   */
+  private static PageIndex buildIndex(Cursor firstPage) {
+    int count = firstPage.getCount();
+    int firstNote = count;
+    for (int i = 0; i < count; i++) {
+      if (firstPage.moveToPosition(i) && NoteItemData.getNoteType(firstPage) == Notes.TYPE_NOTE) {
+        firstNote = i;
+        break;
+      }
+    }
+    return new PageIndex(count, firstNote, new long[0]);
+  }
+
+  /**
+   * 获取某一页的数据。未加载时不在主线程中查询，而是在后台加载，加载完成后刷新列表
+   *
+   * @return 已加载的页，尚未加载时返回 null
+   */
+  private Cursor getPage(int page) {
+    if (page == 0) {
+      return mFirstPage;
+    }
+    Cursor c = mPages.get(page);
+    if (c == null && mPageIndex != null) {
+      mMissedPages.add(page);
+      prefetchPage(page);
+    }
+    return c;
+  }
+
+  /**
+   * 在后台预加载某一页
+   */
+  private void prefetchPage(final int page) {
+    final PageIndex index = mPageIndex;
+    if (index == null || page <= 0 || page * PAGE_SIZE >= index.count
+      || mPages.get(page) != null || mLoadingPages.contains(page)) {
+      return;
+    }
+    final int generation = mGeneration;
+    final String selection = mSelection;
+    final String[] selectionArgs = mSelectionArgs;
+    mLoadingPages.add(page);
+    new AsyncTask<Void, Void, Cursor>() {
+      @Override
+      protected Cursor doInBackground(Void... unused) {
+        Cursor c = queryPage(index, page, NoteItemData.PROJECTION, selection, selectionArgs);
+        if (c != null) {
+          c.getCount();
+        }
+        return c;
+      }
+
+      @Override
+      protected void onPostExecute(Cursor c) {
+        // 列表已重新查询，或扫描结果已更新，按旧键值加载的页不再可用
+        if (generation != mGeneration || index != mPageIndex) {
+          if (c != null) {
+            c.close();
+          }
+          return;
+        }
+        mLoadingPages.remove(page);
+        if (c == null) {
+          return;
+        }
+        if (mPages.get(page) != null) {
+          c.close();
+          return;
+        }
+        mPages.put(page, c);
+        if (mMissedPages.remove(page)) {
+          notifyDataSetChanged();
+        }
+      }
+    }.execute();
+  }
+
+  /**
+   * 将游标移动到指定位置所在的行
+   *
+   * @return 移动后的游标，数据不可用时返回 null
+   */
+  private Cursor moveToPosition(int position) {
+    Cursor c = getPage(position / PAGE_SIZE);
+    if (c == null || c.isClosed() || !c.moveToPosition(position % PAGE_SIZE)) {
+      return null;
+    }
+    return c;
+  }
+
+  @Override
+  public int getCount() {
+    if (mPageIndex != null) {
+      return mPageIndex.count;
+    }
+    return mFirstPage != null ? mFirstPage.getCount() : 0;
+  }
+
+  @Override
+  public Object getItem(int position) {
+    return moveToPosition(position);
+  }
+
+  @Override
+  public long getItemId(int position) {
+    Cursor c = moveToPosition(position);
+    return c != null ? c.getLong(0) : 0;
+  }
+
+  @Override
+  public boolean hasStableIds() {
+    return true;
+  }
+
+  /**
+   * 创建或复用视图，并将对应位置的数据绑定到视图上
    */
   @Override
-  public void bindView(View view, Context context, Cursor cursor) {
-    if (view instanceof NotesListItem) {
-      NoteItemData itemData = new NoteItemData(context, cursor); // 从游标中获取笔记数据
-      ((NotesListItem) view).bind(context, itemData, mChoiceMode,
-        isSelectedItem(cursor.getPosition())); // 绑定数据到视图
+  public View getView(int position, View convertView, ViewGroup parent) {
+    NotesListItem view = (convertView instanceof NotesListItem)
+      ? (NotesListItem) convertView : new NotesListItem(mContext);
+
+    int page = position / PAGE_SIZE;
+    int row = position % PAGE_SIZE;
+    if (row >= PAGE_SIZE - PREFETCH_DISTANCE) {
+      prefetchPage(page + 1);
+    } else if (row < PREFETCH_DISTANCE) {
+      prefetchPage(page - 1);
+    }
+
+    Cursor c = moveToPosition(position);
+    if (c == null) {
+      // 所在页正在后台加载，或数据已发生变化，等待加载或重新查询的结果
+      view.bindPlaceholder();
+      return view;
+    }
+    NoteItemData itemData = new NoteItemData(mContext, c, position, getCount(),
+      followsFolder(c, position, row));
+    view.bind(mContext, itemData, mChoiceMode, isSelectedItem(position)); // 绑定数据到视图
+    requestContactName(itemData);
+    return view;
+  }
+
+  /**
+   * 通话记录的联系人名称尚未缓存时，记下电话号码。同一次布局中绑定的所有号码
+   * 会在布局完成后合并为一次后台查询，查询完成后刷新列表
+   */
+  private void requestContactName(NoteItemData itemData) {
+    String phoneNumber = itemData.getPhoneNumber();
+    if (!itemData.isCallRecord() || Contact.isContactCached(phoneNumber)
+      || !mRequestedNumbers.add(phoneNumber)) {
+      return;
+    }
+    mPendingNumbers.add(phoneNumber);
+    if (mPendingNumbers.size() == 1) {
+      mHandler.post(mContactLookup);
+    }
+  }
+
+  // 在后台批量查询等待中的联系人名称
+  private final Runnable mContactLookup = new Runnable() {
+    @Override
+    public void run() {
+      final ArrayList<String> phoneNumbers = new ArrayList<>(mPendingNumbers);
+      mPendingNumbers.clear();
+      new AsyncTask<Void, Void, Void>() {
+        @Override
+        protected Void doInBackground(Void... unused) {
+          Contact.loadContacts(mContext, phoneNumbers);
+          return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void unused) {
+          mRequestedNumbers.removeAll(phoneNumbers);
+          notifyDataSetChanged();
+        }
+      }.execute();
+    }
+  };
+
+  /**
+   * 判断某个位置的前一项是否为文件夹（或系统文件夹）
+   */
+  private boolean followsFolder(Cursor c, int position, int row) {
+    if (position == 0) {
+      return false;
     }
+    if (row > 0) {
+      c.moveToPosition(row - 1);
+      boolean folder = NoteItemData.getNoteType(c) != Notes.TYPE_NOTE;
+      c.moveToPosition(row);
+      return folder;
+    }
+    return mPageIndex != null && !mPageIndex.isNote(position - 1);
   }
 
   /**
@@ -105,19 +549,20 @@ public class NotesListAdapter extends CursorAdapter {
   }
 
   /**
-   * 全选或取消全选
+   * 全选或取消全选，根据键值扫描结果确定哪些位置是笔记，不需要加载所有页
    *
    * @param checked 是否选中所有项
    */
   public void selectAll(boolean checked) {
-    Cursor cursor = getCursor();
-    for (int i = 0; i < getCount(); i++) {
-      if (cursor.moveToPosition(i)) {
-        if (NoteItemData.getNoteType(cursor) == Notes.TYPE_NOTE) {
-          setCheckedItem(i, checked);
-        }
-      }
+    PageIndex index = mPageIndex;
+    if (index == null) {
+      Log.w(TAG, "List is still loading, select all is ignored");
+      return;
     }
+    for (int i = index.firstNote; i < index.count; i++) {
+      mSelectedIndex.put(i, checked);
+    }
+    notifyDataSetChanged();
   }
 
   /**
@@ -127,14 +572,13 @@ public class NotesListAdapter extends CursorAdapter {
    */
   public HashSet<Long> getSelectedItemIds() {
     HashSet<Long> itemSet = new HashSet<>();
-    for (Integer position : mSelectedIndex.keySet()) {
-      if (mSelectedIndex.get(position)) {
-        Long id = getItemId(position);
-        if (id == Notes.ID_ROOT_FOLDER) {
-          Log.d(TAG, "Wrong item id, should not happen");
-        } else {
-          itemSet.add(id);
-        }
+    Cursor c;
+    for (SelectedRows rows = new SelectedRows(); (c = rows.next()) != null; ) {
+      long id = c.getLong(0);
+      if (id == Notes.ID_ROOT_FOLDER) {
+        Log.d(TAG, "Wrong item id, should not happen");
+      } else {
+        itemSet.add(id);
       }
     }
     return itemSet;
@@ -147,25 +591,67 @@ public class NotesListAdapter extends CursorAdapter {
    */
   public HashSet<AppWidgetAttribute> getSelectedWidget() {
     HashSet<AppWidgetAttribute> itemSet = new HashSet<>();
-    for (Integer position : mSelectedIndex.keySet()) {
-      if (mSelectedIndex.get(position)) {
-        Cursor c = (Cursor) getItem(position);
-        if (c != null) {
-          AppWidgetAttribute widget = new AppWidgetAttribute();
-          NoteItemData item = new NoteItemData(mContext, c);
-          widget.widgetId = item.getWidgetId();
-          widget.widgetType = item.getWidgetType();
-          itemSet.add(widget);
-          /**
-           * 不要在这里关闭游标，只有适配器可以关闭游标
-           */
-        } else {
-          Log.e(TAG, "Invalid cursor");
-          return null;
+    Cursor c;
+    for (SelectedRows rows = new SelectedRows(); (c = rows.next()) != null; ) {
+      AppWidgetAttribute widget = new AppWidgetAttribute();
+      widget.widgetId = c.getInt(1);
+      widget.widgetType = c.getInt(2);
+      itemSet.add(widget);
+    }
+    return itemSet;
+  }
+
+  /**
+   * SelectedRows 按位置顺序遍历所有选中项。每页只查询一次，且只取 id 和小部件信息，
+   * 不使用也不影响列表显示用的游标，因此可以在后台线程中调用。
+   */
+  private class SelectedRows {
+    private final PageIndex mIndex = mPageIndex;
+    private final ArrayList<Integer> mPositions = new ArrayList<>();
+    private int mNext;
+    private int mCurrentPage = -1;
+    private Cursor mCursor;
+
+    SelectedRows() {
+      for (Integer position : mSelectedIndex.keySet()) {
+        if (mSelectedIndex.get(position)) {
+          mPositions.add(position);
         }
       }
+      Collections.sort(mPositions);
+    }
+
+    /**
+     * 移动到下一个选中项
+     *
+     * @return 已移动到该行的游标，遍历结束时返回 null
+     */
+    Cursor next() {
+      while (mNext < mPositions.size()) {
+        int position = mPositions.get(mNext++);
+        int page = position / PAGE_SIZE;
+        if (page != mCurrentPage) {
+          closeCursor();
+          mCurrentPage = page;
+          if (page == 0 || mIndex != null) {
+            mCursor = queryPage(mIndex, page, SELECTION_PROJECTION, mSelection, mSelectionArgs);
+          }
+        }
+        if (mCursor != null && mCursor.moveToPosition(position % PAGE_SIZE)) {
+          return mCursor;
+        }
+        Log.e(TAG, "Invalid cursor");
+      }
+      closeCursor();
+      return null;
+    }
+
+    private void closeCursor() {
+      if (mCursor != null) {
+        mCursor.close();
+        mCursor = null;
+      }
     }
-    return itemSet;
   }
 
   /**
@@ -194,7 +680,7 @@ public class NotesListAdapter extends CursorAdapter {
    */
   public boolean isAllSelected() {
     int checkedCount = getSelectedCount();
-    return (checkedCount != 0 && checkedCount == mNotesCount);
+    return (checkedCount != 0 && mPageIndex != null && checkedCount == mPageIndex.getNotesCount());
   }
 
   /**
@@ -206,34 +692,4 @@ public class NotesListAdapter extends CursorAdapter {
   public boolean isSelectedItem(final int position) {
     return mSelectedIndex.getOrDefault(position, false);
   }
-
-  @Override
-  protected void onContentChanged() {
-    super.onContentChanged();
-    calcNotesCount(); // 重新计算笔记数量
-  }
-
-  @Override
-  public void changeCursor(Cursor cursor) {
-    super.changeCursor(cursor);
-    calcNotesCount(); // 重新计算笔记数量
-  }
-
-  /**
-   * 计算笔记数量
-   */
-  private void calcNotesCount() {
-    mNotesCount = 0;
-    for (int i = 0; i < getCount(); i++) {
-      Cursor c = (Cursor) getItem(i);
-      if (c != null) {
-        if (NoteItemData.getNoteType(c) == Notes.TYPE_NOTE) {
-          mNotesCount++;
-        }
-      } else {
-        Log.e(TAG, "Invalid cursor");
-        return;
-      }
-    }
-  }
-}
\ No newline at end of file
+}
@@ -11,6 +11,7 @@ import android.widget.TextView;
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
 import net.micode.notes.tool.DataUtils;
+import net.micode.notes.tool.ResourceParser;
 import net.micode.notes.tool.ResourceParser.NoteItemBgResources;
 
 /**
@@ -91,6 +92,19 @@ public class NotesListItem extends LinearLayout {
     setBackground(data);
   }
 
+  /**
+   * 数据尚未加载时显示空白的占位项，加载完成后列表刷新时再绑定实际数据
+   */
+  public void bindPlaceholder() {
+    mItemData = null;
+    mCheckBox.setVisibility(View.GONE);
+    mCallName.setVisibility(View.GONE);
+    mAlert.setVisibility(View.GONE);
+    mTitle.setText(null);
+    mTime.setText(null);
+    setBackgroundResource(NoteItemBgResources.getNoteBgNormalRes(ResourceParser.BG_DEFAULT_COLOR));
+  }
+
   private void setBackground(NoteItemData data) {
     int id = data.getBgColorId();
     if (data.getType() == Notes.TYPE_NOTE) {
@@ -108,6 +122,9 @@ public class NotesListItem extends LinearLayout {
     }
   }
 
+  /**
+   * @return 绑定的数据，占位项返回 null
+   */
   public NoteItemData getItemData() {
     return mItemData;
   }
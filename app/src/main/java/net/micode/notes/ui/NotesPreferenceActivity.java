@@ -301,6 +301,7 @@ public class NotesPreferenceActivity extends PreferenceActivity {
           values.put(NoteColumns.GTASK_ID, "");
           values.put(NoteColumns.SYNC_ID, 0);
           getContentResolver().update(Notes.CONTENT_NOTE_URI, values, null, null);
+          getContentResolver().delete(Notes.CONTENT_JOURNAL_URI, null, null);
         }
       }).start();
 
@@ -328,6 +329,8 @@ public class NotesPreferenceActivity extends PreferenceActivity {
         values.put(NoteColumns.GTASK_ID, "");
         values.put(NoteColumns.SYNC_ID, 0);
         getContentResolver().update(Notes.CONTENT_NOTE_URI, values, null, null);
+        // notes are no longer linked to remote tasks, their journal entries are stale
+        getContentResolver().delete(Notes.CONTENT_JOURNAL_URI, null, null);
       }
     }).start();
   }
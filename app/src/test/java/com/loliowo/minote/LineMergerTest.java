@@ -0,0 +1,62 @@
+package com.loliowo.minote;
+
+import net.micode.notes.tool.LineMerger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 笔记正文三方合并的单元测试
+ */
+public class LineMergerTest {
+  @Test
+  public void oneSideChanged_takesTheChange() {
+    LineMerger.Result result = LineMerger.merge("a\nb", "a\nb", "a\nB");
+    assertFalse(result.isConflicted());
+    assertEquals("a\nB", result.getMerged());
+
+    result = LineMerger.merge("a\nb", "A\nb", "a\nb");
+    assertFalse(result.isConflicted());
+    assertEquals("A\nb", result.getMerged());
+  }
+
+  @Test
+  public void separateEdits_areMerged() {
+    LineMerger.Result result = LineMerger.merge("a\nb\nc", "A\nb\nc", "a\nb\nC");
+    assertFalse(result.isConflicted());
+    assertEquals("A\nb\nC", result.getMerged());
+  }
+
+  @Test
+  public void insertionsAndDeletions_areMerged() {
+    LineMerger.Result result = LineMerger.merge("a\nb\nc", "x\na\nb\nc", "a\nc\nd");
+    assertFalse(result.isConflicted());
+    assertEquals("x\na\nc\nd", result.getMerged());
+  }
+
+  @Test
+  public void sameEditOnBothSides_isKeptOnce() {
+    LineMerger.Result result = LineMerger.merge("a\nb\nc", "a\nB\nc\nd", "a\nB\nc");
+    assertFalse(result.isConflicted());
+    assertEquals("a\nB\nc\nd", result.getMerged());
+  }
+
+  @Test
+  public void overlappingEdits_conflict() {
+    LineMerger.Result result = LineMerger.merge("a\nb\nc\nd", "a\nX\nc\nD", "a\nY\nc\nd");
+    assertTrue(result.isConflicted());
+    assertEquals("a\nX\nc\nD", result.getMerged());
+    assertEquals("a\nY\nc\nD", result.getTheirs());
+  }
+
+  @Test
+  public void unknownBase_keepsBothTexts() {
+    LineMerger.Result result = LineMerger.merge("", "local", "remote");
+    assertTrue(result.isConflicted());
+    assertEquals("local", result.getMerged());
+    assertEquals("remote", result.getTheirs());
+  }
+}